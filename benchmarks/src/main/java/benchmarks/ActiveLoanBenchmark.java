@@ -0,0 +1,123 @@
+package benchmarks;
+
+import entities.Borrow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.ApiResult;
+import utils.BulkLoader;
+import utils.DataGenerator;
+import utils.DatabaseConnector;
+import utils.LibraryConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The checks for open loans of borrowBook, returnBook, removeBook and
+ * removeCard, which ask the active_loan table (or its in-memory copy with
+ * library.activeLoanCache), with an empty and a long borrow history. Their
+ * cost should not depend on the length of the history.
+ *
+ * The 100 most popular books of the generated history are each lent to
+ * one of the least popular cards, so the rejected requests meet books and
+ * cards with hundreds or thousands of returned loans.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActiveLoanBenchmark {
+
+    private static final int nBooks = 100_000;
+    private static final int nCards = 10_000;
+    /* the generator draws ids with Zipfian popularity, 1 is the most popular */
+    private static final int nPopular = 100;
+
+    @Param({"0", "1000000"})
+    public long nBorrows;
+
+    @Param({"false", "true"})
+    public boolean activeLoanCache;
+
+    private Library library;
+    private int next;
+    private long time = 1;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        LibraryConfig config = new LibraryConfig();
+        config.setActiveLoanCache(activeLoanCache);
+        library = Library.open(config);
+        DatabaseConnector connector = library.getConnector();
+
+        /* generated loans are all returned, so the cache stays as reset left it */
+        BulkLoader loader = new BulkLoader(connector);
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), connector.getConf().getPoolMaxSize());
+        new DataGenerator(42, nBooks, nCards, nBorrows).generate(loader, threads, false);
+        loader.finish();
+
+        for (int id = 1; id <= nPopular; id++) {
+            Borrow borrow = new Borrow(id, lender(id));
+            borrow.resetBorrowTime();
+            Library.check(library.borrowBook(borrow));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        library.close();
+    }
+
+    /* the card that has book id */
+    private static int lender(int id) {
+        return nCards + 1 - id;
+    }
+
+    /* a different id each time: H2 hands out the last result of a statement
+       again when its parameters and the tables are unchanged */
+    private int nextId() {
+        next = next % nPopular + 1;
+        return next;
+    }
+
+    @Benchmark
+    public ApiResult duplicateBorrow() {
+        int id = nextId();
+        Borrow borrow = new Borrow(id, lender(id));
+        borrow.setBorrowTime(time++);
+        return library.borrowBook(borrow);
+    }
+
+    @Benchmark
+    public ApiResult removeBookOnLoan() {
+        return library.removeBook(nextId());
+    }
+
+    @Benchmark
+    public ApiResult removeCardOnLoan() {
+        return library.removeCard(lender(nextId()));
+    }
+
+    /* a popular card borrows and returns a popular book that is not lent out */
+    @Benchmark
+    public ApiResult borrowAndReturn() {
+        int id = nextId();
+        Borrow borrow = new Borrow(nPopular + id, id);
+        borrow.setBorrowTime(time++);
+        borrow.setReturnTime(time++);
+        Library.check(library.borrowBook(borrow));
+        return Library.check(library.returnBook(borrow));
+    }
+}
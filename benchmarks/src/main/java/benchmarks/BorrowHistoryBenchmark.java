@@ -0,0 +1,91 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.ApiResult;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * showBorrowHistory of a heavy card, one with thousands of loans, among
+ * light cards with a handful each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BorrowHistoryBenchmark {
+
+    private static final int nBooks = 2000;
+    private static final int nLightCards = 200;
+    private static final int nLightLoans = 5;
+
+    @Param({"100", "1000", "10000"})
+    public int nLoans;
+
+    private Library library;
+    private int heavyCardId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        library = Library.open();
+        List<Book> books = CatalogData.books(nBooks, 1);
+        for (Book book : books) {
+            book.setStock(nLoans);
+        }
+        Library.check(library.storeBook(books));
+
+        Random random = new Random(4);
+        Card heavy = CatalogData.card(0, 4);
+        Library.check(library.registerCard(heavy));
+        heavyCardId = heavy.getCardId();
+        lend(heavyCardId, books, nLoans, random);
+        for (int i = 1; i <= nLightCards; i++) {
+            Card light = CatalogData.card(i, 4);
+            Library.check(library.registerCard(light));
+            lend(light.getCardId(), books, nLightLoans, random);
+        }
+    }
+
+    /* n loans, all but the last returned again */
+    private void lend(int cardId, List<Book> books, int n, Random random) {
+        long time = 1;
+        for (int i = 0; i < n; i++) {
+            Borrow borrow = new Borrow(books.get(random.nextInt(books.size())).getBookId(), cardId);
+            borrow.setBorrowTime(time++);
+            borrow.setReturnTime(time++);
+            Library.check(library.borrowBook(borrow));
+            if (i < n - 1) {
+                Library.check(library.returnBook(borrow));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        library.close();
+    }
+
+    @Benchmark
+    public ApiResult showBorrowHistory() {
+        return library.showBorrowHistory(heavyCardId);
+    }
+}
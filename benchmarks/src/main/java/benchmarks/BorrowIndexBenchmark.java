@@ -0,0 +1,154 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.BulkLoader;
+import utils.DBInitializer;
+import utils.DataGenerator;
+import utils.DatabaseConnector;
+import utils.SchemaMigrator;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The active-loan lookups on the borrow table, bookId = ? and returnTime = 0
+ * and cardId = ? and returnTime = 0, at schema version 1, before the
+ * borrow_book_active and borrow_card_active indexes, and at version 3,
+ * with them. The library itself asks active_loan since version 4; these
+ * lookups remain for databases that have not been migrated that far and
+ * for the open loans of a card's history.
+ *
+ * Each lookup is for one of the 100 most popular books or cards, which
+ * have one loan that is not returned among hundreds or thousands that
+ * are. Without the indexes the lookup walks the loans of the book or card
+ * looking for the open one.
+ *
+ * The default table has 1M loans. 10M do not fit into a 4 GB heap with
+ * the in-memory database:
+ * java -jar benchmarks.jar BorrowIndex -p nBorrows=10000000 -jvmArgs -Xmx8g
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BorrowIndexBenchmark {
+
+    private static final int nBooks = 100_000;
+    private static final int nCards = 10_000;
+    /* the generator draws ids with Zipfian popularity, 1 is the most popular */
+    private static final int nPopular = 100;
+
+    @Param({"1", "3"})
+    public int schemaVersion;
+
+    @Param({"1000000"})
+    public long nBorrows;
+
+    private Library library;
+    private Connection conn;
+    private PreparedStatement bookProbe;
+    private PreparedStatement cardProbe;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        library = Library.open();
+        DatabaseConnector connector = library.getConnector();
+        conn = connector.getConn();
+        downgrade(connector.getConf().getType().getDbInitializer());
+
+        BulkLoader loader = new BulkLoader(connector);
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), connector.getConf().getPoolMaxSize() - 1);
+        new DataGenerator(42, nBooks, nCards, nBorrows).generate(loader, threads, false);
+        loader.finish();
+
+        /* the other side of each open loan is among the least popular, i.e.
+           the last in the primary key order (cardId, bookId, borrowTime) */
+        String lendSql = "insert into borrow (cardId, bookId, borrowTime, returnTime) values (?, ?, ?, 0)";
+        try (PreparedStatement stmt = conn.prepareStatement(lendSql)) {
+            long now = System.currentTimeMillis();
+            for (int id = 1; id <= nPopular; id++) {
+                lend(stmt, nCards + 1 - id, id, now);
+                lend(stmt, id, nBooks + 1 - id, now);
+            }
+            stmt.executeBatch();
+        }
+        conn.commit();
+        bookProbe = conn.prepareStatement("select 1 from borrow where bookId = ? and returnTime = 0");
+        cardProbe = conn.prepareStatement("select 1 from borrow where cardId = ? and returnTime = 0");
+    }
+
+    private static void lend(PreparedStatement stmt, int cardId, int bookId, long borrowTime) throws SQLException {
+        stmt.setInt(1, cardId);
+        stmt.setInt(2, bookId);
+        stmt.setLong(3, borrowTime);
+        stmt.addBatch();
+    }
+
+    /* rebuild the empty tables at schemaVersion instead of the latest version */
+    private void downgrade(DBInitializer initializer) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(initializer.sqlDropActiveLoan());
+            stmt.execute(initializer.sqlDropBorrowArchive());
+            stmt.execute(initializer.sqlDropBorrow());
+            stmt.execute(initializer.sqlDropBook());
+            stmt.execute(initializer.sqlDropCard());
+            stmt.execute(initializer.sqlDropSchemaVersion());
+            stmt.execute(initializer.sqlCreateCard());
+            stmt.execute(initializer.sqlCreateBook());
+            stmt.execute(initializer.sqlCreateBorrow());
+            conn.commit();
+            SchemaMigrator.migrate(conn, initializer, schemaVersion);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        bookProbe.close();
+        cardProbe.close();
+        conn.close();
+        library.close();
+    }
+
+    /* a different id each time: H2 hands out the last result of a statement
+       again when its parameters and the tables are unchanged */
+    private int nextId() {
+        next = next % nPopular + 1;
+        return next;
+    }
+
+    private static boolean probe(PreparedStatement stmt, int id) throws SQLException {
+        stmt.setInt(1, id);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    @Benchmark
+    public boolean activeLoanOfBook() throws SQLException {
+        return probe(bookProbe, nextId());
+    }
+
+    @Benchmark
+    public boolean activeLoanOfCard() throws SQLException {
+        return probe(cardProbe, nextId());
+    }
+}
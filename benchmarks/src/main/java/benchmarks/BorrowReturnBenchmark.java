@@ -0,0 +1,136 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.GroupCommitter;
+import utils.LibraryConfig;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * one borrowBook followed by the matching returnBook. every benchmark
+ * thread has a card of its own and cycles through a shared set of books,
+ * so threads contend on the book rows but never on each other's loans.
+ * with groupCommit the requests of all threads share commits, see
+ * {@link utils.GroupCommitter}; the commits and requests counters show
+ * how many requests each commit carried.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class BorrowReturnBenchmark {
+
+    private static final int nBooks = 256;
+
+    @Param({"false", "true"})
+    public boolean optimisticBorrow;
+
+    @Param({"false", "true"})
+    public boolean groupCommit;
+
+    private Library library;
+    private List<Book> books;
+    private final AtomicInteger nextCard = new AtomicInteger();
+    private final AtomicInteger nextCounters = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Desk {
+        int cardId;
+        int next;
+        long time = 1;
+
+        @Setup(Level.Trial)
+        public void setUp(BorrowReturnBenchmark benchmark) {
+            Card card = CatalogData.card(benchmark.nextCard.incrementAndGet(), 3);
+            Library.check(benchmark.library.registerCard(card));
+            cardId = card.getCardId();
+            next = cardId * 31;
+        }
+    }
+
+    /**
+     * the group committer's commits & requests during an iteration. the
+     * committer counts for all threads, so only the first thread's state
+     * reports them, the others stay at 0 in JMH's sum.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        private GroupCommitter committer;
+        private long commitBase;
+        private long requestBase;
+
+        @Setup(Level.Trial)
+        public void setUp(BorrowReturnBenchmark benchmark) {
+            if (benchmark.nextCounters.getAndIncrement() == 0) {
+                committer = benchmark.library.getGroupCommitter();
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            if (committer != null) {
+                commitBase = committer.getCommitCount();
+                requestBase = committer.getRequestCount();
+            }
+        }
+
+        public long commits() {
+            return committer == null ? 0 : committer.getCommitCount() - commitBase;
+        }
+
+        public long requests() {
+            return committer == null ? 0 : committer.getRequestCount() - requestBase;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LibraryConfig config = new LibraryConfig();
+        config.setOptimisticBorrow(optimisticBorrow);
+        config.setGroupCommit(groupCommit);
+        library = Library.open(config);
+        books = CatalogData.books(nBooks, 1);
+        for (Book book : books) {
+            /* enough stock for every thread to hold a copy */
+            book.setStock(1000);
+        }
+        Library.check(library.storeBook(books));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        library.close();
+    }
+
+    @Benchmark
+    public void borrowAndReturn(Desk desk, Counters counters) {
+        Borrow borrow = new Borrow(books.get(desk.next++ % nBooks).getBookId(), desk.cardId);
+        borrow.setBorrowTime(desk.time++);
+        borrow.setReturnTime(desk.time++);
+        Library.check(library.borrowBook(borrow));
+        Library.check(library.returnBook(borrow));
+    }
+}
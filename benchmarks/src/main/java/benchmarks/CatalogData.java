@@ -0,0 +1,56 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Card;
+import utils.RandomData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic test data, so that every run of a benchmark works on the
+ * same catalog.
+ */
+final class CatalogData {
+
+    private CatalogData() {
+    }
+
+    /**
+     * n distinct books drawn from the attribute pools of RandomData. titles
+     * carry a serial number so that any n stays unique.
+     */
+    static List<Book> books(int n, long seed) {
+        return books(n, seed, 0);
+    }
+
+    /**
+     * like books(n, seed), numbered from firstSerial on, so that batches
+     * with different serials never collide.
+     */
+    static List<Book> books(int n, long seed, int firstSerial) {
+        Random random = new Random(seed + firstSerial);
+        List<Book> books = new ArrayList<>(n);
+        for (int i = firstSerial; i < firstSerial + n; i++) {
+            books.add(new Book(pick(random, RandomData.categories),
+                    pick(random, RandomData.titles) + " " + i,
+                    pick(random, RandomData.press),
+                    1900 + random.nextInt(123),
+                    pick(random, RandomData.authors),
+                    Math.round((6.66 + random.nextDouble() * 226.67) * 100) / 100.0,
+                    random.nextInt(20)));
+        }
+        return books;
+    }
+
+    static Card card(int serial, long seed) {
+        Random random = new Random(seed + serial);
+        return new Card(0, String.format("User%07d", serial), pick(random, RandomData.departments),
+                random.nextBoolean() ? Card.CardType.Student : Card.CardType.Teacher);
+    }
+
+    private static String pick(Random random, List<String> pool) {
+        return pool.get(random.nextInt(pool.size()));
+    }
+}
@@ -0,0 +1,72 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import queries.BookQueryConditions;
+import queries.BookQueryResults;
+import queries.CardList;
+
+import java.util.List;
+
+/**
+ * calls LibraryManagementSystemImpl in this JVM, on the database of the
+ * benchmarks' application.yaml.
+ */
+final class EmbeddedTarget implements LoadTarget {
+
+    private final Library library = Library.open();
+
+    @Override
+    public boolean storeBooks(List<Book> books) {
+        return library.storeBook(books).ok;
+    }
+
+    @Override
+    public boolean registerCard(String name, String department, String type) {
+        return library.registerCard(new Card(0, name, department, Card.CardType.fromString(type))).ok;
+    }
+
+    @Override
+    public int[] bookIds() {
+        List<Book> books = ((BookQueryResults) Library.check(library.queryBook(new BookQueryConditions())).payload)
+                .getResults();
+        return books.stream().mapToInt(Book::getBookId).toArray();
+    }
+
+    @Override
+    public int[] cardIds() {
+        List<Card> cards = ((CardList) Library.check(library.showCards()).payload).getCards();
+        return cards.stream().mapToInt(Card::getCardId).toArray();
+    }
+
+    @Override
+    public boolean queryBooks(BookQueryConditions conditions) {
+        return library.queryBook(conditions).ok;
+    }
+
+    @Override
+    public boolean borrowBook(Borrow borrow) {
+        return library.borrowBook(borrow).ok;
+    }
+
+    @Override
+    public boolean returnBook(Borrow borrow) {
+        return library.returnBook(borrow).ok;
+    }
+
+    @Override
+    public boolean showCards() {
+        return library.showCards().ok;
+    }
+
+    @Override
+    public boolean showBorrowHistory(int cardId) {
+        return library.showBorrowHistory(cardId).ok;
+    }
+
+    @Override
+    public void close() {
+        library.close();
+    }
+}
@@ -0,0 +1,108 @@
+package benchmarks;
+
+import utils.BulkLoader;
+import utils.CsvDumper;
+import utils.DataGenerator;
+
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Generates a large, reproducible data set with {@link DataGenerator} and
+ * either loads it into the database of application.yaml, which is wiped
+ * first, or writes it to CSV files.
+ *
+ * java -cp benchmarks.jar benchmarks.GenerateData [options], see usage().
+ * To load into another database, put a directory with its application.yaml
+ * first on the class path: java -cp conf:benchmarks.jar ...
+ */
+public final class GenerateData {
+
+    static final class Options {
+        int books = 100_000;
+        int cards = 10_000;
+        long borrows = 1_000_000;
+        long seed = 42;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String dump = null;
+
+        static Options parse(String[] args) {
+            Options o = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (name.equals("-h") || name.equals("--help")) {
+                    usage();
+                    System.exit(0);
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + name);
+                }
+                String value = args[++i];
+                switch (name) {
+                    case "--books": o.books = Integer.parseInt(value); break;
+                    case "--cards": o.cards = Integer.parseInt(value); break;
+                    case "--borrows": o.borrows = Long.parseLong(value); break;
+                    case "--seed": o.seed = Long.parseLong(value); break;
+                    case "--threads": o.threads = Integer.parseInt(value); break;
+                    case "--dump": o.dump = value; break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + name);
+                }
+            }
+            if (o.books < 0 || o.cards < 0 || o.borrows < 0) {
+                throw new IllegalArgumentException("Counts must not be negative");
+            }
+            if (o.threads <= 0) {
+                throw new IllegalArgumentException("--threads must be positive");
+            }
+            return o;
+        }
+    }
+
+    static void usage() {
+        System.out.println(String.join("\n",
+                "usage: java -cp benchmarks.jar benchmarks.GenerateData [options]",
+                "  --books N      books (100000)",
+                "  --cards N      cards (10000)",
+                "  --borrows N    returned loans (1000000)",
+                "  --seed N       the same seed generates the same data (42)",
+                "  --threads N    generating & loading threads (number of CPUs)",
+                "  --dump DIR     write book.csv, card.csv and borrow.csv to DIR instead of",
+                "                 wiping and loading the database of application.yaml"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(1);
+            return;
+        }
+        DataGenerator generator = new DataGenerator(options.seed, options.books, options.cards, options.borrows);
+        long start = System.nanoTime();
+        if (options.dump != null) {
+            try (CsvDumper dumper = new CsvDumper(Paths.get(options.dump))) {
+                generator.generate(dumper, options.threads, true);
+            }
+            System.out.println("written to " + options.dump);
+        } else {
+            Library library = Library.open();
+            try {
+                BulkLoader loader = new BulkLoader(library.getConnector());
+                /* every loading thread holds a pooled connection for a whole chunk */
+                int threads = Math.min(options.threads, library.getConnector().getConf().getPoolMaxSize());
+                generator.generate(loader, threads, false);
+                loader.finish();
+            } finally {
+                library.close();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long rows = options.books + options.cards + options.borrows;
+        System.out.printf(Locale.ROOT, "%d books, %d cards and %d borrows in %.1f s (%.0f rows/s)%n",
+                options.books, options.cards, options.borrows, seconds, rows / seconds);
+    }
+}
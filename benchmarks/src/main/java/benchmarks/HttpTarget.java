@@ -0,0 +1,166 @@
+package benchmarks;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import entities.Book;
+import entities.Borrow;
+import queries.BookQueryConditions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * sends requests to a running Main server. the JDK keeps connections
+ * alive between requests, as long as every response is read to the end.
+ */
+final class HttpTarget implements LoadTarget {
+
+    private final String baseUrl;
+    private final int timeoutMs;
+
+    /**
+     * @param connections connections kept alive, should be at least the
+     *                    number of concurrent requests
+     */
+    HttpTarget(String baseUrl, int connections, int timeoutMs) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.timeoutMs = timeoutMs;
+        System.setProperty("http.maxConnections", String.valueOf(connections));
+    }
+
+    @Override
+    public boolean storeBooks(List<Book> books) throws IOException {
+        return send("POST", "/books", JSON.toJSONBytes(books), null) == 200;
+    }
+
+    @Override
+    public boolean registerCard(String name, String department, String type) throws IOException {
+        JSONObject card = new JSONObject();
+        card.put("name", name);
+        card.put("department", department);
+        card.put("type", type);
+        return send("POST", "/cards", JSON.toJSONBytes(card), null) == 200;
+    }
+
+    @Override
+    public int[] bookIds() throws IOException {
+        JSONArray books = data("/books").getJSONArray("results");
+        int[] ids = new int[books.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = books.getJSONObject(i).getIntValue("bookId");
+        }
+        return ids;
+    }
+
+    @Override
+    public int[] cardIds() throws IOException {
+        JSONArray cards = data("/cards").getJSONArray("cards");
+        int[] ids = new int[cards.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = cards.getJSONObject(i).getIntValue("cardId");
+        }
+        return ids;
+    }
+
+    @Override
+    public boolean queryBooks(BookQueryConditions c) throws IOException {
+        StringBuilder path = new StringBuilder("/books?sortBy=").append(c.getSortBy().getValue())
+                .append("&sortOrder=").append(c.getSortOrder().getValue());
+        param(path, "category", c.getCategory());
+        param(path, "title", c.getTitle());
+        param(path, "press", c.getPress());
+        param(path, "author", c.getAuthor());
+        param(path, "minPublishYear", c.getMinPublishYear());
+        param(path, "maxPublishYear", c.getMaxPublishYear());
+        param(path, "minPrice", c.getMinPrice());
+        param(path, "maxPrice", c.getMaxPrice());
+        param(path, "limit", c.getLimit());
+        return send("GET", path.toString(), null, null) == 200;
+    }
+
+    @Override
+    public boolean borrowBook(Borrow borrow) throws IOException {
+        return send("POST", "/borrows", JSON.toJSONBytes(borrow), null) == 200;
+    }
+
+    @Override
+    public boolean returnBook(Borrow borrow) throws IOException {
+        return send("PUT", "/borrows", JSON.toJSONBytes(borrow), null) == 200;
+    }
+
+    @Override
+    public boolean showCards() throws IOException {
+        return send("GET", "/cards", null, null) == 200;
+    }
+
+    @Override
+    public boolean showBorrowHistory(int cardId) throws IOException {
+        return send("GET", "/borrows/" + cardId, null, null) == 200;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private JSONObject data(String path) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int status = send("GET", path, null, body);
+        JSONObject response = JSON.parseObject(body.toByteArray());
+        if (status != 200 || response == null || !response.getBooleanValue("success")) {
+            throw new IOException("GET " + path + " failed with status " + status);
+        }
+        return response.getJSONObject("data");
+    }
+
+    private static void param(StringBuilder path, String name, Object value) throws UnsupportedEncodingException {
+        if (value != null) {
+            /* the server decodes %20 but not '+' */
+            path.append('&').append(name).append('=')
+                    .append(URLEncoder.encode(value.toString(), "UTF-8").replace("+", "%20"));
+        }
+    }
+
+    /**
+     * @param body request body, or null
+     * @param response receives the response body, which is discarded if null
+     * @return HTTP status
+     */
+    private int send(String method, String path, byte[] body, OutputStream response) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(timeoutMs);
+        conn.setReadTimeout(timeoutMs);
+        if (body != null) {
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "application/json");
+            conn.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        int status = conn.getResponseCode();
+        InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+        if (in != null) {
+            /* drain the body, otherwise the connection cannot be reused */
+            try (InputStream input = in) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = input.read(buffer)) > 0) {
+                    if (response != null) {
+                        response.write(buffer, 0, n);
+                    }
+                }
+            }
+        }
+        return status;
+    }
+}
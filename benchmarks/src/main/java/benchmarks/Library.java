@@ -0,0 +1,211 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import utils.ConnectConfig;
+import utils.DatabaseConnector;
+import utils.GroupCommitter;
+import utils.LibraryConfig;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * LibraryManagementSystemImpl lives in the default package, which classes
+ * in a named package (as JMH requires) cannot import. This opens one on a
+ * fresh connection pool and calls it through method handles, whose cost
+ * is negligible next to a database round trip.
+ */
+public final class Library {
+
+    private static final Class<?> IMPL;
+    private static final MethodHandle NEW;
+    private static final MethodHandle CLOSE;
+    private static final MethodHandle RESET;
+    private static final MethodHandle GROUP_COMMITTER;
+    private static final MethodHandle STORE_BOOK;
+    private static final MethodHandle STORE_BOOKS;
+    private static final MethodHandle QUERY_BOOK;
+    private static final MethodHandle REMOVE_BOOK;
+    private static final MethodHandle BORROW_BOOK;
+    private static final MethodHandle RETURN_BOOK;
+    private static final MethodHandle SHOW_BORROW_HISTORY;
+    private static final MethodHandle REGISTER_CARD;
+    private static final MethodHandle REGISTER_CARDS;
+    private static final MethodHandle REMOVE_CARD;
+    private static final MethodHandle SHOW_CARDS;
+
+    static {
+        try {
+            IMPL = Class.forName("LibraryManagementSystemImpl");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            NEW = lookup.findConstructor(IMPL,
+                    MethodType.methodType(void.class, DatabaseConnector.class, LibraryConfig.class));
+            CLOSE = lookup.findVirtual(IMPL, "close", MethodType.methodType(void.class));
+            RESET = api(lookup, "resetDatabase");
+            MethodHandle committer = lookup.findVirtual(IMPL, "getGroupCommitter",
+                    MethodType.methodType(GroupCommitter.class));
+            GROUP_COMMITTER = committer.asType(committer.type().changeParameterType(0, Object.class));
+            STORE_BOOK = api(lookup, "storeBook", Book.class);
+            STORE_BOOKS = api(lookup, "storeBook", List.class);
+            QUERY_BOOK = api(lookup, "queryBook", BookQueryConditions.class);
+            REMOVE_BOOK = api(lookup, "removeBook", int.class);
+            BORROW_BOOK = api(lookup, "borrowBook", Borrow.class);
+            RETURN_BOOK = api(lookup, "returnBook", Borrow.class);
+            SHOW_BORROW_HISTORY = api(lookup, "showBorrowHistory", int.class);
+            REGISTER_CARD = api(lookup, "registerCard", Card.class);
+            REGISTER_CARDS = api(lookup, "registerCards", List.class);
+            REMOVE_CARD = api(lookup, "removeCard", int.class);
+            SHOW_CARDS = api(lookup, "showCards");
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle api(MethodHandles.Lookup lookup, String name, Class<?>... params)
+            throws ReflectiveOperationException {
+        MethodHandle handle = lookup.findVirtual(IMPL, name, MethodType.methodType(ApiResult.class, params));
+        return handle.asType(handle.type().changeParameterType(0, Object.class));
+    }
+
+    private final DatabaseConnector connector;
+    private final Object impl;
+
+    private Library(DatabaseConnector connector, Object impl) {
+        this.connector = connector;
+        this.impl = impl;
+    }
+
+    /**
+     * connect to the database of benchmarks/src/main/resources/application.yaml
+     * and wipe it.
+     */
+    public static Library open(LibraryConfig config) {
+        try {
+            DatabaseConnector connector = new DatabaseConnector(new ConnectConfig());
+            if (!connector.connect()) {
+                throw new IllegalStateException("Failed to connect to database");
+            }
+            Library library = new Library(connector, NEW.invoke(connector, config));
+            check(library.resetDatabase());
+            return library;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Library open() {
+        return open(new LibraryConfig());
+    }
+
+    /**
+     * @return the result, if it is ok
+     * @throws IllegalStateException if it is not
+     */
+    public static ApiResult check(ApiResult result) {
+        if (!result.ok) {
+            throw new IllegalStateException(result.message);
+        }
+        return result;
+    }
+
+    public DatabaseConnector getConnector() {
+        return connector;
+    }
+
+    /**
+     * @return the group-commit stage of the library, or null if
+     *         groupCommit is off
+     */
+    public GroupCommitter getGroupCommitter() {
+        try {
+            return (GroupCommitter) GROUP_COMMITTER.invokeExact(impl);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void close() {
+        try {
+            CLOSE.invoke(impl);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        connector.release();
+    }
+
+    public ApiResult resetDatabase() {
+        return call(RESET);
+    }
+
+    public ApiResult storeBook(Book book) {
+        return call(STORE_BOOK, book);
+    }
+
+    public ApiResult storeBook(List<Book> books) {
+        return call(STORE_BOOKS, books);
+    }
+
+    public ApiResult queryBook(BookQueryConditions conditions) {
+        return call(QUERY_BOOK, conditions);
+    }
+
+    public ApiResult removeBook(int bookId) {
+        return call(REMOVE_BOOK, bookId);
+    }
+
+    public ApiResult borrowBook(Borrow borrow) {
+        return call(BORROW_BOOK, borrow);
+    }
+
+    public ApiResult returnBook(Borrow borrow) {
+        return call(RETURN_BOOK, borrow);
+    }
+
+    public ApiResult showBorrowHistory(int cardId) {
+        try {
+            return (ApiResult) SHOW_BORROW_HISTORY.invokeExact(impl, cardId);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public ApiResult registerCard(Card card) {
+        return call(REGISTER_CARD, card);
+    }
+
+    public ApiResult registerCards(List<Card> cards) {
+        return call(REGISTER_CARDS, cards);
+    }
+
+    public ApiResult removeCard(int cardId) {
+        return call(REMOVE_CARD, cardId);
+    }
+
+    public ApiResult showCards() {
+        return call(SHOW_CARDS);
+    }
+
+    private ApiResult call(MethodHandle handle) {
+        try {
+            return (ApiResult) handle.invokeExact(impl);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ApiResult call(MethodHandle handle, Object arg) {
+        try {
+            return (ApiResult) handle.invoke(impl, arg);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
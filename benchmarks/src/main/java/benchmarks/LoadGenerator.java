@@ -0,0 +1,476 @@
+package benchmarks;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONWriter;
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import queries.BookQueryConditions;
+import queries.SortOrder;
+import utils.LatencyHistogram;
+import utils.RandomData;
+import utils.ZipfDistribution;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for the library, either over HTTP against a
+ * running Main or in process against LibraryManagementSystemImpl.
+ *
+ * Requests arrive as a Poisson process at a fixed rate, no matter how
+ * fast earlier ones complete, and each one's latency is measured from
+ * the time it was due to be sent. A saturated server therefore shows up
+ * as growing latency instead of silently lowering the load. Books are
+ * picked with Zipfian popularity, cards uniformly.
+ *
+ * java -cp benchmarks.jar benchmarks.LoadGenerator [options], see usage().
+ */
+public final class LoadGenerator {
+
+    enum Op {
+        QUERY("query"),
+        BORROW("borrow"),
+        RETURN("return"),
+        CARDS("cards"),
+        HISTORY("history"),
+        IMPORT("import");
+
+        final String name;
+
+        Op(String name) {
+            this.name = name;
+        }
+
+        static Op of(String name) {
+            for (Op op : values()) {
+                if (op.name.equals(name)) {
+                    return op;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation: " + name);
+        }
+    }
+
+    static final class Options {
+        String target = "embedded";
+        double rate = 200;
+        long durationSec = 30;
+        long requests = 0;
+        long warmupSec = 5;
+        int concurrency = 64;
+        int books = 10000;
+        int cards = 1000;
+        double zipf = 0.99;
+        long seed = 42;
+        int importSize = 100;
+        int queryLimit = 50;
+        int timeoutMs = 10000;
+        String out = null;
+        final Map<Op, Integer> mix = new EnumMap<>(Op.class);
+
+        Options() {
+            mix.put(Op.QUERY, 60);
+            mix.put(Op.BORROW, 15);
+            mix.put(Op.RETURN, 15);
+            mix.put(Op.CARDS, 3);
+            mix.put(Op.HISTORY, 5);
+            mix.put(Op.IMPORT, 2);
+        }
+
+        static Options parse(String[] args) {
+            Options o = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (name.equals("-h") || name.equals("--help")) {
+                    usage();
+                    System.exit(0);
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + name);
+                }
+                String value = args[++i];
+                switch (name) {
+                    case "--target": o.target = value; break;
+                    case "--rate": o.rate = Double.parseDouble(value); break;
+                    case "--duration": o.durationSec = Long.parseLong(value); break;
+                    case "--requests": o.requests = Long.parseLong(value); break;
+                    case "--warmup": o.warmupSec = Long.parseLong(value); break;
+                    case "--concurrency": o.concurrency = Integer.parseInt(value); break;
+                    case "--books": o.books = Integer.parseInt(value); break;
+                    case "--cards": o.cards = Integer.parseInt(value); break;
+                    case "--zipf": o.zipf = Double.parseDouble(value); break;
+                    case "--seed": o.seed = Long.parseLong(value); break;
+                    case "--import-size": o.importSize = Integer.parseInt(value); break;
+                    case "--query-limit": o.queryLimit = Integer.parseInt(value); break;
+                    case "--timeout": o.timeoutMs = Integer.parseInt(value); break;
+                    case "--out": o.out = value; break;
+                    case "--mix":
+                        o.mix.clear();
+                        for (String part : value.split(",")) {
+                            String[] pair = part.split("=");
+                            if (pair.length != 2) {
+                                throw new IllegalArgumentException("Invalid mix entry: " + part);
+                            }
+                            o.mix.put(Op.of(pair[0].trim()), Integer.parseInt(pair[1].trim()));
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + name);
+                }
+            }
+            if (o.rate <= 0) {
+                throw new IllegalArgumentException("--rate must be positive");
+            }
+            if (o.mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+                throw new IllegalArgumentException("--mix must contain a positive weight");
+            }
+            return o;
+        }
+    }
+
+    static void usage() {
+        System.out.println(String.join("\n",
+                "usage: java -cp benchmarks.jar benchmarks.LoadGenerator [options]",
+                "  --target embedded|URL   in-process library (default) or e.g. http://localhost:8000",
+                "  --rate N                requests per second, arriving as a Poisson process (200)",
+                "  --duration S            seconds to measure after the warmup (30)",
+                "  --requests N            measure N requests instead of a duration",
+                "  --warmup S              seconds of load that are not measured (5)",
+                "  --concurrency N         requests in flight at most, later ones queue (64)",
+                "  --mix op=w,...          weights of query, borrow, return, cards, history, import",
+                "                          (query=60,borrow=15,return=15,cards=3,history=5,import=2)",
+                "  --books N               books to add before the run (10000)",
+                "  --cards N               cards to add before the run (1000)",
+                "  --zipf S                skew of book popularity, 0 = uniform (0.99)",
+                "  --import-size N         books per import request (100)",
+                "  --query-limit N         page size of book queries, 0 = unlimited (50)",
+                "  --seed N                seed of the data & request sequence (42)",
+                "  --timeout MS            HTTP connect & read timeout (10000)",
+                "  --out FILE              also write the report as JSON"));
+    }
+
+    /* counters of one operation */
+    static final class OpStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong maxNanos = new AtomicLong();
+        /* the library answered with an error, e.g. no stock left */
+        final AtomicLong failed = new AtomicLong();
+        /* the request itself failed, e.g. a timeout */
+        final AtomicLong errors = new AtomicLong();
+
+        void record(long nanos) {
+            latency.record(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    private final Options options;
+    private final LoadTarget target;
+    private final Map<Op, OpStats> stats = new EnumMap<>(Op.class);
+    /* loans that were borrowed and not yet returned */
+    private final ConcurrentLinkedQueue<Borrow> loans = new ConcurrentLinkedQueue<>();
+    /* borrow & return times, strictly increasing so that every return is after its borrow */
+    private final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+    private final AtomicInteger importSerial;
+    private int[] bookIds;
+    private int[] cardIds;
+
+    LoadGenerator(Options options, LoadTarget target) {
+        this.options = options;
+        this.target = target;
+        for (Op op : Op.values()) {
+            stats.put(op, new OpStats());
+        }
+        /* imported books are numbered after the initial catalog, so they are never duplicates */
+        this.importSerial = new AtomicInteger(Math.max(options.books, 1_000_000));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(1);
+            return;
+        }
+        try (LoadTarget target = options.target.equals("embedded")
+                ? new EmbeddedTarget()
+                : new HttpTarget(options.target, options.concurrency, options.timeoutMs)) {
+            LoadGenerator generator = new LoadGenerator(options, target);
+            generator.prepare();
+            long measuredNanos = generator.run();
+            generator.report(measuredNanos);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * add the initial books & cards and look up the ids of everything in
+     * the library.
+     */
+    void prepare() throws IOException {
+        long start = System.nanoTime();
+        for (int first = 0; first < options.books; first += 10000) {
+            List<Book> batch = CatalogData.books(Math.min(10000, options.books - first), options.seed, first);
+            if (!target.storeBooks(batch)) {
+                throw new IllegalStateException("Failed to store initial books");
+            }
+        }
+        for (int i = 0; i < options.cards; i++) {
+            Card card = CatalogData.card(i, options.seed);
+            /* may already exist from an earlier run against the same server */
+            target.registerCard(card.getName(), card.getDepartment(), card.getType().getStr());
+        }
+        bookIds = target.bookIds();
+        cardIds = target.cardIds();
+        if (bookIds.length == 0 || cardIds.length == 0) {
+            throw new IllegalStateException("The library needs at least one book and one card");
+        }
+        System.out.printf(Locale.ROOT, "prepared %d books and %d cards in %.1f s%n",
+                bookIds.length, cardIds.length, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * send requests until the duration or request count is reached and
+     * wait for the ones in flight.
+     *
+     * @return nanoseconds from the end of the warmup to the last completion
+     */
+    long run() throws InterruptedException {
+        Random random = new Random(options.seed);
+        ZipfDistribution popularity = new ZipfDistribution(bookIds.length, options.zipf, options.seed);
+        Op[] ops = Op.values();
+        int[] cumulative = new int[ops.length];
+        int totalWeight = 0;
+        for (int i = 0; i < ops.length; i++) {
+            totalWeight += options.mix.getOrDefault(ops[i], 0);
+            cumulative[i] = totalWeight;
+        }
+
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(options.concurrency, options.concurrency,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "load-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        double meanGapNanos = 1e9 / options.rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSec);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(options.durationSec);
+        AtomicLong lastCompletion = new AtomicLong(measureFrom);
+        System.out.printf(Locale.ROOT, "sending %.0f requests/s for %s after %d s of warmup%n", options.rate,
+                options.requests > 0 ? options.requests + " requests" : options.durationSec + " s", options.warmupSec);
+
+        double due = start;
+        long measured = 0;
+        while (options.requests == 0 || measured < options.requests) {
+            due += -Math.log(1 - random.nextDouble()) * meanGapNanos;
+            long dueNanos = (long) due;
+            if (options.requests == 0 && dueNanos - end >= 0) {
+                break;
+            }
+            long wait = dueNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int pick = random.nextInt(totalWeight);
+            int o = 0;
+            while (cumulative[o] <= pick) {
+                o++;
+            }
+            boolean measure = dueNanos - measureFrom >= 0;
+            if (measure) {
+                measured++;
+            }
+            Runnable request = request(ops[o], random, popularity, dueNanos, measure);
+            workers.execute(() -> {
+                request.run();
+                if (measure) {
+                    lastCompletion.accumulateAndGet(System.nanoTime(), Math::max);
+                }
+            });
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(Math.max(60, options.timeoutMs / 1000 * 2), TimeUnit.SECONDS)) {
+            System.out.println("gave up waiting for " + workers.getQueue().size() + " queued requests");
+            workers.shutdownNow();
+        }
+        return Math.max(1, lastCompletion.get() - measureFrom);
+    }
+
+    /**
+     * draw the parameters of a request on the calling thread, so that the
+     * sequence of requests only depends on the seed.
+     *
+     * @param due when the request was due to be sent, its latency counts from there
+     */
+    private Runnable request(Op op, Random random, ZipfDistribution popularity, long due, boolean measure) {
+        int bookId = bookIds[popularity.sample(random.nextDouble())];
+        int cardId = cardIds[random.nextInt(cardIds.length)];
+        BookQueryConditions conditions = op == Op.QUERY ? conditions(random) : null;
+        int serial = op == Op.IMPORT ? importSerial.getAndAdd(options.importSize) : 0;
+        return () -> {
+            Op done = op;
+            boolean ok = false;
+            try {
+                switch (op) {
+                    case QUERY:
+                        ok = target.queryBooks(conditions);
+                        break;
+                    case RETURN:
+                        Borrow loan = loans.poll();
+                        if (loan != null) {
+                            loan.setReturnTime(clock.incrementAndGet());
+                            ok = target.returnBook(loan);
+                            break;
+                        }
+                        /* nothing to return yet, borrow instead */
+                        done = Op.BORROW;
+                        ok = borrow(bookId, cardId);
+                        break;
+                    case BORROW:
+                        ok = borrow(bookId, cardId);
+                        break;
+                    case CARDS:
+                        ok = target.showCards();
+                        break;
+                    case HISTORY:
+                        ok = target.showBorrowHistory(cardId);
+                        break;
+                    case IMPORT:
+                        ok = target.storeBooks(CatalogData.books(options.importSize, options.seed, serial));
+                        break;
+                }
+                if (!ok && measure) {
+                    stats.get(done).failed.incrementAndGet();
+                }
+            } catch (IOException | RuntimeException e) {
+                if (measure) {
+                    stats.get(done).errors.incrementAndGet();
+                }
+            }
+            if (measure) {
+                stats.get(done).record(System.nanoTime() - due);
+            }
+        };
+    }
+
+    private boolean borrow(int bookId, int cardId) throws IOException {
+        Borrow borrow = new Borrow(bookId, cardId);
+        borrow.setBorrowTime(clock.incrementAndGet());
+        boolean ok = target.borrowBook(borrow);
+        if (ok) {
+            loans.add(borrow);
+        }
+        return ok;
+    }
+
+    /* a category, a fuzzy title or author, or a price or year range, sorted by a random column */
+    private BookQueryConditions conditions(Random random) {
+        BookQueryConditions c = new BookQueryConditions();
+        switch (random.nextInt(4)) {
+            case 0:
+                c.setCategory(pick(random, RandomData.categories));
+                break;
+            case 1:
+                c.setTitle(pick(random, RandomData.titles).split(" ")[0]);
+                break;
+            case 2:
+                c.setAuthor(pick(random, RandomData.authors));
+                break;
+            default:
+                int year = 1900 + random.nextInt(110);
+                c.setMinPublishYear(year);
+                c.setMaxPublishYear(year + 10);
+                double price = random.nextInt(200);
+                c.setMinPrice(price);
+                c.setMaxPrice(price + 30);
+        }
+        Book.SortColumn[] columns = Book.SortColumn.values();
+        c.setSortBy(columns[random.nextInt(columns.length)]);
+        c.setSortOrder(random.nextBoolean() ? SortOrder.ASC : SortOrder.DESC);
+        if (options.queryLimit > 0) {
+            c.setLimit(options.queryLimit);
+        }
+        return c;
+    }
+
+    private static String pick(Random random, List<String> pool) {
+        return pool.get(random.nextInt(pool.size()));
+    }
+
+    /**
+     * print throughput and latency percentiles per operation, and write
+     * them as JSON if --out is given.
+     */
+    void report(long measuredNanos) throws IOException {
+        double seconds = measuredNanos / 1e9;
+        List<JSONObject> rows = new ArrayList<>();
+        long total = 0;
+        System.out.printf(Locale.ROOT, "%n%-8s %9s %8s %7s %10s %9s %9s %9s %9s %9s%n", "op", "count", "failed",
+                "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "p999 ms", "max ms");
+        for (Op op : Op.values()) {
+            OpStats s = stats.get(op);
+            long count = s.latency.getCount();
+            if (count == 0) {
+                continue;
+            }
+            total += count;
+            JSONObject row = new JSONObject();
+            row.put("op", op.name);
+            row.put("count", count);
+            row.put("failed", s.failed.get());
+            row.put("errors", s.errors.get());
+            row.put("throughput", count / seconds);
+            /* quantiles are bucket upper bounds, which may lie above the exact maximum */
+            long max = s.maxNanos.get();
+            row.put("p50Ms", Math.min(s.latency.quantileNanos(0.5), max) / 1e6);
+            row.put("p95Ms", Math.min(s.latency.quantileNanos(0.95), max) / 1e6);
+            row.put("p99Ms", Math.min(s.latency.quantileNanos(0.99), max) / 1e6);
+            row.put("p999Ms", Math.min(s.latency.quantileNanos(0.999), max) / 1e6);
+            row.put("maxMs", max / 1e6);
+            rows.add(row);
+            System.out.printf(Locale.ROOT, "%-8s %9d %8d %7d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", op.name, count,
+                    s.failed.get(), s.errors.get(), count / seconds, row.getDoubleValue("p50Ms"),
+                    row.getDoubleValue("p95Ms"), row.getDoubleValue("p99Ms"), row.getDoubleValue("p999Ms"),
+                    row.getDoubleValue("maxMs"));
+        }
+        System.out.printf(Locale.ROOT, "%-8s %9d %35.1f   (target %.1f)%n", "total", total, total / seconds,
+                options.rate);
+        System.out.println("latencies count from when a request was due and are accurate to 12.5%");
+
+        if (options.out != null) {
+            JSONObject report = new JSONObject();
+            report.put("target", options.target);
+            report.put("rate", options.rate);
+            report.put("concurrency", options.concurrency);
+            report.put("zipf", options.zipf);
+            report.put("seed", options.seed);
+            report.put("seconds", seconds);
+            report.put("throughput", total / seconds);
+            report.put("operations", rows);
+            Files.write(Paths.get(options.out),
+                    JSON.toJSONString(report, JSONWriter.Feature.PrettyFormat).getBytes(StandardCharsets.UTF_8));
+            System.out.println("report written to " + options.out);
+        }
+    }
+}
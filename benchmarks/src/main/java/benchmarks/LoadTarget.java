@@ -0,0 +1,40 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Borrow;
+import queries.BookQueryConditions;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * What LoadGenerator sends its requests to. every operation returns
+ * whether the library reported success; an IOException means the request
+ * itself failed.
+ */
+interface LoadTarget extends AutoCloseable {
+
+    /** store books, e.g. the initial catalog, and report whether they were stored */
+    boolean storeBooks(List<Book> books) throws IOException;
+
+    boolean registerCard(String name, String department, String type) throws IOException;
+
+    /** @return ids of every book in the catalog */
+    int[] bookIds() throws IOException;
+
+    /** @return ids of every card */
+    int[] cardIds() throws IOException;
+
+    boolean queryBooks(BookQueryConditions conditions) throws IOException;
+
+    boolean borrowBook(Borrow borrow) throws IOException;
+
+    boolean returnBook(Borrow borrow) throws IOException;
+
+    boolean showCards() throws IOException;
+
+    boolean showBorrowHistory(int cardId) throws IOException;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,117 @@
+package benchmarks;
+
+import entities.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.SortOrder;
+import utils.LibraryConfig;
+import utils.RandomData;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * queryBook over a catalog of 10k books, for several combinations of
+ * conditions and sort columns, with and without the n-gram search index
+ * and the catalog cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBookBenchmark {
+
+    private static final int nBooks = 10000;
+    private static final int nConditions = 256;
+
+    /**
+     * none: the whole catalog, exact: category, titleAuthor: fuzzy title
+     * and author, range: publish year and price ranges, all: every
+     * condition at once.
+     */
+    @Param({"none", "exact", "titleAuthor", "range", "all"})
+    public String mix;
+
+    @Param({"BOOK_ID", "TITLE", "PRICE"})
+    public Book.SortColumn sortBy;
+
+    @Param({"false", "true"})
+    public boolean searchIndex;
+
+    @Param({"false", "true"})
+    public boolean catalogCache;
+
+    private Library library;
+    private BookQueryConditions[] conditions;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LibraryConfig config = new LibraryConfig();
+        config.setSearchIndex(searchIndex);
+        config.setCatalogCache(catalogCache);
+        library = Library.open(config);
+        Library.check(library.storeBook(CatalogData.books(nBooks, 1)));
+
+        Random random = new Random(2);
+        conditions = new BookQueryConditions[nConditions];
+        for (int i = 0; i < nConditions; i++) {
+            conditions[i] = conditions(random);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        library.close();
+    }
+
+    @Benchmark
+    public ApiResult queryBook() {
+        BookQueryConditions c = conditions[next++ & (nConditions - 1)];
+        return library.queryBook(c);
+    }
+
+    private BookQueryConditions conditions(Random random) {
+        BookQueryConditions c = new BookQueryConditions();
+        c.setSortBy(sortBy);
+        c.setSortOrder(random.nextBoolean() ? SortOrder.ASC : SortOrder.DESC);
+        boolean all = mix.equals("all");
+        if (all || mix.equals("exact")) {
+            c.setCategory(pick(random, RandomData.categories));
+        }
+        if (all || mix.equals("titleAuthor")) {
+            String title = pick(random, RandomData.titles);
+            c.setTitle(title.substring(0, Math.min(6, title.length())));
+            c.setAuthor(pick(random, RandomData.authors).substring(0, 3));
+        }
+        if (all || mix.equals("range")) {
+            int year = 1900 + random.nextInt(100);
+            c.setMinPublishYear(year);
+            c.setMaxPublishYear(year + 20);
+            double price = random.nextInt(200);
+            c.setMinPrice(price);
+            c.setMaxPrice(price + 40);
+        }
+        return c;
+    }
+
+    private static String pick(Random random, List<String> pool) {
+        return pool.get(random.nextInt(pool.size()));
+    }
+}
@@ -0,0 +1,69 @@
+package benchmarks;
+
+import entities.Card;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.ApiResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * registerCard of new, distinct cards, i.e. the duplicate check followed
+ * by the insert, one transaction per card, against registerCards of
+ * batches of BATCH cards, one duplicate check per chunk and one batched
+ * insert per transaction. Both are reported in cards per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class RegisterCardBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private Library library;
+    private final AtomicInteger nextCard = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        library = Library.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        library.close();
+    }
+
+    @Benchmark
+    public ApiResult registerCard() {
+        return Library.check(library.registerCard(CatalogData.card(nextCard.incrementAndGet(), 5)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public ApiResult registerCards() {
+        List<Card> cards = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            cards.add(CatalogData.card(nextCard.incrementAndGet(), 5));
+        }
+        return Library.check(library.registerCards(cards));
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import entities.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.ApiResult;
+import utils.LibraryConfig;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * storeBook(List) into an empty catalog. each invocation loads a fresh
+ * copy of the same books after the database has been reset, so it is
+ * measured as a single shot. with copyThreshold > 0 loads of at least
+ * that many books go through COPY FROM STDIN, on PostgreSQL only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StoreBookBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int nBooks;
+
+    /* 0: batched inserts, 1: COPY for every load (on PostgreSQL) */
+    @Param({"0", "1"})
+    public int copyThreshold;
+
+    private Library library;
+    private List<Book> books;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LibraryConfig config = new LibraryConfig();
+        config.setCopyThreshold(copyThreshold);
+        library = Library.open(config);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        Library.check(library.resetDatabase());
+        /* storeBook(List) writes the generated ids back, so never reuse a list */
+        books = CatalogData.books(nBooks, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        library.close();
+    }
+
+    @Benchmark
+    public ApiResult storeBooks() {
+        return Library.check(library.storeBook(books));
+    }
+}
@@ -3,8 +3,13 @@ import entities.Borrow;
 import entities.Card;
 import queries.ApiResult;
 import queries.BookQueryConditions;
+import queries.BookQueryResults;
+import queries.BookSink;
+import queries.BorrowHistoryConditions;
 
+import java.io.IOException;
 import java.sql.PreparedStatement;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -99,6 +104,10 @@ public interface LibraryManagementSystem {
      *          the risk of SQL injection attack.
      *      (3) [*] if all else is equal, sort by book_id in
      *          ascending order!
+     *      (4) if conditions.limit is set, at most limit books are
+     *          returned together with a nextCursor. passing that cursor
+     *          back with the same conditions returns the next page, which
+     *          is found by seeking on (sortBy, book_id) rather than OFFSET.
      *
      * @param conditions query conditions
      *
@@ -107,6 +116,36 @@ public interface LibraryManagementSystem {
      */
     ApiResult queryBook(BookQueryConditions conditions);
 
+    /**
+     * streaming variant of {@link #queryBook(BookQueryConditions)}: every
+     * matching book is handed to the sink in result order instead of being
+     * collected in a list, so large results can be written out while the
+     * rows are still being read.
+     *
+     * @return on success a {@link queries.BookQueryResults} with an empty
+     *         results list, but the count and nextCursor of the query. an
+     *         error may be returned after some books were already handed
+     *         to the sink.
+     */
+    default ApiResult queryBook(BookQueryConditions conditions, BookSink sink) {
+        ApiResult result = queryBook(conditions);
+        if (!result.ok) {
+            return result;
+        }
+        BookQueryResults results = (BookQueryResults) result.payload;
+        try {
+            for (Book book : results.getResults()) {
+                sink.accept(book);
+            }
+        } catch (IOException e) {
+            return new ApiResult(false, "Failed to write query results: " + e.getMessage());
+        }
+        BookQueryResults summary = new BookQueryResults(new ArrayList<>());
+        summary.setCount(results.getCount());
+        summary.setNextCursor(results.getNextCursor());
+        return new ApiResult(true, summary);
+    }
+
     /* Interface for borrow & return books */
 
     /**
@@ -127,6 +166,46 @@ public interface LibraryManagementSystem {
      */
     ApiResult returnBook(Borrow borrow);
 
+    /**
+     * a user borrows several books with the specific card at once,
+     * see {@link #borrowBooks(int, List, long, boolean)}. books that can
+     * not be borrowed are skipped, the others are borrowed.
+     */
+    default ApiResult borrowBooks(int cardId, List<Integer> bookIds, long borrowTime) {
+        return borrowBooks(cardId, bookIds, borrowTime, false);
+    }
+
+    /**
+     * a user borrows several books with the specific card in one
+     * transaction. each book is borrowed like {@link #borrowBook(Borrow)}.
+     *
+     * Note that the books are locked in ascending book_id order whatever
+     * the order of bookIds, so two batches over the same books can not
+     * deadlock each other.
+     *
+     * @param allOrNothing if true, borrow no book at all when one of them
+     *                     can not be borrowed; otherwise only skip that one
+     * @return the outcome of each book, in the order of bookIds, should be
+     *         returned by ApiResult.payload and should be an instance of
+     *         {@link queries.BatchResults}
+     */
+    ApiResult borrowBooks(int cardId, List<Integer> bookIds, long borrowTime, boolean allOrNothing);
+
+    /**
+     * a user returns several books with the specific card at once,
+     * see {@link #returnBooks(int, List, long, boolean)}.
+     */
+    default ApiResult returnBooks(int cardId, List<Integer> bookIds, long returnTime) {
+        return returnBooks(cardId, bookIds, returnTime, false);
+    }
+
+    /**
+     * a user returns several books with the specific card in one
+     * transaction, like {@link #borrowBooks(int, List, long, boolean)}.
+     * each book must have been borrowed before returnTime.
+     */
+    ApiResult returnBooks(int cardId, List<Integer> bookIds, long returnTime, boolean allOrNothing);
+
     /**
      * list all borrow histories for a specific card.
      * the returned records should be sorted by borrow_time DESC, book_id ASC
@@ -137,6 +216,21 @@ public interface LibraryManagementSystem {
      */
     ApiResult showBorrowHistory(int cardId);
 
+    /**
+     * list a card's borrow histories within a time range, page by page.
+     * the records are sorted like {@link #showBorrowHistory(int)}.
+     *
+     * Note that if conditions.limit is set, at most limit records are
+     * returned together with a nextCursor. passing that cursor back with
+     * the same conditions returns the next page, which is found by seeking
+     * on (borrow_time, book_id) rather than OFFSET.
+     *
+     * @param conditions the card, time range, filters and page
+     * @return query results should be returned by ApiResult.payload
+     *         and should be an instance of {@link queries.BorrowHistories}
+     */
+    ApiResult showBorrowHistory(BorrowHistoryConditions conditions);
+
     /**
      * create a new borrow card. do nothing and return failed if
      * the card already exists.
@@ -148,6 +242,25 @@ public interface LibraryManagementSystem {
      */
     ApiResult registerCard(Card card);
 
+    /**
+     * batch register borrow cards, e.g. a whole class of new students.
+     *
+     * Note that:
+     *      (1) the cards are checked against the stored ones and against
+     *          each other in one pass, and the new ones are inserted with
+     *          {@link PreparedStatement#executeBatch()} in one transaction.
+     *      (2) a card that already exists, or appears twice in cards, is
+     *          skipped instead of failing the others.
+     *      (3) card_id should be stored to each inserted card.
+     *
+     * @param cards list of cards to be registered
+     * @return the status of each card, in the order of cards, should be
+     *         returned by ApiResult.payload and should be an instance of
+     *         {@link queries.BatchResults}; the id of a skipped card is
+     *         the one it duplicates
+     */
+    ApiResult registerCards(List<Card> cards);
+
     /**
      * 修改借书证信息
      * @param card 包含要修改的信息的借书证对象
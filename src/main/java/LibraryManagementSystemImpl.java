@@ -3,31 +3,259 @@ import entities.Borrow;
 import entities.Card;
 import org.postgresql.util.PSQLWarning;
 import queries.*;
+import utils.ActiveLoanCache;
+import utils.CatalogCache;
 import utils.DBInitializer;
 import utils.DatabaseConnector;
+import utils.DatabaseType;
+import utils.GroupCommitter;
+import utils.LibraryConfig;
+import utils.LoanArchiver;
+import utils.NgramIndex;
+import utils.PgBookCopier;
+import utils.SchemaMigrator;
+import utils.StatementCache;
+import utils.TableVersions;
+import utils.TableVersions.Table;
 
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
+    /* candidate sets larger than this are not pushed into the SQL as an IN list */
+    private static final int MAX_INDEX_CANDIDATES = 1000;
+    /* gram posting lists longer than this are not intersected */
+    private static final int MAX_INDEX_SCAN = 200000;
+    /* books per duplicate lookup in storeBook(List), 5 params each stays below SQL Server's 2100 */
+    private static final int DEDUPE_CHUNK = 400;
+
     private final DatabaseConnector connector;
+    /* null unless library.searchIndex is switched on */
+    private final NgramIndex searchIndex;
+    /* null unless library.catalogCache is switched on */
+    private final CatalogCache catalogCache;
+    /* null unless library.activeLoanCache is switched on */
+    private final ActiveLoanCache activeLoans;
+    private final boolean optimisticBorrow;
+    /* postgres batches of at least this many books are loaded with COPY, 0 = never */
+    private final int copyThreshold;
+    /* null unless library.groupCommit is switched on */
+    private final GroupCommitter groupCommitter;
+    /* null unless library.archiveAfterDays is set */
+    private final LoanArchiver archiver;
+    private final StatementCache statements;
+    private final TableVersions versions = new TableVersions();
+    /*
+     * versions of the search index's & catalog cache's changes. a writer takes one while the
+     * database still holds its row locks, so conflicting writers take them
+     * in commit order even if they reach the cache in another order.
+     */
+    private final AtomicLong cacheVersions = new AtomicLong();
 
     public LibraryManagementSystemImpl(DatabaseConnector connector) {
+        this(connector, new LibraryConfig());
+    }
+
+    public LibraryManagementSystemImpl(DatabaseConnector connector, LibraryConfig config) {
         this.connector = connector;
+        DatabaseType type = connector.getConf().getType();
+        this.searchIndex = config.isSearchIndex() ? new NgramIndex(MAX_INDEX_SCAN) : null;
+        this.catalogCache = config.isCatalogCache()
+                ? new CatalogCache(type.isCaseInsensitive(), type.isAccentInsensitive()) : null;
+        this.activeLoans = config.isActiveLoanCache() ? new ActiveLoanCache() : null;
+        this.optimisticBorrow = config.isOptimisticBorrow();
+        this.copyThreshold = config.getCopyThreshold();
+        this.statements = new StatementCache(config.getStatementCacheSize());
+        this.groupCommitter = config.isGroupCommit()
+                ? new GroupCommitter(connector, config.getGroupCommitWindowMicros(), config.getGroupCommitMaxBatch())
+                : null;
+        this.archiver = config.getArchiveAfterDays() > 0
+                ? new LoanArchiver(connector, TimeUnit.DAYS.toMillis(config.getArchiveAfterDays()),
+                        config.getArchiveBatchSize(), config.getArchivePauseMillis())
+                : null;
+        if (archiver != null) {
+            archiver.start();
+        }
+    }
+
+    /**
+     * stop background workers. the library must not be used afterwards.
+     */
+    public void close() {
+        if (groupCommitter != null) {
+            groupCommitter.shutdown();
+        }
+        if (archiver != null) {
+            archiver.shutdown();
+        }
+    }
+
+    /**
+     * @return the group-commit stage in front of borrowBook & returnBook,
+     *         or null if it is disabled
+     */
+    public GroupCommitter getGroupCommitter() {
+        return groupCommitter;
+    }
+
+    /**
+     * @return the prepared-statement cache, e.g. for its hit & miss counters
+     */
+    public StatementCache getStatementCache() {
+        return statements;
+    }
+
+    /**
+     * @return the change counters of the tables, bumped after every
+     *         committed write, e.g. for HTTP entity tags
+     */
+    public TableVersions getTableVersions() {
+        return versions;
+    }
+
+    /**
+     * fill the in-memory n-gram index used by the fuzzy predicates of
+     * queryBook, if it is enabled. it is loaded on the first fuzzy query if
+     * this is never called, and afterwards kept current by every method
+     * that changes title, press or author.
+     */
+    public void loadSearchIndex() throws SQLException {
+        if (searchIndex == null) {
+            return;
+        }
+        //加锁期间的写操作会在加载完成后再更新索引，不会丢失
+        searchIndex.loadLock().lock();
+        try {
+            if (searchIndex.isLoaded()) {
+                return;
+            }
+            searchIndex.clear();
+            String querySql = "select bookId, title, press, author from book";
+            Connection conn = connector.getConn();
+            try (PreparedStatement stmt = prepare(conn, querySql);
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Book book = new Book();
+                    book.setBookId(rs.getInt(1));
+                    book.setTitle(rs.getString(2));
+                    book.setPress(rs.getString(3));
+                    book.setAuthor(rs.getString(4));
+                    searchIndex.put(book, 0);
+                }
+            } finally {
+                close(conn);
+            }
+            searchIndex.markLoaded();
+        } finally {
+            searchIndex.loadLock().unlock();
+        }
+    }
+
+    /**
+     * fill the in-memory catalog cache, if it is enabled. it is loaded on
+     * the first queryBook if this is never called.
+     */
+    public void loadCatalogCache() throws SQLException {
+        if (catalogCache == null) {
+            return;
+        }
+        catalogCache.loadLock().lock();
+        try {
+            if (catalogCache.isLoaded()) {
+                return;
+            }
+            catalogCache.clear();
+            String querySql = "select * from book";
+            Connection conn = connector.getConn();
+            try (PreparedStatement stmt = prepare(conn, querySql);
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Book book = new Book();
+                    book.setBookId(rs.getInt("bookId"));
+                    book.setCategory(rs.getString("category"));
+                    book.setTitle(rs.getString("title"));
+                    book.setPress(rs.getString("press"));
+                    book.setPublishYear(rs.getInt("publishYear"));
+                    book.setAuthor(rs.getString("author"));
+                    book.setPrice(rs.getDouble("price"));
+                    book.setStock(rs.getInt("stock"));
+                    catalogCache.put(book, 0);
+                }
+            } finally {
+                close(conn);
+            }
+            catalogCache.markLoaded();
+        } finally {
+            catalogCache.loadLock().unlock();
+        }
+    }
+
+    /**
+     * fill the in-memory copy of active_loan, if it is enabled. until it is
+     * loaded every check goes to the database.
+     */
+    public void loadActiveLoans() throws SQLException {
+        if (activeLoans == null) {
+            return;
+        }
+        activeLoans.loadLock().lock();
+        try {
+            if (activeLoans.isLoaded()) {
+                return;
+            }
+            activeLoans.clear();
+            String querySql = "select cardId, bookId, borrowTime from active_loan";
+            Connection conn = connector.getConn();
+            try (PreparedStatement stmt = prepare(conn, querySql);
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    activeLoans.add(rs.getInt(1), rs.getInt(2), rs.getLong(3));
+                }
+            } finally {
+                close(conn);
+            }
+            activeLoans.markLoaded();
+        } finally {
+            activeLoans.loadLock().unlock();
+        }
+    }
+
+    /* bookIds that may match the fuzzy predicates, or null if the index cannot narrow them */
+    private int[] fuzzyCandidates(BookQueryConditions conditions) throws SQLException {
+        if (searchIndex == null
+                || (conditions.getTitle() == null && conditions.getPress() == null && conditions.getAuthor() == null)) {
+            return null;
+        }
+        if (!searchIndex.isLoaded()) {
+            loadSearchIndex();
+        }
+        return searchIndex.candidates(conditions);
     }
 
     @Override
     public ApiResult storeBook(Book book) {
-        Connection conn = connector.getConn();
-        try{
+        Connection conn = null;
+        try {
+            conn = connector.getConn();
             //检查书籍是否已经存在
             String checkSql = "select * from book where "+
                     "category = ? and title = ? and press = ? "+
                     "and publishYear = ? and  author = ?";
-          try(PreparedStatement checkStmt = conn.prepareStatement(checkSql)) {
+          try(PreparedStatement checkStmt = prepare(conn, checkSql)) {
             checkStmt.setString(1,book.getCategory());
             checkStmt.setString(2,book.getTitle());
             checkStmt.setString(3,book.getPress());
@@ -43,7 +271,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
           //插入新书
           String insertSql = "insert into book (category, title, press, publishYear, author, "+
                   "price, stock) values (?,?,?,?,?,?,?)";
-          try(PreparedStatement insertStmt = conn.prepareStatement(insertSql,PreparedStatement.RETURN_GENERATED_KEYS)){
+          try(PreparedStatement insertStmt = prepare(conn, insertSql,Statement.RETURN_GENERATED_KEYS)){
               insertStmt.setString(1,book.getCategory());
               insertStmt.setString(2,book.getTitle());
               insertStmt.setString(3,book.getPress());
@@ -60,8 +288,12 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
               }
           }
 
-          //提交事务
+          //提交事务（版本号在提交前、行锁仍持有时获取）
+          long version = cacheVersions.incrementAndGet();
           conn.commit();
+          versions.bump(Table.BOOK);
+          if (searchIndex != null) searchIndex.put(book, version);
+          if (catalogCache != null) catalogCache.put(book, version);
           return new ApiResult(true, "Book stored successfully");
 
         }catch (SQLException e){
@@ -73,17 +305,20 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 e1.printStackTrace();
             }
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
         }
     }
 
     @Override
     public ApiResult incBookStock(int bookId, int deltaStock) {
-        Connection conn = connector.getConn();
+        Connection conn = null;
         try {
+            conn = connector.getConn();
             //检查书籍是否存在
             String checkSql = "select stock from book where bookId = ?";
             int currentStock = 0;
-            try(PreparedStatement checkStmt = conn.prepareStatement(checkSql)) {
+            try(PreparedStatement checkStmt = prepare(conn, checkSql)) {
                 checkStmt.setInt(1,bookId);
                 try(ResultSet rs = checkStmt.executeQuery()) {
                     if(!rs.next()){
@@ -98,7 +333,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             }
             //更新库存
             String updateSql = "update book set stock = stock + ? where bookId = ?";
-            try(PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
+            try(PreparedStatement updateStmt = prepare(conn, updateSql)) {
                 updateStmt.setInt(1,deltaStock);
                 updateStmt.setInt(2,bookId);
                 int RowsAffected = updateStmt.executeUpdate();
@@ -107,6 +342,8 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 }
             }
             conn.commit();
+            versions.bump(Table.BOOK);
+            if (catalogCache != null) catalogCache.adjustStock(bookId, deltaStock);
             return new ApiResult(true, "Stock updated successfully");
         }catch (SQLException e){
             try{
@@ -115,67 +352,41 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 e1.printStackTrace();
             }
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
         }
     }
 
     @Override
     public ApiResult storeBook(List<Book> books) {
-        Connection conn = connector.getConn();
+        Connection conn = null;
         try {
+            conn = connector.getConn();
             conn.setAutoCommit(false);//开启事务，保证操作的原子性
-            //检查是否有重复书籍
-            String checkSql = "select 1 from book where category = ? and title = ? "+
-                    "and press = ? and publishYear = ? and author = ?";//此处使用1是为了使返回时，只需要有一个常数列来证明该书是否存在即可
-            //批量插入语句
-            String insertSql = "insert into book "+
-                    "(category, title, press, publishYear, author, price, stock)"+
-                    " values (?,?,?,?,?,?,?)";
 
             try{
-                PreparedStatement checkStmt = conn.prepareStatement(checkSql);
-                PreparedStatement insertStmt = conn.prepareStatement(insertSql, PreparedStatement.RETURN_GENERATED_KEYS);
-                //检查重复并准备收集可插入的书籍
+                //检查重复并准备收集可插入的书籍：由数据库按其排序规则判断哪些书已存在
+                Set<Integer> existing = storedBooks(conn, books);
                 List<Book> booksToAdd = new ArrayList<>();
-                for (Book book : books) {
-                    checkStmt.setString(1,book.getCategory());
-                    checkStmt.setString(2,book.getTitle());
-                    checkStmt.setString(3,book.getPress());
-                    checkStmt.setInt(4,book.getPublishYear());
-                    checkStmt.setString(5,book.getAuthor());
-
-                    try(ResultSet rs = checkStmt.executeQuery()){
-                        if(!rs.next()){ //如果无重复的话，就进行插入
-                            booksToAdd.add(book);
-                        }
-                    }
-                    checkStmt.clearParameters();
-                }
-
-                //进行批量插入行为
-                for(Book book : booksToAdd){
-                    insertStmt.setString(1,book.getCategory());
-                    insertStmt.setString(2,book.getTitle());
-                    insertStmt.setString(3,book.getPress());
-                    insertStmt.setInt(4,book.getPublishYear());
-                    insertStmt.setString(5,book.getAuthor());
-                    insertStmt.setDouble(6,book.getPrice());
-                    insertStmt.setInt(7,book.getStock());
-                    insertStmt.addBatch();
-                }
-                //进行批处理
-                int[] batchResult = insertStmt.executeBatch();
-
-                //获取自增ID，并回填到Book对象
-                //此处这样写，就是 try-with-resources，就不需手动关闭资源，也不需catch语句了
-                try(ResultSet generatedKeys = insertStmt.getGeneratedKeys()){
-                    int index = 0;
-                    while(generatedKeys.next()){
-                        booksToAdd.get(index++).setBookId(generatedKeys.getInt(1));
+                for (int i = 0; i < books.size(); i++) {
+                    if(!existing.contains(i)){ //如果无重复的话，就进行插入
+                        booksToAdd.add(books.get(i));
                     }
                 }
+                insertBooks(conn, booksToAdd, useCopy(booksToAdd.size()));
 
+                long version = cacheVersions.incrementAndGet();
                 conn.commit();
-                return new ApiResult(true, "Book batch stored successfully");
+                versions.bump(Table.BOOK);
+                if (searchIndex != null) {
+                    for(Book book : booksToAdd){
+                        searchIndex.put(book, version);
+                    }
+                }
+                if (catalogCache != null) catalogCache.putAll(booksToAdd, version);
+                int skipped = books.size() - booksToAdd.size();
+                return new ApiResult(true, "Book batch stored successfully: " + booksToAdd.size()
+                        + " inserted, " + skipped + " skipped", new StoreBookResults(booksToAdd.size(), skipped));
             }catch (SQLException e){
                 try{
                     conn.rollback();
@@ -191,18 +402,111 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 e1.printStackTrace();
             }
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
+        }
+    }
+
+    /* insert the books and store their new book_id to them */
+    private void insertBooks(Connection conn, List<Book> books, boolean copy) throws SQLException {
+        if (books.isEmpty()) {
+            return;
+        }
+        if (copy) {
+            //PostgreSQL/openGauss：大批量用 COPY 流式导入，ID 由序列预先分配并回填
+            PgBookCopier.copy(conn, books);
+            return;
+        }
+        //批量插入语句
+        String insertSql = "insert into book "+
+                "(category, title, press, publishYear, author, price, stock)"+
+                " values (?,?,?,?,?,?,?)";
+        try(PreparedStatement insertStmt = prepare(conn, insertSql, Statement.RETURN_GENERATED_KEYS)){
+            //进行批量插入行为
+            for(Book book : books){
+                insertStmt.setString(1,book.getCategory());
+                insertStmt.setString(2,book.getTitle());
+                insertStmt.setString(3,book.getPress());
+                insertStmt.setInt(4,book.getPublishYear());
+                insertStmt.setString(5,book.getAuthor());
+                insertStmt.setDouble(6,book.getPrice());
+                insertStmt.setInt(7,book.getStock());
+                insertStmt.addBatch();
+            }
+            //进行批处理
+            insertStmt.executeBatch();
+
+            //获取自增ID，并回填到Book对象
+            try(ResultSet generatedKeys = insertStmt.getGeneratedKeys()){
+                int index = 0;
+                while(generatedKeys.next()){
+                    books.get(index++).setBookId(generatedKeys.getInt(1));
+                }
+            }
+        }
+    }
+
+    /* whether storeBook(List) loads this many new books with COPY instead of a batched insert */
+    private boolean useCopy(int nBooks) {
+        return copyThreshold > 0 && nBooks >= copyThreshold
+                && connector.getConf().getType() == DatabaseType.POSTGRES;
+    }
+
+    /**
+     * look up which of the books already exist, DEDUPE_CHUNK books per
+     * round trip instead of one query per book. the database compares them
+     * with the stored ones, so that "exists" follows its collation (case,
+     * accents, trailing spaces) exactly like the unique key of book does:
+     * each chunk is sent as a derived table of (index, unique key) rows and
+     * the indexes of the rows that match a stored book come back.
+     *
+     * @return the index in books of every book that is already stored
+     */
+    private Set<Integer> storedBooks(Connection conn, List<Book> books) throws SQLException {
+        String row = connector.getConf().getType().sqlValuesRow();
+        Set<Integer> existing = new HashSet<>();
+        for (int from = 0; from < books.size(); from += DEDUPE_CHUNK) {
+            List<Book> chunk = books.subList(from, Math.min(from + DEDUPE_CHUNK, books.size()));
+            StringBuilder checkSql = new StringBuilder("select v.i from (values ");
+            for (int i = 0; i < chunk.size(); i++) {
+                /* the index is a literal within the chunk, so that full chunks share one statement */
+                checkSql.append(i == 0 ? "" : ", ").append(row).append('(').append(i).append(", ?, ?, ?, ?, ?)");
+            }
+            checkSql.append(") as v(i, category, title, press, publishYear, author)")
+                    .append(" join book b on b.category = v.category and b.title = v.title")
+                    .append(" and b.press = v.press and b.publishYear = v.publishYear and b.author = v.author");
+            try(PreparedStatement checkStmt = prepare(conn, checkSql.toString())){
+                int index = 1;
+                for (Book book : chunk) {
+                    checkStmt.setString(index++,book.getCategory());
+                    checkStmt.setString(index++,book.getTitle());
+                    checkStmt.setString(index++,book.getPress());
+                    checkStmt.setInt(index++,book.getPublishYear());
+                    checkStmt.setString(index++,book.getAuthor());
+                }
+                try(ResultSet rs = checkStmt.executeQuery()){
+                    while(rs.next()){
+                        existing.add(from + rs.getInt(1));
+                    }
+                }
+            }
         }
+        return existing;
     }
 
     @Override
     public ApiResult removeBook(int bookId) {
-        Connection conn = connector.getConn();
+        if (activeLoans != null && activeLoans.isLoaded() && activeLoans.isBookOut(bookId)) {
+            return new ApiResult(false, "Remove failed: " + bookId+"hasn't been returned");
+        }
+        Connection conn = null;
         try {
+            conn = connector.getConn();
             conn.setAutoCommit(false);
 
             //检查借还情况
-            String checkSql1 = "select 1 from borrow where bookId = ? and returnTime = 0";
-            try(PreparedStatement checkStmt = conn.prepareStatement(checkSql1)){
+            String checkSql1 = "select 1 from active_loan where bookId = ?";
+            try(PreparedStatement checkStmt = prepare(conn, checkSql1)){
                 checkStmt.setInt(1,bookId);
                 try(ResultSet rs = checkStmt.executeQuery()){
                     if(rs.next()){
@@ -213,7 +517,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             }
             //检查书是否存在
             String checkSql2 = "select 1 from book where bookId = ?";
-            try(PreparedStatement checkStmt = conn.prepareStatement(checkSql2)){
+            try(PreparedStatement checkStmt = prepare(conn, checkSql2)){
                 checkStmt.setInt(1,bookId);
                 try(ResultSet rs = checkStmt.executeQuery()){
                     if(!rs.next()){
@@ -224,12 +528,12 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             }
             //进行级联删除(书本和相关借阅记录)
             String removeSql = "delete from borrow where bookId = ?";
-            try(PreparedStatement removeStmt = conn.prepareStatement(removeSql)){
+            try(PreparedStatement removeStmt = prepare(conn, removeSql)){
                 removeStmt.setInt(1,bookId);
                 removeStmt.executeUpdate();
             }
             String removeBookSql = "delete from book where bookId = ?";
-            try(PreparedStatement removeBookStmt = conn.prepareStatement(removeBookSql)){
+            try(PreparedStatement removeBookStmt = prepare(conn, removeBookSql)){
                 removeBookStmt.setInt(1,bookId);
                 int rowsAffected = removeBookStmt.executeUpdate();
                 if(rowsAffected==0){
@@ -238,6 +542,9 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 }
             }
             conn.commit();
+            versions.bump(Table.BOOK, Table.BORROW);
+            if (searchIndex != null) searchIndex.remove(bookId);
+            if (catalogCache != null) catalogCache.remove(bookId);
             return new ApiResult(true, "Book and its borrow records removed successfully");
         }catch (SQLException e){
             try{
@@ -246,18 +553,21 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 e1.printStackTrace();
             }
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
         }
     }
 
     @Override
     public ApiResult modifyBookInfo(Book book) {
-        Connection conn = connector.getConn();
+        Connection conn = null;
         try {
+            conn = connector.getConn();
             conn.setAutoCommit(false);
 
             //检查书本是否存在
             String checkSql1 = "select 1 from book where bookId = ?";
-            try(PreparedStatement checkStmt = conn.prepareStatement(checkSql1)){
+            try(PreparedStatement checkStmt = prepare(conn, checkSql1)){
                 checkStmt.setInt(1,book.getBookId());
                 try(ResultSet rs = checkStmt.executeQuery()){
                     if(!rs.next()){
@@ -270,7 +580,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             String updateSql = "update book set "+
             "category = ?,title = ?, press = ?, publishYear = ?, "+
                     "author = ?, price = ? where bookId = ?";
-            try (PreparedStatement updateStmt = conn.prepareStatement(updateSql)){
+            try (PreparedStatement updateStmt = prepare(conn, updateSql)){
                 updateStmt.setString(1,book.getCategory());
                 updateStmt.setString(2,book.getTitle());
                 updateStmt.setString(3,book.getPress());
@@ -285,7 +595,12 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                     return new ApiResult(false, "Failed to update the book");
                 }
             }
+            //update 已锁住该行，同一本书的并发修改按提交顺序取得版本号
+            long version = cacheVersions.incrementAndGet();
             conn.commit();
+            versions.bump(Table.BOOK);
+            if (searchIndex != null) searchIndex.put(book, version);
+            if (catalogCache != null) catalogCache.modify(book, version);
             return new ApiResult(true, "Book modified successfully");
         }catch (SQLException e){
             try{
@@ -294,69 +609,86 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 e1.printStackTrace();
             }
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
         }
     }
 
     @Override
     public ApiResult queryBook(BookQueryConditions conditions) {
-        Connection conn = connector.getConn();
-        try {
-            //构建动态SQL
-            StringBuilder querySql = new StringBuilder("select * from book where 1=1");
-            List<Object> params = new ArrayList<>();
-            //动态添加查询条件
-            if(conditions.getCategory()!=null){
-                querySql.append(" and category = ?");
-                params.add(conditions.getCategory());
-            }
-            //模糊匹配
-            if (conditions.getTitle() != null) {
-                querySql.append(" and title like ?");
-                params.add("%" + conditions.getTitle() + "%");
-            }
-            if (conditions.getPress() != null) {
-                querySql.append(" and press like ?");
-                params.add("%" + conditions.getPress() + "%");
-            }
-            if (conditions.getAuthor() != null) {
-                querySql.append(" and author like ?");
-                params.add("%" + conditions.getAuthor() + "%");
-            }
-            if(conditions.getMinPrice()!=null){
-                querySql.append(" and price >= ?");
-                params.add(conditions.getMinPrice());
-            }
-            if(conditions.getMaxPrice()!=null){
-                querySql.append(" and price <= ?");
-                params.add(conditions.getMaxPrice());
-            }
-            if(conditions.getMinPublishYear()!=null){
-                querySql.append(" and publishYear >= ?");
-                params.add(conditions.getMinPublishYear());
+        List<Book> books = new ArrayList<>();
+        ApiResult result = queryBook(conditions, books::add);
+        if(result.ok){
+            ((BookQueryResults) result.payload).setResults(books);
+        }
+        return result;
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, BookSink sink) {
+        //校验分页参数
+        if(conditions.getLimit()!=null && conditions.getLimit()<=0){
+            return new ApiResult(false, "Limit must be positive");
+        }
+        BookQueryCursor cursor = null;
+        if(conditions.getCursor()!=null){
+            try{
+                cursor = BookQueryCursor.decode(conditions.getCursor());
+            }catch (IllegalArgumentException e){
+                return new ApiResult(false, "Invalid cursor: " + e.getMessage());
             }
-            if(conditions.getMaxPublishYear()!=null){
-                querySql.append(" and publishYear <= ?");
-                params.add(conditions.getMaxPublishYear());
+            if(cursor.getSortBy()!=conditions.getSortBy() || cursor.getSortOrder()!=conditions.getSortOrder()){
+                return new ApiResult(false, "Cursor does not match the requested sort order");
             }
-
-            querySql.append(" order by ")
-                    .append(conditions.getSortBy().getValue())
-                    .append(" ")
-                    .append(conditions.getSortOrder().getValue());
-            if (conditions.getSortBy() != Book.SortColumn.BOOK_ID) {
-                querySql.append(", bookId ASC");
+        }
+        //用n-gram索引把模糊匹配缩小为候选bookId，避免'%x%'导致的全表扫描
+        int[] candidates;
+        try {
+            candidates = fuzzyCandidates(conditions);
+            //启用目录缓存时直接在内存中完成查询，不访问数据库
+            if(catalogCache != null){
+                if(!catalogCache.isLoaded()){
+                    loadCatalogCache();
+                }
+                return new ApiResult(true, catalogCache.query(conditions, cursor, candidates, sink));
             }
+        }catch (SQLException e){
+            return new ApiResult(false, "Database error: " + e.getMessage());
+        }catch (IOException e){
+            return new ApiResult(false, "Failed to write query results: " + e.getMessage());
+        }
+        if(candidates != null && candidates.length == 0){
+            return new ApiResult(true, new BookQueryResults(new ArrayList<>()));
+        }
+        Connection conn = null;
+        try {
+            conn = connector.getConn();
+            //SQL只取决于哪些条件非空、排序方式以及IN列表的长度，按这些信息缓存预编译语句
+            int inSize = candidates != null && candidates.length <= MAX_INDEX_CANDIDATES
+                    ? inListSize(candidates.length) : 0;
+            boolean seek = cursor != null;
+            List<Object> params = queryBookParams(conditions, cursor, candidates, inSize);
 
             //执行查询
-            try(PreparedStatement stmt = conn.prepareStatement(querySql.toString())){
+            try(PreparedStatement stmt = prepare(conn, queryBookKey(conditions, seek, inSize),
+                    () -> queryBookSql(conditions, seek, inSize))){
                 //绑定参数
                 for(int i=0; i<params.size(); i++){
                     stmt.setObject(i+1,params.get(i));
                 }
-                //处理结果集
-                List<Book> books = new ArrayList<>();
+                //逐行读取并交给sink，驱动不会把整个结果集缓存在内存中
+                stmt.setFetchSize(connector.getConf().getType().streamingFetchSize());
+                int count = 0;
+                Book last = null;
+                String nextCursor = null;
                 try(ResultSet rs = stmt.executeQuery()){
                     while(rs.next()){
+                        //多出的一行只说明还有下一页，不返回
+                        if(conditions.getLimit()!=null && count == conditions.getLimit()){
+                            nextCursor = BookQueryCursor.after(last,
+                                    conditions.getSortBy(), conditions.getSortOrder()).encode();
+                            break;
+                        }
                         Book book = new Book();
                         book.setBookId(rs.getInt(1));
                         book.setCategory(rs.getString(2));
@@ -366,73 +698,342 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                         book.setAuthor(rs.getString(6));
                         book.setPrice(rs.getDouble(7));
                         book.setStock(rs.getInt(8));
-                        books.add(book);
+                        sink.accept(book);
+                        last = book;
+                        count++;
                     }
                 }
-                //封装结果
-                BookQueryResults Results = new BookQueryResults(books);
-                Results.setCount(books.size());
+                //只读事务同样要结束，连接归还连接池后不再持有快照
+                conn.commit();
+                //封装结果，书籍已全部交给sink
+                BookQueryResults Results = new BookQueryResults(new ArrayList<>());
+                Results.setCount(count);
+                Results.setNextCursor(nextCursor);
                 return new ApiResult(true, Results);
             }
         }catch (SQLException e){
+            rollbackQuietly(conn);
             return new ApiResult(false, "Database error: " + e.getMessage());
+        }catch (IOException e){
+            //写出结果中途失败（如客户端断开），结束事务后再归还连接
+            rollbackQuietly(conn);
+            return new ApiResult(false, "Failed to write query results: " + e.getMessage());
+        } finally {
+            close(conn);
+        }
+    }
+
+    private static void rollbackQuietly(Connection conn) {
+        try{
+            if(conn!=null) conn.rollback();
+        }catch(SQLException e1){
+            e1.printStackTrace();
+        }
+    }
+
+    /*
+     * cache key of the queryBook statement: which conditions are set, the
+     * cursor & limit flags, the sort and the length of the bookId IN list.
+     */
+    private static Long queryBookKey(BookQueryConditions conditions, boolean seek, int inSize) {
+        long key = 0;
+        if(conditions.getCategory()!=null) key |= 1;
+        if(conditions.getTitle()!=null) key |= 1 << 1;
+        if(conditions.getPress()!=null) key |= 1 << 2;
+        if(conditions.getAuthor()!=null) key |= 1 << 3;
+        if(conditions.getMinPrice()!=null) key |= 1 << 4;
+        if(conditions.getMaxPrice()!=null) key |= 1 << 5;
+        if(conditions.getMinPublishYear()!=null) key |= 1 << 6;
+        if(conditions.getMaxPublishYear()!=null) key |= 1 << 7;
+        if(seek) key |= 1 << 8;
+        if(conditions.getLimit()!=null) key |= 1 << 9;
+        if(conditions.getSortOrder() == SortOrder.DESC) key |= 1 << 10;
+        key |= (long) conditions.getSortBy().ordinal() << 11;
+        key |= (long) inSize << 16;
+        return key;
+    }
+
+    /* SQL of the queryBook statement, the parameters are bound in queryBookParams order */
+    private String queryBookSql(BookQueryConditions conditions, boolean seek, int inSize) {
+        StringBuilder querySql = new StringBuilder("select * from book where 1=1");
+        //动态添加查询条件
+        if(conditions.getCategory()!=null){
+            querySql.append(" and category = ?");
+        }
+        //模糊匹配
+        if (conditions.getTitle() != null) {
+            querySql.append(" and title like ? escape '!'");
+        }
+        if (conditions.getPress() != null) {
+            querySql.append(" and press like ? escape '!'");
+        }
+        if (conditions.getAuthor() != null) {
+            querySql.append(" and author like ? escape '!'");
+        }
+        if(conditions.getMinPrice()!=null){
+            querySql.append(" and price >= ?");
         }
+        if(conditions.getMaxPrice()!=null){
+            querySql.append(" and price <= ?");
+        }
+        if(conditions.getMinPublishYear()!=null){
+            querySql.append(" and publishYear >= ?");
+        }
+        if(conditions.getMaxPublishYear()!=null){
+            querySql.append(" and publishYear <= ?");
+        }
+        //分页：从游标位置开始查找(sortBy, bookId)，不使用offset
+        if(seek){
+            String column = conditions.getSortBy().getValue();
+            String cmp = conditions.getSortOrder() == SortOrder.ASC ? " > ?" : " < ?";
+            if(conditions.getSortBy() == Book.SortColumn.BOOK_ID){
+                querySql.append(" and bookId").append(cmp);
+            }else{
+                //相同排序值时按bookId升序
+                querySql.append(" and (").append(column).append(cmp)
+                        .append(" or (").append(column).append(" = ? and bookId > ?))");
+            }
+        }
+        if(inSize > 0){
+            querySql.append(" and bookId in (");
+            for(int i=0; i<inSize; i++){
+                querySql.append(i == 0 ? "?" : ",?");
+            }
+            querySql.append(")");
+        }
+
+        querySql.append(" order by ")
+                .append(conditions.getSortBy().getValue())
+                .append(" ")
+                .append(conditions.getSortOrder().getValue());
+        if (conditions.getSortBy() != Book.SortColumn.BOOK_ID) {
+            querySql.append(", bookId ASC");
+        }
+        //多取一行，用来判断是否还有下一页
+        if(conditions.getLimit()!=null){
+            querySql.append(" ").append(connector.getConf().getType().sqlLimit());
+        }
+        return querySql.toString();
+    }
+
+    private static List<Object> queryBookParams(BookQueryConditions conditions, BookQueryCursor cursor,
+                                                int[] candidates, int inSize) {
+        List<Object> params = new ArrayList<>();
+        if(conditions.getCategory()!=null) params.add(conditions.getCategory());
+        if(conditions.getTitle()!=null) params.add(containsPattern(conditions.getTitle()));
+        if(conditions.getPress()!=null) params.add(containsPattern(conditions.getPress()));
+        if(conditions.getAuthor()!=null) params.add(containsPattern(conditions.getAuthor()));
+        if(conditions.getMinPrice()!=null) params.add(conditions.getMinPrice());
+        if(conditions.getMaxPrice()!=null) params.add(conditions.getMaxPrice());
+        if(conditions.getMinPublishYear()!=null) params.add(conditions.getMinPublishYear());
+        if(conditions.getMaxPublishYear()!=null) params.add(conditions.getMaxPublishYear());
+        if(cursor!=null){
+            if(conditions.getSortBy() != Book.SortColumn.BOOK_ID){
+                params.add(cursor.getValue());
+                params.add(cursor.getValue());
+            }
+            params.add(cursor.getBookId());
+        }
+        //IN列表补齐到inSize，多出的位置重复最后一个bookId
+        for(int i=0; i<inSize; i++){
+            params.add(candidates[Math.min(i, candidates.length - 1)]);
+        }
+        if(conditions.getLimit()!=null) params.add(conditions.getLimit() + 1);
+        return params;
+    }
+
+    /**
+     * LIKE pattern that matches values containing the text. wildcards in
+     * the text are escaped with '!' (the "escape '!'" of queryBookSql), so
+     * the text matches literally, like the catalog cache's contains; '['
+     * too, which SQL Server treats as a character class.
+     */
+    private static String containsPattern(String text) {
+        StringBuilder pattern = new StringBuilder(text.length() + 2).append('%');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '!' || c == '%' || c == '_' || c == '[') {
+                pattern.append('!');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+
+    /* IN lists are padded to a power of two so that only a few statement variants exist */
+    private static int inListSize(int nCandidates) {
+        return nCandidates <= 1 ? 1 : Integer.highestOneBit(nCandidates - 1) << 1;
     }
 
     @Override
     public ApiResult borrowBook(Borrow borrow) {
-        Connection conn = connector.getConn();
+        //内存中已有未归还记录，无需访问数据库
+        if (activeLoans != null && activeLoans.isLoaded()
+                && activeLoans.contains(borrow.getCardId(), borrow.getBookId())) {
+            return new ApiResult(false, "You have an unreturned record of this book");
+        }
+        if (groupCommitter != null) {
+            return groupCommitter.submit(conn -> borrowSteps(conn, borrow), () -> {
+                versions.bump(Table.BOOK, Table.BORROW);
+                if (catalogCache != null) catalogCache.adjustStock(borrow.getBookId(), -1);
+                if (activeLoans != null) activeLoans.add(borrow.getCardId(), borrow.getBookId(), borrow.getBorrowTime());
+            });
+        }
+        Connection conn = null;
         try {
-            conn.setAutoCommit(false);
+            conn = connector.getConn();
+            ApiResult result = borrowSteps(conn, borrow);
+            if(!result.ok){
+                conn.rollback();
+                return result;
+            }
+            conn.commit();
+            versions.bump(Table.BOOK, Table.BORROW);
+            if (catalogCache != null) catalogCache.adjustStock(borrow.getBookId(), -1);
+            if (activeLoans != null) activeLoans.add(borrow.getCardId(), borrow.getBookId(), borrow.getBorrowTime());
+            return result;
+        }catch (SQLException e){
+            try{
+                if(conn!=null) conn.rollback();
+            }catch(SQLException e1){
+                e1.printStackTrace();
+            }
+            return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
+        }
+    }
 
-            //检查库存是否充足
-            String stockSql = "select stock from book where bookId = ? for update";
-            try(PreparedStatement stmt = conn.prepareStatement(stockSql)){
-                stmt.setInt(1,borrow.getBookId());
-                try(ResultSet rs = stmt.executeQuery()){
-                    if(!rs.next()){
-                        conn.rollback();
-                        return new ApiResult(false, "Book does not exist");
-                    }
-                    int stock = rs.getInt("stock");
-                    if(stock <= 0){
-                        conn.rollback();
-                        return new ApiResult(false, "Insufficient stock");
-                    }
+    /**
+     * the statements of borrowBook. nothing is committed or rolled back
+     * here, the caller does that depending on the returned result.
+     */
+    private ApiResult borrowSteps(Connection conn, Borrow borrow) throws SQLException {
+        if (optimisticBorrow) {
+            return borrowStepsOptimistic(conn, borrow);
+        }
+        //检查库存是否充足
+        String stockSql = "select stock from book where bookId = ? for update";
+        try(PreparedStatement stmt = prepare(conn, stockSql)){
+            stmt.setInt(1,borrow.getBookId());
+            try(ResultSet rs = stmt.executeQuery()){
+                if(!rs.next()){
+                    return new ApiResult(false, "Book does not exist");
                 }
-            }
-            //检查是否已有未归还记录
-            String borrowSql1 = "select 1 from Borrow where bookId = ? and cardId = ? and returnTime = 0";
-            try(PreparedStatement stmt = conn.prepareStatement(borrowSql1)){
-                stmt.setInt(1,borrow.getBookId());
-                stmt.setInt(2,borrow.getCardId());
-                try(ResultSet rs = stmt.executeQuery()){
-                    if(rs.next()){
-                        conn.rollback();
-                        return new ApiResult(false, "You have an unreturned record of this book");
-                    }
+                int stock = rs.getInt("stock");
+                if(stock <= 0){
+                    return new ApiResult(false, "Insufficient stock");
                 }
             }
-            //减少库存
-            String updateSql = "update book set stock = stock - 1 where bookId = ?";
-            try(PreparedStatement stmt = conn.prepareStatement(updateSql)){
-                stmt.setInt(1,borrow.getBookId());
-                int affected = stmt.executeUpdate();
-                if(affected == 0){
-                    conn.rollback();
-                    return new ApiResult(false, "Stock update failed");
-                }
+        }
+        //检查是否已有未归还记录
+        if(hasActiveLoan(conn, borrow.getCardId(), borrow.getBookId())){
+            return new ApiResult(false, "You have an unreturned record of this book");
+        }
+        //减少库存
+        String updateSql = "update book set stock = stock - 1 where bookId = ?";
+        try(PreparedStatement stmt = prepare(conn, updateSql)){
+            stmt.setInt(1,borrow.getBookId());
+            int affected = stmt.executeUpdate();
+            if(affected == 0){
+                return new ApiResult(false, "Stock update failed");
             }
-            //创造借阅记录
-            String borrowSql2 = "insert into Borrow (bookId, cardId, borrowTime, returnTime) values (?, ?, ?, 0)";
-            try(PreparedStatement stmt = conn.prepareStatement(borrowSql2)){
-                stmt.setInt(1,borrow.getBookId());
-                stmt.setInt(2,borrow.getCardId());
-                stmt.setLong(3,borrow.getBorrowTime());
-                stmt.executeUpdate();
+        }
+        //创造借阅记录
+        insertBorrow(conn, borrow);
+        return new ApiResult(true, "Book successfully borrowed");
+    }
+
+    /**
+     * borrow without "select ... for update": the stock is decremented by a
+     * conditional update that only succeeds while stock > 0, so the book's
+     * row lock is taken by the first statement and held only until the
+     * loan is inserted and committed.
+     */
+    private ApiResult borrowStepsOptimistic(Connection conn, Borrow borrow) throws SQLException {
+        //条件扣减库存，影响行数为0说明书不存在或库存不足
+        String updateSql = "update book set stock = stock - 1 where bookId = ? and stock > 0";
+        try(PreparedStatement stmt = prepare(conn, updateSql)){
+            stmt.setInt(1,borrow.getBookId());
+            if(stmt.executeUpdate() == 0){
+                return new ApiResult(false, bookExists(conn, borrow.getBookId())
+                        ? "Insufficient stock" : "Book does not exist");
+            }
+        }
+        //持有行锁后再检查是否已有未归还记录，避免同一借书证并发重复借阅
+        if(hasActiveLoan(conn, borrow.getCardId(), borrow.getBookId())){
+            return new ApiResult(false, "You have an unreturned record of this book");
+        }
+        insertBorrow(conn, borrow);
+        return new ApiResult(true, "Book successfully borrowed");
+    }
+
+    /* active_loan holds only the open loans, so this stays fast however long the history grows */
+    private boolean hasActiveLoan(Connection conn, int cardId, int bookId) throws SQLException {
+        String activeSql = "select 1 from active_loan where cardId = ? and bookId = ?";
+        try(PreparedStatement stmt = prepare(conn, activeSql)){
+            stmt.setInt(1,cardId);
+            stmt.setInt(2,bookId);
+            try(ResultSet rs = stmt.executeQuery()){
+                return rs.next();
+            }
+        }
+    }
+
+    private void insertBorrow(Connection conn, Borrow borrow) throws SQLException {
+        String borrowSql2 = "insert into Borrow (bookId, cardId, borrowTime, returnTime) values (?, ?, ?, 0)";
+        try(PreparedStatement stmt = prepare(conn, borrowSql2)){
+            stmt.setInt(1,borrow.getBookId());
+            stmt.setInt(2,borrow.getCardId());
+            stmt.setLong(3,borrow.getBorrowTime());
+            stmt.executeUpdate();
+        }
+        //同一事务中登记未归还记录，主键保证同一借书证不会重复借同一本书
+        String activeSql = "insert into active_loan (cardId, bookId, borrowTime) values (?, ?, ?)";
+        try(PreparedStatement stmt = prepare(conn, activeSql)){
+            stmt.setInt(1,borrow.getCardId());
+            stmt.setInt(2,borrow.getBookId());
+            stmt.setLong(3,borrow.getBorrowTime());
+            stmt.executeUpdate();
+        }
+    }
+
+    private boolean bookExists(Connection conn, int bookId) throws SQLException {
+        try(PreparedStatement stmt = prepare(conn, "select 1 from book where bookId = ?")){
+            stmt.setInt(1,bookId);
+            try(ResultSet rs = stmt.executeQuery()){
+                return rs.next();
+            }
+        }
+    }
+
+    @Override
+    public ApiResult returnBook(Borrow borrow) {
+        //内存中没有未归还记录，无需访问数据库
+        if (activeLoans != null && activeLoans.isLoaded()
+                && !activeLoans.contains(borrow.getCardId(), borrow.getBookId())) {
+            return new ApiResult(false, "No active borrow record found");
+        }
+        if (groupCommitter != null) {
+            return groupCommitter.submit(conn -> returnSteps(conn, borrow), () -> {
+                versions.bump(Table.BOOK, Table.BORROW);
+                if (catalogCache != null) catalogCache.adjustStock(borrow.getBookId(), 1);
+                if (activeLoans != null) activeLoans.remove(borrow.getCardId(), borrow.getBookId());
+            });
+        }
+        Connection conn = null;
+        try {
+            conn = connector.getConn();
+            ApiResult result = returnSteps(conn, borrow);
+            if(!result.ok){
+                conn.rollback();
+                return result;
             }
             conn.commit();
-            return new ApiResult(true, "Book successfully borrowed");
+            versions.bump(Table.BOOK, Table.BORROW);
+            if (catalogCache != null) catalogCache.adjustStock(borrow.getBookId(), 1);
+            if (activeLoans != null) activeLoans.remove(borrow.getCardId(), borrow.getBookId());
+            return result;
         }catch (SQLException e){
             try{
                 if(conn!=null) conn.rollback();
@@ -440,126 +1041,343 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 e1.printStackTrace();
             }
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
+        }
+    }
+
+    private ApiResult returnSteps(Connection conn, Borrow borrow) throws SQLException {
+        return returnSteps(conn, borrow, true);
+    }
+
+    /**
+     * the statements of returnBook, see {@link #borrowSteps}.
+     *
+     * @param checkBorrowTime whether borrow carries the borrowTime that the
+     *                        return time is checked against; if not, the
+     *                        borrowTime of the open loan is used
+     */
+    private ApiResult returnSteps(Connection conn, Borrow borrow, boolean checkBorrowTime) throws SQLException {
+        //检查是否存在未归还的借阅记录，只查未归还的记录表
+        String borrowSql = "select borrowTime from active_loan where cardId = ? and bookId = ?";
+        long activeBorrowTime;
+        try(PreparedStatement stmt = prepare(conn, borrowSql)){
+            stmt.setInt(1,borrow.getCardId());
+            stmt.setInt(2,borrow.getBookId());
+            try(ResultSet rs = stmt.executeQuery()){
+                if(!rs.next()){
+                    return new ApiResult(false, "No active borrow record found");
+                }
+                activeBorrowTime = rs.getLong(1);
+                // 添加时间验证
+                long borrowTime = checkBorrowTime ? borrow.getBorrowTime() : activeBorrowTime;
+                long returnTime = borrow.getReturnTime();
+                if(borrowTime == 0 ){
+                    return new ApiResult(false, "Borrow time cannot be 0");
+                }
+                if(returnTime <= borrowTime) {
+                    return new ApiResult(false, "Return time must be after borrow time");
+                }
+            }
+        }
+        //先删除未归还记录：并发归还同一本书时只有一个能删到
+        String deleteSql = "delete from active_loan where cardId = ? and bookId = ?";
+        try(PreparedStatement stmt = prepare(conn, deleteSql)){
+            stmt.setInt(1,borrow.getCardId());
+            stmt.setInt(2,borrow.getBookId());
+            if(stmt.executeUpdate() == 0){
+                return new ApiResult(false, "No active borrow record found");
+            }
         }
+        //按主键更新归还时间
+        String updateSql = "update Borrow set returnTime = ? where cardId = ? and bookId = ? and borrowTime = ?";
+        try(PreparedStatement stmt = prepare(conn, updateSql)){
+            stmt.setLong(1,borrow.getReturnTime());
+            stmt.setInt(2,borrow.getCardId());
+            stmt.setInt(3,borrow.getBookId());
+            stmt.setLong(4,activeBorrowTime);
+            int rowsAffected = stmt.executeUpdate();
+            if(rowsAffected == 0){
+                return new ApiResult(false, "Failed to update return time");
+            }
+        }
+        //处理库存
+        String stockSql = "update book set stock = stock + 1 where bookId = ?";
+        try(PreparedStatement stmt = prepare(conn, stockSql)){
+            stmt.setInt(1,borrow.getBookId());
+            int affected = stmt.executeUpdate();
+            if(affected == 0){
+                return new ApiResult(false, "Stock update failed");
+            }
+        }
+        return new ApiResult(true, "Book successfully returned");
     }
 
     @Override
-    public ApiResult returnBook(Borrow borrow) {
-        Connection conn = connector.getConn();
-        try {
-            conn.setAutoCommit(false);
+    public ApiResult borrowBooks(int cardId, List<Integer> bookIds, long borrowTime, boolean allOrNothing) {
+        return runBatch(bookIds, allOrNothing, (conn, bookId) -> {
+            //内存中已有未归还记录，无需访问数据库
+            if (activeLoans != null && activeLoans.isLoaded() && activeLoans.contains(cardId, bookId)) {
+                return new ApiResult(false, "You have an unreturned record of this book");
+            }
+            Borrow borrow = new Borrow(bookId, cardId);
+            borrow.setBorrowTime(borrowTime);
+            return borrowSteps(conn, borrow);
+        }, bookId -> {
+            if (catalogCache != null) catalogCache.adjustStock(bookId, -1);
+            if (activeLoans != null) activeLoans.add(cardId, bookId, borrowTime);
+        });
+    }
 
-            //检查是否存在未归还的借阅记录
-            String borrowSql = "select 1 from Borrow where bookId = ? and cardId = ? and returnTime = 0";
-            try(PreparedStatement stmt = conn.prepareStatement(borrowSql)){
-                stmt.setInt(1,borrow.getBookId());
-                stmt.setInt(2,borrow.getCardId());
-                try(ResultSet rs = stmt.executeQuery()){
-                    if(!rs.next()){
-                        conn.rollback();
-                        return new ApiResult(false, "No active borrow record found");
-                    }
-                    // 添加时间验证
-                    long borrowTime = borrow.getBorrowTime();
-                    long returnTime = borrow.getReturnTime();
-                    if(borrowTime == 0 ){
-                        conn.rollback();
-                        return new ApiResult(false, "Borrow time cannot be 0");
-                    }
-                    if(returnTime <= borrowTime) {
+    @Override
+    public ApiResult returnBooks(int cardId, List<Integer> bookIds, long returnTime, boolean allOrNothing) {
+        return runBatch(bookIds, allOrNothing, (conn, bookId) -> {
+            //内存中没有未归还记录，无需访问数据库
+            if (activeLoans != null && activeLoans.isLoaded() && !activeLoans.contains(cardId, bookId)) {
+                return new ApiResult(false, "No active borrow record found");
+            }
+            Borrow borrow = new Borrow(bookId, cardId);
+            borrow.setReturnTime(returnTime);
+            return returnSteps(conn, borrow, false);
+        }, bookId -> {
+            if (catalogCache != null) catalogCache.adjustStock(bookId, 1);
+            if (activeLoans != null) activeLoans.remove(cardId, bookId);
+        });
+    }
+
+    /* the statements for one book of borrowBooks or returnBooks, see borrowSteps */
+    private interface BatchStep {
+        ApiResult apply(Connection conn, int bookId) throws SQLException;
+    }
+
+    /**
+     * run step for every distinct book of bookIds in one transaction, in
+     * ascending bookId order, so that concurrent batches take the row
+     * locks of their books in the same order. a book that fails is rolled
+     * back to the savepoint taken before it, or with allOrNothing the whole
+     * transaction is rolled back. committed is called for every book that
+     * was committed.
+     */
+    private ApiResult runBatch(List<Integer> bookIds, boolean allOrNothing, BatchStep step, IntConsumer committed) {
+        if (bookIds == null || bookIds.isEmpty()) {
+            return new ApiResult(false, "No books given");
+        }
+        if (bookIds.contains(null)) {
+            return new ApiResult(false, "Book id cannot be null");
+        }
+        //结果按请求顺序返回，同一本书只处理第一次出现
+        List<BatchResults.Item> items = new ArrayList<>(bookIds.size());
+        TreeMap<Integer, BatchResults.Item> distinct = new TreeMap<>();
+        for (int bookId : bookIds) {
+            BatchResults.Item item = new BatchResults.Item(bookId, false, null);
+            if (distinct.putIfAbsent(bookId, item) != null) {
+                item.setMessage("Duplicate book in the batch");
+            }
+            items.add(item);
+        }
+        if (allOrNothing && distinct.size() < bookIds.size()) {
+            return rolledBack(items, "Duplicate book in the batch");
+        }
+        Connection conn = null;
+        try {
+            conn = connector.getConn();
+            //按bookId升序处理，并发的批量操作以相同顺序加锁，避免死锁
+            for (BatchResults.Item item : distinct.values()) {
+                Savepoint savepoint = allOrNothing ? null : conn.setSavepoint();
+                ApiResult result;
+                try {
+                    result = step.apply(conn, item.getId());
+                } catch (SQLException e) {
+                    result = new ApiResult(false, "Database error: " + e.getMessage());
+                }
+                item.setOk(result.ok);
+                item.setMessage(result.message);
+                if (!result.ok) {
+                    if (allOrNothing) {
                         conn.rollback();
-                        return new ApiResult(false, "Return time must be after borrow time");
+                        return rolledBack(items, "Book " + item.getId() + ": " + result.message);
                     }
+                    //只撤销这一本书的操作
+                    conn.rollback(savepoint);
                 }
             }
-            //更新归还时间
-            String updateSql = "update Borrow set returnTime = ? where bookId = ? and cardId = ? and returnTime = 0";
-            try(PreparedStatement stmt = conn.prepareStatement(updateSql)){
-                stmt.setLong(1,borrow.getReturnTime());
-                stmt.setInt(2,borrow.getBookId());
-                stmt.setInt(3,borrow.getCardId());
-                int rowsAffected = stmt.executeUpdate();
-                if(rowsAffected == 0){
-                    conn.rollback();
-                    return new ApiResult(false, "Failed to update return time");
-                }
-            }
-            //处理库存
-            String stockSql = "update book set stock = stock + 1 where bookId = ?";
-            try(PreparedStatement stmt = conn.prepareStatement(stockSql)){
-                stmt.setInt(1,borrow.getBookId());
-                int affected = stmt.executeUpdate();
-                if(affected == 0){
-                    conn.rollback();
-                    return new ApiResult(false, "Stock update failed");
+            conn.commit();
+            BatchResults results = new BatchResults(items);
+            if (results.getSucceeded() > 0) {
+                versions.bump(Table.BOOK, Table.BORROW);
+                for (BatchResults.Item item : distinct.values()) {
+                    if (item.isOk()) committed.accept(item.getId());
                 }
             }
-            conn.commit();
-            return new ApiResult(true, "Book successfully returned");
-        }catch (SQLException e){
+            return new ApiResult(true, results);
+        } catch (SQLException e) {
             try{
                 if(conn!=null) conn.rollback();
             }catch(SQLException e1){
                 e1.printStackTrace();
             }
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
         }
     }
 
+    /* the outcome of a batch that was rolled back as a whole */
+    private static ApiResult rolledBack(List<BatchResults.Item> items, String message) {
+        for (BatchResults.Item item : items) {
+            if (item.isOk() || item.getMessage() == null) {
+                item.setOk(false);
+                item.setMessage("Batch rolled back");
+            }
+        }
+        return new ApiResult(false, message, new BatchResults(items));
+    }
+
     @Override
     public ApiResult showBorrowHistory(int cardId) {
-        Connection conn = connector.getConn();
+        return showBorrowHistory(new BorrowHistoryConditions(cardId));
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(BorrowHistoryConditions conditions) {
+        //校验分页参数
+        if(conditions.getLimit()!=null && conditions.getLimit()<=0){
+            return new ApiResult(false, "Limit must be positive");
+        }
+        BorrowHistoryCursor cursor = null;
+        if(conditions.getCursor()!=null){
+            try{
+                cursor = BorrowHistoryCursor.decode(conditions.getCursor());
+            }catch (IllegalArgumentException e){
+                return new ApiResult(false, "Invalid cursor: " + e.getMessage());
+            }
+        }
+        Connection conn = null;
         try {
-            //构建带排序的查询SQL
-            String querySql = "select b.*, bk.* "+
-                    "from Borrow b "+
-                    "join book bk on b.bookId = bk.bookId "+
-                    "where b.cardId = ? "+
-                    "order by b.borrowTime desc, b.bookId asc";
-            //执行查询
-            try(PreparedStatement stmt = conn.prepareStatement(querySql)){
-                stmt.setInt(1,cardId);
-                //处理结果集
-                List<BorrowHistories.Item>items = new ArrayList<>();
-                try(ResultSet rs = stmt.executeQuery()){
-                    while(rs.next()){
-                        //构造book对象
-                        Book book = new Book();
-                        book.setBookId(rs.getInt("bookId"));
-                        book.setCategory(rs.getString("category"));
-                        book.setTitle(rs.getString("title"));
-                        book.setPress(rs.getString("press"));
-                        book.setPublishYear(rs.getInt("publishYear"));
-                        book.setAuthor(rs.getString("author"));
-                        book.setPrice(rs.getDouble("price"));
-                        book.setStock(rs.getInt("stock"));
-                        //构造borrow对象
-                        Borrow borrow = new Borrow();
-                        borrow.setBookId(rs.getInt("bookId"));
-                        borrow.setCardId(rs.getInt("cardId"));
-                        borrow.setReturnTime(rs.getLong("returnTime"));
-                        borrow.setBorrowTime(rs.getLong("borrowTime"));
-                        //创建BorrowHistories.Item
-                        items.add(new BorrowHistories.Item(cardId,book,borrow));
-                    }
+            conn = connector.getConn();
+            //先查borrow再查归档表：两次查询之间被归档的记录会出现两次，合并时去重，不会遗漏
+            List<BorrowHistories.Item> live = queryHistory(conn, "Borrow", conditions, cursor);
+            List<BorrowHistories.Item> archived = conditions.isOnlyActive()
+                    ? new ArrayList<>()
+                    : queryHistory(conn, "borrow_archive", conditions, cursor);
+            //两个有序列表归并：borrowTime降序，相同时bookId升序
+            List<BorrowHistories.Item> items = new ArrayList<>();
+            int i = 0, j = 0;
+            while (i < live.size() || j < archived.size()) {
+                BorrowHistories.Item next;
+                if (j >= archived.size()) {
+                    next = live.get(i++);
+                } else if (i >= live.size()) {
+                    next = archived.get(j++);
+                } else {
+                    int cmp = compareHistory(live.get(i), archived.get(j));
+                    next = cmp <= 0 ? live.get(i++) : archived.get(j++);
+                    if (cmp == 0) j++;
                 }
-                //封装最终结果
-                return new ApiResult(true, new BorrowHistories(items));
+                items.add(next);
+            }
+            //多出的一行只说明还有下一页，不返回
+            String nextCursor = null;
+            if (conditions.getLimit() != null && items.size() > conditions.getLimit()) {
+                items = new ArrayList<>(items.subList(0, conditions.getLimit()));
+                nextCursor = BorrowHistoryCursor.after(items.get(items.size() - 1)).encode();
             }
+            //封装最终结果
+            BorrowHistories histories = new BorrowHistories(items);
+            histories.setNextCursor(nextCursor);
+            return new ApiResult(true, histories);
         }catch (SQLException e){
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
+        }
+    }
+
+    /* the order of a borrow history: borrowTime desc, bookId asc */
+    private static int compareHistory(BorrowHistories.Item a, BorrowHistories.Item b) {
+        int cmp = Long.compare(b.getBorrowTime(), a.getBorrowTime());
+        return cmp != 0 ? cmp : Integer.compare(a.getBookId(), b.getBookId());
+    }
+
+    /**
+     * one page of a card's history from borrow or borrow_archive, which
+     * have the same columns, with one record more than the limit.
+     */
+    private List<BorrowHistories.Item> queryHistory(Connection conn, String table, BorrowHistoryConditions conditions,
+                                                    BorrowHistoryCursor cursor) throws SQLException {
+        //构建带排序的查询SQL，可走(cardId, borrowTime desc, bookId)索引
+        StringBuilder querySql = new StringBuilder("select b.cardId, b.bookId, b.borrowTime, b.returnTime, bk.* "+
+                "from " + table + " b "+
+                "join book bk on b.bookId = bk.bookId "+
+                "where b.cardId = ?");
+        List<Object> params = new ArrayList<>();
+        params.add(conditions.getCardId());
+        if(conditions.getFrom()!=null){
+            querySql.append(" and b.borrowTime >= ?");
+            params.add(conditions.getFrom());
         }
+        if(conditions.getTo()!=null){
+            querySql.append(" and b.borrowTime < ?");
+            params.add(conditions.getTo());
+        }
+        if(conditions.isOnlyActive()){
+            querySql.append(" and b.returnTime = 0");
+        }
+        //分页：从游标位置继续，borrowTime降序，相同时bookId升序
+        if(cursor!=null){
+            querySql.append(" and (b.borrowTime < ? or (b.borrowTime = ? and b.bookId > ?))");
+            params.add(cursor.getBorrowTime());
+            params.add(cursor.getBorrowTime());
+            params.add(cursor.getBookId());
+        }
+        querySql.append(" order by b.borrowTime desc, b.bookId asc");
+        //多取一行，用来判断是否还有下一页
+        if(conditions.getLimit()!=null){
+            querySql.append(" ").append(connector.getConf().getType().sqlLimit());
+            params.add(conditions.getLimit() + 1);
+        }
+        //执行查询
+        List<BorrowHistories.Item> items = new ArrayList<>();
+        try(PreparedStatement stmt = prepare(conn, querySql.toString())){
+            for(int i=0; i<params.size(); i++){
+                stmt.setObject(i+1,params.get(i));
+            }
+            try(ResultSet rs = stmt.executeQuery()){
+                while(rs.next()){
+                    //构造book对象
+                    Book book = new Book();
+                    book.setBookId(rs.getInt("bookId"));
+                    book.setCategory(rs.getString("category"));
+                    book.setTitle(rs.getString("title"));
+                    book.setPress(rs.getString("press"));
+                    book.setPublishYear(rs.getInt("publishYear"));
+                    book.setAuthor(rs.getString("author"));
+                    book.setPrice(rs.getDouble("price"));
+                    book.setStock(rs.getInt("stock"));
+                    //构造borrow对象
+                    Borrow borrow = new Borrow();
+                    borrow.setBookId(rs.getInt("bookId"));
+                    borrow.setCardId(rs.getInt("cardId"));
+                    borrow.setReturnTime(rs.getLong("returnTime"));
+                    borrow.setBorrowTime(rs.getLong("borrowTime"));
+                    //创建BorrowHistories.Item
+                    items.add(new BorrowHistories.Item(conditions.getCardId(),book,borrow));
+                }
+            }
+        }
+        return items;
     }
 
     @Override
     public ApiResult registerCard(Card card) {
-        Connection conn = connector.getConn();
+        Connection conn = null;
         try {
+            conn = connector.getConn();
             conn.setAutoCommit(false);
 
             //检查卡是否已经存在
             String cardSql = "select cardId from Card where name = ? and department = ? and type = ?";
-            try(PreparedStatement stmt = conn.prepareStatement(cardSql)){
+            try(PreparedStatement stmt = prepare(conn, cardSql)){
                 stmt.setString(1,card.getName());
                 stmt.setString(2,card.getDepartment());
                 stmt.setString(3,card.getType().getStr());
@@ -572,7 +1390,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             }
             //插入新卡
             String insertSql = "insert into Card (name, department, type) values(?,?,?)";
-            try(PreparedStatement stmt = conn.prepareStatement(insertSql,PreparedStatement.RETURN_GENERATED_KEYS)){
+            try(PreparedStatement stmt = prepare(conn, insertSql,Statement.RETURN_GENERATED_KEYS)){
                 stmt.setString(1,card.getName());
                 stmt.setString(2,card.getDepartment());
                 stmt.setString(3,card.getType().getStr());
@@ -593,6 +1411,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 }
             }
             conn.commit();
+            versions.bump(Table.CARD);
             return new ApiResult(true, "Card successfully registered");
         }catch (SQLException e){
             try{
@@ -601,18 +1420,172 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 e1.printStackTrace();
             }
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
         }
     }
 
+    @Override
+    public ApiResult registerCards(List<Card> cards) {
+        if (cards == null) {
+            return new ApiResult(false, "No cards given");
+        }
+        //结果按请求顺序返回
+        List<BatchResults.Item> items = new ArrayList<>(cards.size());
+        List<Card> valid = new ArrayList<>(cards.size());
+        for (Card card : cards) {
+            boolean complete = card != null && card.getName() != null
+                    && card.getDepartment() != null && card.getType() != null;
+            items.add(new BatchResults.Item(0, false, complete ? null : "Card name, department and type are required"));
+            if (complete) valid.add(card);
+        }
+        Connection conn = null;
+        try {
+            conn = connector.getConn();
+            conn.setAutoCommit(false);
+            //一次遍历完成去重：库中已有的卡，以及本次请求中重复的卡
+            Map<String, Integer> existing = existingCardIds(conn, valid);
+            Map<String, Card> firstCards = new HashMap<>();
+            Card[] duplicateOf = new Card[cards.size()];
+            List<Card> cardsToAdd = new ArrayList<>();
+            for (int i = 0; i < cards.size(); i++) {
+                BatchResults.Item item = items.get(i);
+                if (item.getMessage() != null) {
+                    continue;
+                }
+                String key = cardKey(cards.get(i));
+                if (existing.containsKey(key)) {
+                    item.setId(existing.get(key));
+                    item.setMessage("Card already exists");
+                } else if ((duplicateOf[i] = firstCards.putIfAbsent(key, cards.get(i))) != null) {
+                    item.setMessage("Duplicate card in the request");
+                } else {
+                    cardsToAdd.add(cards.get(i));
+                }
+            }
+            if (!cardsToAdd.isEmpty()) {
+                String insertSql = "insert into Card (name, department, type) values(?,?,?)";
+                try(PreparedStatement stmt = prepare(conn, insertSql, Statement.RETURN_GENERATED_KEYS)){
+                    for (Card card : cardsToAdd) {
+                        stmt.setString(1,card.getName());
+                        stmt.setString(2,card.getDepartment());
+                        stmt.setString(3,card.getType().getStr());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    //获取自增ID，并回填到Card对象
+                    int index = 0;
+                    try(ResultSet rs = stmt.getGeneratedKeys()){
+                        while(rs.next() && index < cardsToAdd.size()){
+                            cardsToAdd.get(index++).setCardId(rs.getInt(1));
+                        }
+                    }
+                    //有的驱动（如 SQL Server）批量插入后只返回部分ID，此时在同一事务中按名字查回
+                    if(index < cardsToAdd.size() && !readCardIds(conn, cardsToAdd)){
+                        conn.rollback();
+                        return new ApiResult(false, "Failed to get card ID");
+                    }
+                }
+            }
+            conn.commit();
+            if (!cardsToAdd.isEmpty()) versions.bump(Table.CARD);
+            for (int i = 0; i < cards.size(); i++) {
+                BatchResults.Item item = items.get(i);
+                if (item.getMessage() == null) {
+                    item.setId(cards.get(i).getCardId());
+                    item.setOk(true);
+                    item.setMessage("Card successfully registered");
+                } else if (duplicateOf[i] != null) {
+                    item.setId(duplicateOf[i].getCardId());
+                }
+            }
+            return new ApiResult(true, "Cards registered: " + cardsToAdd.size() + " inserted, "
+                    + (cards.size() - cardsToAdd.size()) + " skipped", new BatchResults(items));
+        }catch (SQLException e){
+            try{
+                if(conn!=null) conn.rollback();
+            }catch(SQLException e1){
+                e1.printStackTrace();
+            }
+            return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
+        }
+    }
+
+    /**
+     * look up which of the cards already exist, DEDUPE_CHUNK names per
+     * round trip. the lookup is by name alone, which the card_name index
+     * answers with a seek per name; name is the last column of the unique
+     * key, which some databases can only scan for an IN list.
+     *
+     * @return the cardId of every stored card with one of the names, by {@link #cardKey}
+     */
+    private Map<String, Integer> existingCardIds(Connection conn, List<Card> cards) throws SQLException {
+        Map<String, Integer> existing = new HashMap<>();
+        for (int from = 0; from < cards.size(); from += DEDUPE_CHUNK) {
+            List<Card> chunk = cards.subList(from, Math.min(from + DEDUPE_CHUNK, cards.size()));
+            int inSize = inListSize(chunk.size());
+            StringBuilder checkSql = new StringBuilder("select cardId, name, department, type from Card where name in (");
+            for (int i = 0; i < inSize; i++) {
+                checkSql.append(i == 0 ? "?" : ", ?");
+            }
+            checkSql.append(')');
+            try(PreparedStatement checkStmt = prepare(conn, checkSql.toString())){
+                //IN 列表补齐到2的幂，重复最后一个名字
+                for (int i = 0; i < inSize; i++) {
+                    checkStmt.setString(1 + i,chunk.get(Math.min(i, chunk.size() - 1)).getName());
+                }
+                try(ResultSet rs = checkStmt.executeQuery()){
+                    while(rs.next()){
+                        Card card = new Card(rs.getInt(1), rs.getString(2), rs.getString(3),
+                                Card.CardType.fromString(rs.getString(4)));
+                        existing.put(cardKey(card), card.getCardId());
+                    }
+                }
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * store the cardId of just inserted cards to them, looked up by name like
+     * {@link #existingCardIds}, for drivers that do not return a generated
+     * key for every row of a batch.
+     *
+     * @return false if one of the cards was not found
+     */
+    private boolean readCardIds(Connection conn, List<Card> cards) throws SQLException {
+        Map<String, Integer> ids = existingCardIds(conn, cards);
+        for (Card card : cards) {
+            Integer id = ids.get(cardKey(card));
+            if (id == null) {
+                return false;
+            }
+            card.setCardId(id);
+        }
+        return true;
+    }
+
+    /* the unique key of a card, compared the way the database's default collation does */
+    private String cardKey(Card card) {
+        String key = card.getName() + '\n' + card.getDepartment() + '\n' + card.getType().getStr();
+        return connector.getConf().getType().isCaseInsensitive() ? key.toLowerCase(Locale.ROOT) : key;
+    }
+
     @Override
     public ApiResult removeCard(int cardId) {
-        Connection conn = connector.getConn();
+        if (activeLoans != null && activeLoans.isLoaded() && activeLoans.hasLoans(cardId)) {
+            return new ApiResult(false, "Cannot remove card: user has unreturned record");
+        }
+        Connection conn = null;
         try {
+            conn = connector.getConn();
             conn.setAutoCommit(false);
 
             //检查是否存在未归还书籍
-            String borrowSql = "select 1 from Borrow where cardId = ? and returnTime = 0";
-            try(PreparedStatement stmt = conn.prepareStatement(borrowSql)){
+            String borrowSql = "select 1 from active_loan where cardId = ?";
+            try(PreparedStatement stmt = prepare(conn, borrowSql)){
                 stmt.setInt(1,cardId);
                 try(ResultSet rs = stmt.executeQuery()){
                     if(rs.next()){
@@ -623,7 +1596,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             }
             //检查卡片是否存在
             String checkSql = "select 1 from Card where cardId = ?";
-            try(PreparedStatement stmt = conn.prepareStatement(checkSql)){
+            try(PreparedStatement stmt = prepare(conn, checkSql)){
                 stmt.setInt(1,cardId);
                 try(ResultSet rs = stmt.executeQuery()){
                     if(!rs.next()){
@@ -634,12 +1607,12 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             }
             //删除卡片（先删除记录，再删除卡片
             String deleteBorrowSql = "delete from Borrow where cardId = ?";
-            try(PreparedStatement stmt = conn.prepareStatement(deleteBorrowSql)){
+            try(PreparedStatement stmt = prepare(conn, deleteBorrowSql)){
                 stmt.setInt(1,cardId);
                 stmt.executeUpdate();
             }
             String deleteCardSql = "delete from Card where cardId = ?";
-            try(PreparedStatement stmt = conn.prepareStatement(deleteCardSql)){
+            try(PreparedStatement stmt = prepare(conn, deleteCardSql)){
                 stmt.setInt(1,cardId);
                 int rowsAffected = stmt.executeUpdate();
                 if(rowsAffected == 0){
@@ -648,6 +1621,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 }
             }
             conn.commit();
+            versions.bump(Table.CARD, Table.BORROW);
             return new ApiResult(true, "Card successfully removed");
 
         }catch (SQLException e){
@@ -657,17 +1631,20 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 e1.printStackTrace();
             }
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
         }
     }
 
     @Override
     public ApiResult showCards() {
-        Connection conn = connector.getConn();
+        Connection conn = null;
         try {
+            conn = connector.getConn();
             //按ID升序构建查询SQL
             String querySql = "select * from Card order by cardId ASC";
             //执行查询
-            try(PreparedStatement stmt = conn.prepareStatement(querySql)){
+            try(PreparedStatement stmt = prepare(conn, querySql)){
                 List<Card> cards = new ArrayList<>();
                 //处理结果集
                 try(ResultSet rs = stmt.executeQuery()){
@@ -685,26 +1662,95 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             }
         }catch (SQLException e){
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
+        }
+    }
+
+    /**
+     * create the tables if the database has none yet, e.g. a new embedded
+     * database. a database that already has them is left alone.
+     *
+     * @return whether the tables were created
+     */
+    public boolean createTablesIfMissing() throws SQLException {
+        try (Connection conn = connector.getConn();
+             Statement stmt = conn.createStatement()) {
+            try {
+                //结果集随 stmt 一起关闭
+                stmt.execute("select 1 from book where 1=0");
+                return false;
+            } catch (SQLException e) {
+                //表不存在
+                conn.rollback();
+            }
+        }
+        ApiResult result = resetDatabase();
+        if (!result.ok) {
+            throw new SQLException(result.message);
+        }
+        return true;
+    }
+
+    /**
+     * apply the schema migrations the database has not seen yet, e.g. new
+     * indexes. unlike resetDatabase the data is kept.
+     *
+     * @return the number of migrations applied
+     */
+    public int migrateSchema() throws SQLException {
+        DBInitializer initializer = connector.getConf().getType().getDbInitializer();
+        try (Connection conn = connector.getConn()) {
+            int applied = SchemaMigrator.migrate(conn, initializer);
+            if (applied > 0) {
+                //表结构变了，缓存的预编译语句重新准备
+                statements.clear();
+            }
+            return applied;
         }
     }
 
     @Override
     public ApiResult resetDatabase() {
-        Connection conn = connector.getConn();
+        Connection conn = null;
         try {
+            conn = connector.getConn();
             Statement stmt = conn.createStatement();
             DBInitializer initializer = connector.getConf().getType().getDbInitializer();
+            stmt.addBatch(initializer.sqlDropActiveLoan());
+            stmt.addBatch(initializer.sqlDropBorrowArchive());
             stmt.addBatch(initializer.sqlDropBorrow());
             stmt.addBatch(initializer.sqlDropBook());
             stmt.addBatch(initializer.sqlDropCard());
+            stmt.addBatch(initializer.sqlDropSchemaVersion());
             stmt.addBatch(initializer.sqlCreateCard());
             stmt.addBatch(initializer.sqlCreateBook());
             stmt.addBatch(initializer.sqlCreateBorrow());
             stmt.executeBatch();
             commit(conn);
+            //新建的表从版本0开始，补上全部迁移
+            SchemaMigrator.migrate(conn, initializer);
+            versions.bumpAll();
+            //表已重建，缓存的预编译语句作废
+            statements.clear();
+            //表已重建为空，索引随之清空
+            if (searchIndex != null) {
+                searchIndex.clear();
+                searchIndex.markLoaded();
+            }
+            if (catalogCache != null) {
+                catalogCache.clear();
+                catalogCache.markLoaded();
+            }
+            if (activeLoans != null) {
+                activeLoans.clear();
+                activeLoans.markLoaded();
+            }
         } catch (Exception e) {
-            rollback(conn);
+            if (conn != null) rollback(conn);
             return new ApiResult(false, e.getMessage());
+        } finally {
+            close(conn);
         }
         return new ApiResult(true, null);
     }
@@ -725,15 +1771,52 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
         }
     }
 
+    /* prepared statements come from the per-connection cache, closing them hands them back */
+    private PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        return statements.prepare(conn, sql);
+    }
+
+    private PreparedStatement prepare(Connection conn, String sql, int autoGeneratedKeys) throws SQLException {
+        return statements.prepare(conn, sql, autoGeneratedKeys);
+    }
+
+    private PreparedStatement prepare(Connection conn, Object key, Supplier<String> sql) throws SQLException {
+        return statements.prepare(conn, key, sql);
+    }
+
+    /**
+     * hand a pooled connection back. StatementCache runs statements on the
+     * physical connection, where the pool does not see them, so the pool
+     * can not tell that a read left its transaction open and would hand the
+     * connection out again with that transaction's snapshot (under
+     * REPEATABLE READ). end it here; after a commit this is a no-op.
+     */
+    private void close(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.rollback();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        try {
+            conn.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public ApiResult modifyCard(Card card) {
-        Connection conn = connector.getConn();
+        Connection conn = null;
         try {
+            conn = connector.getConn();
             conn.setAutoCommit(false);
 
             // 检查卡片是否存在
             String checkSql = "select 1 from Card where cardId = ?";
-            try(PreparedStatement stmt = conn.prepareStatement(checkSql)) {
+            try(PreparedStatement stmt = prepare(conn, checkSql)) {
                 stmt.setInt(1, card.getCardId());
                 try(ResultSet rs = stmt.executeQuery()) {
                     if(!rs.next()) {
@@ -745,7 +1828,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // 检查是否存在相同信息的其他卡片
             String duplicateSql = "select 1 from Card where name = ? and department = ? and type = ? and cardId != ?";
-            try(PreparedStatement stmt = conn.prepareStatement(duplicateSql)) {
+            try(PreparedStatement stmt = prepare(conn, duplicateSql)) {
                 stmt.setString(1, card.getName());
                 stmt.setString(2, card.getDepartment());
                 stmt.setString(3, card.getType().getStr());
@@ -760,7 +1843,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // 更新卡片信息
             String updateSql = "update Card set name = ?, department = ?, type = ? where cardId = ?";
-            try(PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+            try(PreparedStatement stmt = prepare(conn, updateSql)) {
                 stmt.setString(1, card.getName());
                 stmt.setString(2, card.getDepartment());
                 stmt.setString(3, card.getType().getStr());
@@ -774,6 +1857,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             }
 
             conn.commit();
+            versions.bump(Table.CARD);
             return new ApiResult(true, "Card successfully modified");
         } catch (SQLException e) {
             try {
@@ -782,6 +1866,8 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 e1.printStackTrace();
             }
             return new ApiResult(false, "Database error: " + e.getMessage());
+        } finally {
+            close(conn);
         }
     }
 
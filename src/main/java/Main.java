@@ -4,20 +4,40 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.Headers;
 import utils.ConnectConfig;
 import utils.DatabaseConnector;
+import utils.DatabaseType;
+import utils.HttpCompression;
+import utils.HttpMetrics;
+import utils.LibraryConfig;
+import utils.ServerConfig;
+import utils.SqlMonitor;
+import utils.TableVersions;
+import utils.TableVersions.Table;
 import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONWriter;
 import entities.*;
 import queries.*;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.sql.SQLException;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.*;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class Main {
@@ -26,6 +46,16 @@ public class Main {
 
     private static LibraryManagementSystem library;
 
+    private static final HttpMetrics metrics = new HttpMetrics();
+
+    /* null unless server.etag is switched on */
+    private static TableVersions versions;
+
+    private static String cacheControl;
+
+    /* null unless server.compression is switched on */
+    private static HttpCompression compression;
+
     public static void main(String[] args) {
         try {
             ConnectConfig conf = new ConnectConfig();
@@ -38,17 +68,70 @@ public class Main {
             }
             log.info("Successfully connected to database");
 
-            library = new LibraryManagementSystemImpl(connector);
+            LibraryConfig libraryConf = LibraryConfig.load();
+            log.info("Successfully parsed library config: " + libraryConf);
+            LibraryManagementSystemImpl impl = new LibraryManagementSystemImpl(connector, libraryConf);
+            try {
+                // 内嵌数据库没有建表脚本，首次启动时自动建表
+                if (conf.getType() == DatabaseType.H2 && impl.createTablesIfMissing()) {
+                    log.info("Created the tables of the embedded database");
+                }
+            } catch (SQLException e) {
+                log.warning("Failed to create the tables of the embedded database: " + e.getMessage());
+            }
+            try {
+                // 已有数据的库只补上新的迁移（如索引），不重建表
+                int applied = impl.migrateSchema();
+                if (applied > 0) {
+                    log.info("Applied " + applied + " schema migration(s)");
+                }
+            } catch (SQLException e) {
+                log.warning("Failed to migrate the schema, continuing with the old one: " + e.getMessage());
+            }
+            try {
+                impl.loadSearchIndex();
+                impl.loadCatalogCache();
+                impl.loadActiveLoans();
+                log.info("Successfully loaded in-memory copies:" + (libraryConf.isSearchIndex() ? " book search index" : "")
+                        + (libraryConf.isCatalogCache() ? " catalog cache" : "")
+                        + (libraryConf.isActiveLoanCache() ? " active loans" : ""));
+            } catch (SQLException e) {
+                log.warning("Failed to load in-memory copies, they will be loaded on first use: " + e.getMessage());
+            }
+            library = impl;
 
-            final HttpServer server = HttpServer.create(new InetSocketAddress(8000), 0);
+            ServerConfig serverConf = new ServerConfig();
+            log.info("Successfully parsed server config: " + serverConf);
+            if (serverConf.isEtag()) {
+                versions = impl.getTableVersions();
+            }
+            cacheControl = serverConf.getCacheMaxAge() > 0 ? "max-age=" + serverConf.getCacheMaxAge() : "no-cache";
+            if (serverConf.isCompression()) {
+                compression = new HttpCompression(serverConf.getCompressionLevel(), serverConf.getCompressionMinSize());
+            }
+            // 关闭Nagle算法：响应头和响应体分两次写出，长连接上第二次写会被延迟到客户端的延迟ACK(约40ms)之后
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            final HttpServer server = HttpServer.create(new InetSocketAddress(serverConf.getPort()), 0);
             server.createContext("/cards", new CardHandler());
             server.createContext("/books", new BookHandler());
             server.createContext("/borrows", new BorrowHandler());
+            server.createContext("/metrics", new MetricsHandler(connector.getSqlMonitor()));
+            for (String path : new String[]{"/cards", "/books", "/borrows", "/metrics"}) {
+                metrics.register(path);
+            }
+            final ExecutorService executor = createExecutor(serverConf);
+            server.setExecutor(executor);
             server.start();
-            log.info("Server is listening on port 8000");
+            log.info("Server is listening on port " + serverConf.getPort());
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 server.stop(0);
+                if (executor != null) {
+                    executor.shutdown();
+                }
+                impl.close();
 
                 if (connector.release()) {
                     log.info("Database connection released successfully");
@@ -70,12 +153,194 @@ public class Main {
         }
     }
 
+    /**
+     * build the executor that runs request handlers. returns null in
+     * single mode, which keeps the HttpServer default of handling every
+     * request on its dispatcher thread.
+     */
+    private static ExecutorService createExecutor(ServerConfig conf) {
+        ServerConfig.ExecutorMode mode = conf.getExecutorMode();
+        if (mode == ServerConfig.ExecutorMode.VIRTUAL) {
+            try {
+                /* looked up reflectively so that the project still compiles for Java 8 */
+                ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                log.info("Request executor: one virtual thread per request");
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                log.warning("Virtual threads are not supported by this JDK ("
+                        + System.getProperty("java.version") + "), falling back to worker pool");
+                mode = ServerConfig.ExecutorMode.POOL;
+            }
+        }
+        if (mode == ServerConfig.ExecutorMode.POOL) {
+            AtomicInteger threadId = new AtomicInteger();
+            ThreadFactory factory = r -> {
+                Thread t = new Thread(r, "http-worker-" + threadId.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+            /* when the queue is full the dispatcher runs the request itself,
+               which stops it from accepting more until a worker frees up */
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(conf.getWorkers(), conf.getWorkers(),
+                    60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(conf.getQueueCapacity()),
+                    factory, new ThreadPoolExecutor.CallerRunsPolicy());
+            log.info("Request executor: worker pool, " + conf.getWorkers() + " threads, queue capacity "
+                    + conf.getQueueCapacity());
+            return executor;
+        }
+        log.info("Request executor: single dispatcher thread");
+        return null;
+    }
+
+    /* the content coding of the response to this request, null = identity */
+    private static HttpCompression.Encoding encoding(HttpExchange exchange) {
+        if (compression == null) {
+            return null;
+        }
+        return HttpCompression.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+    }
+
+    /**
+     * send a whole body, compressed if the client accepts it and it is at
+     * least the configured minimum size.
+     */
+    private static void writeResponse(HttpExchange exchange, int statusCode, String contentType, byte[] body)
+            throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+        HttpCompression.Encoding encoding = encoding(exchange);
+        if (encoding != null && body.length >= compression.getMinSize()) {
+            body = compression.compress(body, encoding);
+            headers.set("Content-Encoding", encoding.getToken());
+        }
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /**
+     * writes {"success":true,"data":{"results":[...],"count":n,"nextCursor":...}}
+     * book by book. the status line and headers go out once the first
+     * FLUSH_BYTES have been serialized, so an error that occurs before can
+     * still be answered normally, and a result smaller than that is sent
+     * in one piece with a Content-Length. larger ones are streamed with
+     * chunked transfer encoding, compressed on the fly.
+     */
+    static class BookStream implements BookSink, AutoCloseable {
+        /* serialized bytes buffered before they are written to the client */
+        private static final int FLUSH_BYTES = 32 * 1024;
+
+        private final HttpExchange exchange;
+        private final JSONWriter writer = JSONWriter.ofUTF8();
+        private OutputStream body;
+        private boolean first = true;
+
+        BookStream(HttpExchange exchange) {
+            this.exchange = exchange;
+            writer.startObject();
+            writer.writeName("success");
+            writer.writeColon();
+            writer.writeBool(true);
+            writer.writeName("data");
+            writer.writeColon();
+            writer.startObject();
+            writer.writeName("results");
+            writer.writeColon();
+            writer.startArray();
+        }
+
+        boolean isStarted() {
+            return body != null;
+        }
+
+        @Override
+        public void accept(Book book) throws IOException {
+            if (!first) {
+                writer.writeComma();
+            }
+            first = false;
+            writer.writeAny(book);
+            if (writer.size() >= FLUSH_BYTES) {
+                if (body == null) {
+                    start();
+                }
+                writer.flushTo(body);
+            }
+        }
+
+        void finish(BookQueryResults summary) throws IOException {
+            writer.endArray();
+            writer.writeName("count");
+            writer.writeColon();
+            writer.writeInt32(summary.getCount());
+            if (summary.getNextCursor() != null) {
+                writer.writeName("nextCursor");
+                writer.writeColon();
+                writer.writeString(summary.getNextCursor());
+            }
+            writer.endObject();
+            writer.endObject();
+            if (body == null) {
+                // 结果不足一次刷新的大小，整体发送
+                writeResponse(exchange, 200, "application/json", writer.getBytes());
+                return;
+            }
+            writer.flushTo(body);
+            body.close();
+        }
+
+        /* drop the connection so that the client sees a truncated response */
+        void abort() {
+            exchange.close();
+        }
+
+        private void start() throws IOException {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", "application/json");
+            HttpCompression.Encoding encoding = encoding(exchange);
+            if (encoding != null && writer.size() < compression.getMinSize()) {
+                encoding = null;
+            }
+            if (encoding != null) {
+                headers.set("Content-Encoding", encoding.getToken());
+            }
+            /* length 0 selects chunked transfer encoding */
+            exchange.sendResponseHeaders(200, 0);
+            body = exchange.getResponseBody();
+            if (encoding != null) {
+                body = compression.wrap(body, encoding);
+            }
+        }
+
+        @Override
+        public void close() {
+            writer.close();
+        }
+    }
+
     abstract static class BaseHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
+            // 记录每个请求的耗时与状态码，计数器均已预先分配
+            HttpMetrics.Route route = metrics.route(exchange.getHttpContext().getPath());
+            long start = route.begin();
+            try {
+                dispatch(exchange);
+            } finally {
+                route.finish(exchange.getRequestMethod(), exchange.getResponseCode(), start);
+            }
+        }
+
+        private void dispatch(HttpExchange exchange) throws IOException {
             try {
                 // 统一CORS设置
                 setCorsHeaders(exchange);
+                if (compression != null) {
+                    // 响应是否压缩取决于 Accept-Encoding
+                    exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+                }
 
                 if ("OPTIONS".equals(exchange.getRequestMethod())) {
                     handleOptions(exchange);
@@ -109,7 +374,8 @@ public class Main {
             Headers headers = exchange.getResponseHeaders();
             headers.add("Access-Control-Allow-Origin", "*");
             headers.add("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
-            headers.add("Access-Control-Allow-Headers", "Content-Type");
+            headers.add("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
+            headers.add("Access-Control-Expose-Headers", "ETag");
         }
 
         protected void handleOptions(HttpExchange exchange) throws IOException {
@@ -136,11 +402,17 @@ public class Main {
         }
 
         protected void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(statusCode, response.getBytes().length);
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(response.getBytes());
+            sendResponse(exchange, statusCode, response.getBytes(StandardCharsets.UTF_8));
+        }
+
+        protected void sendResponse(HttpExchange exchange, int statusCode, byte[] response) throws IOException {
+            if (statusCode >= 400) {
+                // 错误响应不可缓存
+                Headers headers = exchange.getResponseHeaders();
+                headers.remove("ETag");
+                headers.remove("Cache-Control");
             }
+            writeResponse(exchange, statusCode, "application/json", response);
         }
 
         protected void sendApiResult(HttpExchange exchange, ApiResult result) throws IOException {
@@ -148,10 +420,81 @@ public class Main {
             response.put("success", result.ok);
             if (!result.ok) {
                 response.put("error", result.message);
-            } else if (result.payload != null) {
+            }
+            // 失败时也带上结果，例如批量操作每一项的结果
+            if (result.payload != null) {
                 response.put("data", result.payload);
             }
-            sendResponse(exchange, result.ok ? 200 : 400, response.toJSONString());
+            // 直接序列化为字节，不再生成中间字符串
+            sendResponse(exchange, result.ok ? 200 : 400, JSON.toJSONBytes(response));
+        }
+
+        /**
+         * conditional GET: tag the response with the current versions of
+         * the tables it is built from, and if the client's If-None-Match
+         * already holds that tag, answer 304 without touching the database.
+         *
+         * @return whether the request has been answered
+         */
+        protected boolean notModified(HttpExchange exchange, Table... tables) throws IOException {
+            if (versions == null) {
+                return false;
+            }
+            //先读版本号再读数据，期间的写入只会让标签偏旧
+            String etag = versions.etag(tables);
+            HttpCompression.Encoding encoding = encoding(exchange);
+            if (encoding != null) {
+                // 强标签要求字节相同，压缩后的表示使用不同的标签
+                etag = etag.substring(0, etag.length() - 1) + "-" + encoding.getToken() + '"';
+            }
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", etag);
+            headers.set("Cache-Control", cacheControl);
+            if (!matches(exchange.getRequestHeaders().get("If-None-Match"), etag)) {
+                return false;
+            }
+            exchange.sendResponseHeaders(304, -1);
+            return true;
+        }
+
+        /* If-None-Match compares weakly: a W/ prefix is ignored, * matches anything */
+        private static boolean matches(List<String> ifNoneMatch, String etag) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String value : ifNoneMatch) {
+                for (String tag : value.split(",")) {
+                    tag = tag.trim();
+                    if (tag.startsWith("W/")) {
+                        tag = tag.substring(2);
+                    }
+                    if (tag.equals(etag) || tag.equals("*")) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * run the book query and stream its results as the same JSON that
+         * sendApiResult would produce, see {@link BookStream}.
+         * books are serialized as they are read, so the memory held per
+         * request is bounded by the flush size instead of the result size.
+         */
+        protected void sendBookStream(HttpExchange exchange, BookQueryConditions conditions) throws IOException {
+            try (BookStream stream = new BookStream(exchange)) {
+                ApiResult result = library.queryBook(conditions, stream);
+                if (result.ok) {
+                    stream.finish((BookQueryResults) result.payload);
+                } else if (!stream.isStarted()) {
+                    sendApiResult(exchange, result);
+                } else {
+                    // 响应头已发出，无法再返回错误码，只能中断响应
+                    log.warning("Book query failed while streaming: " + result.message);
+                    stream.abort();
+                }
+            }
         }
 
         // 抽象方法
@@ -165,6 +508,9 @@ public class Main {
     static class CardHandler extends BaseHandler {
         @Override
         protected void handleGet(HttpExchange exchange) throws IOException {
+            if (notModified(exchange, Table.CARD)) {
+                return;
+            }
             ApiResult result = library.showCards();
             sendApiResult(exchange, result);
         }
@@ -174,7 +520,37 @@ public class Main {
             try {
                 String requestBody = readRequestBody(exchange);
                 log.info("Received JSON: " + requestBody);
-                
+
+                // 尝试解析为数组，批量注册
+                if (requestBody.trim().startsWith("[")) {
+                    JSONArray array = JSON.parseArray(requestBody);
+                    List<Card> cards = new ArrayList<>(array.size());
+                    for (int i = 0; i < array.size(); i++) {
+                        // null 或非对象元素同样是客户端错误
+                        if (!(array.get(i) instanceof JSONObject)) {
+                            JSONObject response = new JSONObject();
+                            response.put("success", false);
+                            response.put("error", "Card at index " + i + " must be a JSON object");
+                            sendResponse(exchange, 400, response.toJSONString());
+                            return;
+                        }
+                        JSONObject item = array.getJSONObject(i);
+                        Card.CardType type = Card.CardType.fromString(item.getString("type"));
+                        if (type == null) {
+                            JSONObject response = new JSONObject();
+                            response.put("success", false);
+                            response.put("error", "Invalid card type at index " + i + ". Must be 'S' or 'T'");
+                            sendResponse(exchange, 400, response.toJSONString());
+                            return;
+                        }
+                        cards.add(new Card(0, item.getString("name"), item.getString("department"), type));
+                    }
+                    ApiResult result = library.registerCards(cards);
+                    log.info("Batch registration result: " + (result.ok ? result.message : "failed - " + result.message));
+                    sendApiResult(exchange, result);
+                    return;
+                }
+
                 // 解析 JSON 对象
                 JSONObject jsonObject = JSON.parseObject(requestBody);
                 Card card = new Card();
@@ -283,10 +659,50 @@ public class Main {
         }
     }
 
+    // 监控指标处理器（Prometheus 文本格式）
+    static class MetricsHandler extends BaseHandler {
+        /* null if SQL statements are not monitored */
+        private final SqlMonitor sqlMonitor;
+
+        MetricsHandler(SqlMonitor sqlMonitor) {
+            this.sqlMonitor = sqlMonitor;
+        }
+
+        @Override
+        protected void handleGet(HttpExchange exchange) throws IOException {
+            StringBuilder out = new StringBuilder(16 * 1024);
+            metrics.writePrometheus(out);
+            if (sqlMonitor != null) {
+                sqlMonitor.writePrometheus(out);
+            }
+            byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+            writeResponse(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", body);
+        }
+
+        @Override
+        protected void handlePost(HttpExchange exchange) throws IOException {
+            sendResponse(exchange, 405, "Method Not Allowed");
+        }
+
+        @Override
+        protected void handlePut(HttpExchange exchange) throws IOException {
+            sendResponse(exchange, 405, "Method Not Allowed");
+        }
+
+        @Override
+        protected void handleDelete(HttpExchange exchange) throws IOException {
+            sendResponse(exchange, 405, "Method Not Allowed");
+        }
+    }
+
     // 图书处理器
     static class BookHandler extends BaseHandler {
         @Override
         protected void handleGet(HttpExchange exchange) throws IOException {
+            // 同一查询在图书表未变时结果不变
+            if (notModified(exchange, Table.BOOK)) {
+                return;
+            }
             Map<String, String> params = parseQueryParams(exchange.getRequestURI().getQuery());
 
             BookQueryConditions conditions = new BookQueryConditions();
@@ -337,8 +753,14 @@ public class Main {
                 }
             }
 
-            ApiResult result = library.queryBook(conditions);
-            sendApiResult(exchange, result);
+            if (params.containsKey("limit") && !params.get("limit").isEmpty()) {
+                conditions.setLimit(Integer.parseInt(params.get("limit")));
+            }
+            if (params.containsKey("cursor") && !params.get("cursor").isEmpty()) {
+                conditions.setCursor(params.get("cursor"));
+            }
+
+            sendBookStream(exchange, conditions);
         }
 
         @Override
@@ -395,16 +817,53 @@ public class Main {
         protected void handleGet(HttpExchange exchange) throws IOException {
             String path = exchange.getRequestURI().getPath();
             String cardIdStr = path.substring(path.lastIndexOf('/') + 1);
-            int cardId = Integer.parseInt(cardIdStr);
+            Map<String, String> params = parseQueryParams(exchange.getRequestURI().getQuery());
+
+            BorrowHistoryConditions conditions;
+            try {
+                conditions = new BorrowHistoryConditions(Integer.parseInt(cardIdStr));
+                // 借阅时间范围 [from, to)，单位毫秒
+                if (params.containsKey("from") && !params.get("from").isEmpty()) {
+                    conditions.setFrom(Long.parseLong(params.get("from")));
+                }
+                if (params.containsKey("to") && !params.get("to").isEmpty()) {
+                    conditions.setTo(Long.parseLong(params.get("to")));
+                }
+                if (params.containsKey("limit") && !params.get("limit").isEmpty()) {
+                    conditions.setLimit(Integer.parseInt(params.get("limit")));
+                }
+            } catch (NumberFormatException e) {
+                JSONObject response = new JSONObject();
+                response.put("success", false);
+                response.put("error", "Invalid number: " + e.getMessage());
+                sendResponse(exchange, 400, response.toJSONString());
+                return;
+            }
+            if (params.containsKey("cursor") && !params.get("cursor").isEmpty()) {
+                conditions.setCursor(params.get("cursor"));
+            }
+            conditions.setOnlyActive(Boolean.parseBoolean(params.get("onlyActive")));
 
-            ApiResult result = library.showBorrowHistory(cardId);
+            ApiResult result = library.showBorrowHistory(conditions);
             sendApiResult(exchange, result);
         }
 
         @Override
         protected void handlePost(HttpExchange exchange) throws IOException {
             String requestBody = readRequestBody(exchange);
-            Borrow borrow = JSON.parseObject(requestBody, Borrow.class);
+            JSONObject jsonObject = JSON.parseObject(requestBody);
+            // 带 bookIds 时按批量借书处理：{"cardId", "bookIds": [...], "borrowTime", "allOrNothing"}
+            if (jsonObject.containsKey("bookIds")) {
+                List<Integer> bookIds = parseBookIds(exchange, jsonObject);
+                if (bookIds == null) {
+                    return;
+                }
+                ApiResult result = library.borrowBooks(jsonObject.getIntValue("cardId"), bookIds,
+                        jsonObject.getLongValue("borrowTime"), jsonObject.getBooleanValue("allOrNothing"));
+                sendApiResult(exchange, result);
+                return;
+            }
+            Borrow borrow = jsonObject.to(Borrow.class);
             ApiResult result = library.borrowBook(borrow);
             sendApiResult(exchange, result);
         }
@@ -413,11 +872,36 @@ public class Main {
         protected void handlePut(HttpExchange exchange) throws IOException {
             // 还书操作
             String requestBody = readRequestBody(exchange);
-            Borrow borrow = JSON.parseObject(requestBody, Borrow.class);
+            JSONObject jsonObject = JSON.parseObject(requestBody);
+            // 带 bookIds 时按批量还书处理：{"cardId", "bookIds": [...], "returnTime", "allOrNothing"}
+            if (jsonObject.containsKey("bookIds")) {
+                List<Integer> bookIds = parseBookIds(exchange, jsonObject);
+                if (bookIds == null) {
+                    return;
+                }
+                ApiResult result = library.returnBooks(jsonObject.getIntValue("cardId"), bookIds,
+                        jsonObject.getLongValue("returnTime"), jsonObject.getBooleanValue("allOrNothing"));
+                sendApiResult(exchange, result);
+                return;
+            }
+            Borrow borrow = jsonObject.to(Borrow.class);
             ApiResult result = library.returnBook(borrow);
             sendApiResult(exchange, result);
         }
 
+        /* the bookIds of a batch request, or null after answering 400 */
+        private List<Integer> parseBookIds(HttpExchange exchange, JSONObject jsonObject) throws IOException {
+            try {
+                return jsonObject.getJSONArray("bookIds").toJavaList(Integer.class);
+            } catch (RuntimeException e) {
+                JSONObject response = new JSONObject();
+                response.put("success", false);
+                response.put("error", "Invalid bookIds: " + e.getMessage());
+                sendResponse(exchange, 400, response.toJSONString());
+                return null;
+            }
+        }
+
         @Override
         protected void handleDelete(HttpExchange exchange) throws IOException {
             sendResponse(exchange, 403, "{\"error\":\"Deletion not allowed\"}");
@@ -0,0 +1,84 @@
+package queries;
+
+import java.util.List;
+
+public class BatchResults {
+
+    public static class Item {
+        private int id;             /* the book (or card) the outcome is for */
+        private boolean ok;
+        private String message;
+
+        public Item() {
+        }
+
+        public Item(int id, boolean ok, String message) {
+            this.id = id;
+            this.ok = ok;
+            this.message = message;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public boolean isOk() {
+            return ok;
+        }
+
+        public void setOk(boolean ok) {
+            this.ok = ok;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+    }
+
+    private int succeeded;      /* number of items that were committed */
+    private int failed;         /* number of items that were not */
+    private List<Item> items;   /* one outcome per requested item, in request order */
+
+    public BatchResults(List<Item> items) {
+        this.items = items;
+        for (Item item : items) {
+            if (item.isOk()) {
+                succeeded++;
+            } else {
+                failed++;
+            }
+        }
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public void setSucceeded(int succeeded) {
+        this.succeeded = succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public void setItems(List<Item> items) {
+        this.items = items;
+    }
+}
@@ -28,6 +28,10 @@ public class BookQueryConditions {
     private Book.SortColumn sortBy;
     /* default sort by PK */
     private SortOrder sortOrder;
+    /* max number of books in one page, null means no limit */
+    private Integer limit;
+    /* opaque cursor from BookQueryResults.nextCursor, null means first page */
+    private String cursor;
 
     public BookQueryConditions() {
         this.category = null;
@@ -40,6 +44,8 @@ public class BookQueryConditions {
         this.maxPrice = null;
         sortBy = Book.SortColumn.BOOK_ID;
         sortOrder = SortOrder.ASC;
+        this.limit = null;
+        this.cursor = null;
     }
 
     public String getCategory() {
@@ -121,4 +127,20 @@ public class BookQueryConditions {
     public void setSortOrder(SortOrder sortOrder) {
         this.sortOrder = sortOrder;
     }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
 }
@@ -0,0 +1,153 @@
+package queries;
+
+import entities.Book;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque position in a sorted book listing, used for keyset pagination.
+ *
+ * A cursor remembers the sort key (sortBy column value, bookId) of the last
+ * book on a page, so the next page can seek past it with a WHERE predicate
+ * instead of skipping rows with OFFSET. It is only valid for the sortBy
+ * column and sort order it was created with.
+ */
+public final class BookQueryCursor {
+
+    private final Book.SortColumn sortBy;
+    private final SortOrder sortOrder;
+    /* value of the sortBy column, null when sorting by bookId */
+    private final Object value;
+    private final int bookId;
+
+    private BookQueryCursor(Book.SortColumn sortBy, SortOrder sortOrder, Object value, int bookId) {
+        this.sortBy = sortBy;
+        this.sortOrder = sortOrder;
+        this.value = value;
+        this.bookId = bookId;
+    }
+
+    /**
+     * create a cursor that points right after the given book.
+     */
+    public static BookQueryCursor after(Book last, Book.SortColumn sortBy, SortOrder sortOrder) {
+        return new BookQueryCursor(sortBy, sortOrder, sortValue(last, sortBy), last.getBookId());
+    }
+
+    /**
+     * @return the url-safe string handed out to clients
+     */
+    public String encode() {
+        String raw = sortBy.name() + '\n' + sortOrder.name() + '\n' + bookId + '\n'
+                + (value == null ? "" : value.toString());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * parse a string produced by {@link #encode()}.
+     *
+     * @throws IllegalArgumentException if the string is not a valid cursor
+     */
+    public static BookQueryCursor decode(String token) throws IllegalArgumentException {
+        String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        String[] parts = raw.split("\n", 4);
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("malformed cursor");
+        }
+        Book.SortColumn sortBy = Book.SortColumn.valueOf(parts[0]);
+        SortOrder sortOrder = SortOrder.valueOf(parts[1]);
+        int bookId = Integer.parseInt(parts[2]);
+        Object value;
+        switch (sortBy) {
+            case BOOK_ID:
+                value = null;
+                break;
+            case PUBLISH_YEAR:
+            case STOCK:
+                value = Integer.parseInt(parts[3]);
+                break;
+            case PRICE:
+                value = new BigDecimal(parts[3]);
+                break;
+            default:
+                value = parts[3];
+        }
+        return new BookQueryCursor(sortBy, sortOrder, value, bookId);
+    }
+
+    /**
+     * @return a book that carries only the sort key of this cursor, so that
+     *         it can be compared with in-memory books
+     */
+    public Book probe() {
+        Book book = new Book();
+        book.setBookId(bookId);
+        switch (sortBy) {
+            case CATEGORY:
+                book.setCategory((String) value);
+                break;
+            case TITLE:
+                book.setTitle((String) value);
+                break;
+            case PRESS:
+                book.setPress((String) value);
+                break;
+            case PUBLISH_YEAR:
+                book.setPublishYear((Integer) value);
+                break;
+            case AUTHOR:
+                book.setAuthor((String) value);
+                break;
+            case PRICE:
+                book.setPrice(((BigDecimal) value).doubleValue());
+                break;
+            case STOCK:
+                book.setStock((Integer) value);
+                break;
+            default:
+                break;
+        }
+        return book;
+    }
+
+    private static Object sortValue(Book book, Book.SortColumn sortBy) {
+        switch (sortBy) {
+            case CATEGORY:
+                return book.getCategory();
+            case TITLE:
+                return book.getTitle();
+            case PRESS:
+                return book.getPress();
+            case PUBLISH_YEAR:
+                return book.getPublishYear();
+            case AUTHOR:
+                return book.getAuthor();
+            case PRICE:
+                /* price is stored as decimal(7, 2) */
+                return BigDecimal.valueOf(book.getPrice()).setScale(2, RoundingMode.HALF_UP);
+            case STOCK:
+                return book.getStock();
+            default:
+                return null;
+        }
+    }
+
+    public Book.SortColumn getSortBy() {
+        return sortBy;
+    }
+
+    public SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+}
@@ -8,6 +8,8 @@ public class BookQueryResults {
 
     private int count;   /* number of results, equal to results.size() */
     private List<Book> results;
+    /* cursor of the next page, null if this is the last page */
+    private String nextCursor;
 
     public BookQueryResults(List<Book> results) {
         this.count = results.size();
@@ -29,4 +31,12 @@ public class BookQueryResults {
     public void setResults(List<Book> results) {
         this.results = results;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
@@ -0,0 +1,15 @@
+package queries;
+
+import entities.Book;
+
+import java.io.IOException;
+
+/**
+ * Receives the books of a streamed queryBook one at a time, in result
+ * order, so that the caller never has to hold the whole result.
+ */
+public interface BookSink {
+
+    void accept(Book book) throws IOException;
+
+}
@@ -133,6 +133,8 @@ public class BorrowHistories {
 
     private int count;
     private List<Item> items;
+    /* cursor of the next page, null if this is the last page */
+    private String nextCursor;
 
     public BorrowHistories(List<Item> items) {
         this.count = items.size();
@@ -154,4 +156,12 @@ public class BorrowHistories {
     public void setItems(List<Item> items) {
         this.items = items;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
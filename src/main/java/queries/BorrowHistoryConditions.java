@@ -0,0 +1,77 @@
+package queries;
+
+/**
+ * Note: (1) all set attributes are used as query conditions and
+ *       connected by "AND" operations.
+ *       (2) the time range is half open: from <= borrowTime < to,
+ *       so that consecutive ranges do not overlap.
+ *       (3) records are sorted by borrowTime DESC, bookId ASC.
+ * */
+public class BorrowHistoryConditions {
+    private int cardId;
+    /* earliest borrowTime, inclusive, null means unbounded */
+    private Long from;
+    /* end of the borrowTime range, exclusive, null means unbounded */
+    private Long to;
+    /* only books that have not been returned yet */
+    private boolean onlyActive;
+    /* max number of records in one page, null means no limit */
+    private Integer limit;
+    /* opaque cursor from BorrowHistories.nextCursor, null means first page */
+    private String cursor;
+
+    public BorrowHistoryConditions() {
+    }
+
+    public BorrowHistoryConditions(int cardId) {
+        this.cardId = cardId;
+    }
+
+    public int getCardId() {
+        return cardId;
+    }
+
+    public void setCardId(int cardId) {
+        this.cardId = cardId;
+    }
+
+    public Long getFrom() {
+        return from;
+    }
+
+    public void setFrom(Long from) {
+        this.from = from;
+    }
+
+    public Long getTo() {
+        return to;
+    }
+
+    public void setTo(Long to) {
+        this.to = to;
+    }
+
+    public boolean isOnlyActive() {
+        return onlyActive;
+    }
+
+    public void setOnlyActive(boolean onlyActive) {
+        this.onlyActive = onlyActive;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+}
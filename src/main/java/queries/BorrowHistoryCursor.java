@@ -0,0 +1,60 @@
+package queries;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque position in a card's borrow history, used for keyset pagination.
+ *
+ * The history is sorted by (borrowTime DESC, bookId ASC), which is unique
+ * within a card, so the cursor remembers that key of the last record on a
+ * page and the next page seeks past it instead of skipping rows with
+ * OFFSET.
+ */
+public final class BorrowHistoryCursor {
+
+    private final long borrowTime;
+    private final int bookId;
+
+    private BorrowHistoryCursor(long borrowTime, int bookId) {
+        this.borrowTime = borrowTime;
+        this.bookId = bookId;
+    }
+
+    /**
+     * create a cursor that points right after the given record.
+     */
+    public static BorrowHistoryCursor after(BorrowHistories.Item last) {
+        return new BorrowHistoryCursor(last.getBorrowTime(), last.getBookId());
+    }
+
+    /**
+     * @return the url-safe string handed out to clients
+     */
+    public String encode() {
+        String raw = borrowTime + "\n" + bookId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * parse a string produced by {@link #encode()}.
+     *
+     * @throws IllegalArgumentException if the string is not a valid cursor
+     */
+    public static BorrowHistoryCursor decode(String token) throws IllegalArgumentException {
+        String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        String[] parts = raw.split("\n", 2);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("malformed cursor");
+        }
+        return new BorrowHistoryCursor(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    public long getBorrowTime() {
+        return borrowTime;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+}
@@ -0,0 +1,28 @@
+package queries;
+
+public class StoreBookResults {
+
+    private int inserted;   /* number of books inserted into the library */
+    private int skipped;    /* number of books skipped because they already exist */
+
+    public StoreBookResults(int inserted, int skipped) {
+        this.inserted = inserted;
+        this.skipped = skipped;
+    }
+
+    public int getInserted() {
+        return inserted;
+    }
+
+    public void setInserted(int inserted) {
+        this.inserted = inserted;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(int skipped) {
+        this.skipped = skipped;
+    }
+}
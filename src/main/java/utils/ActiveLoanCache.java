@@ -0,0 +1,128 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-through in-memory copy of the active_loan table: the loans that
+ * have not been returned yet, which are few compared with the borrow
+ * history.
+ *
+ * LibraryManagementSystemImpl updates it right after every commit that
+ * opens or closes a loan and uses it to reject a duplicate borrow, a
+ * return of a book that is not out, and the removal of a book or card
+ * with open loans without a database round trip. The database stays
+ * authoritative: a request the cache lets through is checked there again.
+ */
+public final class ActiveLoanCache {
+
+    /* (cardId, bookId) -> borrowTime */
+    private final Map<Long, Long> loans = new HashMap<>();
+    private final Map<Integer, Integer> loansOfBook = new HashMap<>();
+    private final Map<Integer, Integer> loansOfCard = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded = false;
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void markLoaded() {
+        loaded = true;
+    }
+
+    /**
+     * exclusive lock used while (re)loading the cache, so that concurrent
+     * writers are applied after the load instead of being lost.
+     */
+    public ReentrantReadWriteLock.WriteLock loadLock() {
+        return lock.writeLock();
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            loans.clear();
+            loansOfBook.clear();
+            loansOfCard.clear();
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return loans.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long key(int cardId, int bookId) {
+        return ((long) cardId << 32) | (bookId & 0xffffffffL);
+    }
+
+    public void add(int cardId, int bookId, long borrowTime) {
+        lock.writeLock().lock();
+        try {
+            if (loans.put(key(cardId, bookId), borrowTime) == null) {
+                loansOfBook.merge(bookId, 1, Integer::sum);
+                loansOfCard.merge(cardId, 1, Integer::sum);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int cardId, int bookId) {
+        lock.writeLock().lock();
+        try {
+            if (loans.remove(key(cardId, bookId)) != null) {
+                /* merge removes the entry when the sum reaches 0 */
+                loansOfBook.merge(bookId, -1, (a, b) -> a + b == 0 ? null : a + b);
+                loansOfCard.merge(cardId, -1, (a, b) -> a + b == 0 ? null : a + b);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether the card has the book and has not returned it
+     */
+    public boolean contains(int cardId, int bookId) {
+        lock.readLock().lock();
+        try {
+            return loans.containsKey(key(cardId, bookId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether any card has the book and has not returned it
+     */
+    public boolean isBookOut(int bookId) {
+        lock.readLock().lock();
+        try {
+            return loansOfBook.containsKey(bookId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether the card has a book that it has not returned
+     */
+    public boolean hasLoans(int cardId) {
+        lock.readLock().lock();
+        try {
+            return loansOfCard.containsKey(cardId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
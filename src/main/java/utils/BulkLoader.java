@@ -0,0 +1,172 @@
+package utils;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads generated rows into empty tables with batched inserts, one
+ * transaction per chunk. The rows keep the ids DataGenerator gave them,
+ * so borrows can reference books and cards without any lookup.
+ *
+ * Chunks may be loaded from several threads at once, each on its own
+ * pooled connection. Call {@link #finish()} at the end, so that ids
+ * generated afterwards continue after the loaded ones.
+ */
+public final class BulkLoader implements DataGenerator.Sink {
+
+    private final DatabaseConnector connector;
+    private final DatabaseType type;
+    private final AtomicLong books = new AtomicLong();
+    private final AtomicLong cards = new AtomicLong();
+    private final AtomicLong borrows = new AtomicLong();
+
+    public BulkLoader(DatabaseConnector connector) {
+        this.connector = connector;
+        this.type = connector.getConf().getType();
+    }
+
+    @Override
+    public void books(List<Book> chunk) throws SQLException {
+        String sql = "insert into book (bookId, category, title, press, publishYear, author, price, stock)"
+                + " values (?, ?, ?, ?, ?, ?, ?, ?)";
+        try (Connection conn = connector.getConn()) {
+            identityInsert(conn, "book", true);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (Book book : chunk) {
+                    stmt.setInt(1, book.getBookId());
+                    stmt.setString(2, book.getCategory());
+                    stmt.setString(3, book.getTitle());
+                    stmt.setString(4, book.getPress());
+                    stmt.setInt(5, book.getPublishYear());
+                    stmt.setString(6, book.getAuthor());
+                    stmt.setDouble(7, book.getPrice());
+                    stmt.setInt(8, book.getStock());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            identityInsert(conn, "book", false);
+            conn.commit();
+        }
+        books.addAndGet(chunk.size());
+    }
+
+    @Override
+    public void cards(List<Card> chunk) throws SQLException {
+        String sql = "insert into card (cardId, name, department, type) values (?, ?, ?, ?)";
+        try (Connection conn = connector.getConn()) {
+            identityInsert(conn, "card", true);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (Card card : chunk) {
+                    stmt.setInt(1, card.getCardId());
+                    stmt.setString(2, card.getName());
+                    stmt.setString(3, card.getDepartment());
+                    stmt.setString(4, card.getType().getStr());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            identityInsert(conn, "card", false);
+            conn.commit();
+        }
+        cards.addAndGet(chunk.size());
+    }
+
+    @Override
+    public void borrows(List<Borrow> chunk) throws SQLException {
+        String sql = "insert into borrow (cardId, bookId, borrowTime, returnTime) values (?, ?, ?, ?)";
+        String activeSql = "insert into active_loan (cardId, bookId, borrowTime) values (?, ?, ?)";
+        try (Connection conn = connector.getConn();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             PreparedStatement activeStmt = conn.prepareStatement(activeSql)) {
+            boolean active = false;
+            for (Borrow borrow : chunk) {
+                stmt.setInt(1, borrow.getCardId());
+                stmt.setInt(2, borrow.getBookId());
+                stmt.setLong(3, borrow.getBorrowTime());
+                stmt.setLong(4, borrow.getReturnTime());
+                stmt.addBatch();
+                /* loans that are not returned are also listed in active_loan */
+                if (borrow.getReturnTime() == 0) {
+                    activeStmt.setInt(1, borrow.getCardId());
+                    activeStmt.setInt(2, borrow.getBookId());
+                    activeStmt.setLong(3, borrow.getBorrowTime());
+                    activeStmt.addBatch();
+                    active = true;
+                }
+            }
+            stmt.executeBatch();
+            if (active) {
+                activeStmt.executeBatch();
+            }
+            conn.commit();
+        }
+        borrows.addAndGet(chunk.size());
+    }
+
+    /**
+     * move the id generators of book and card past the loaded ids.
+     */
+    public void finish() throws SQLException {
+        try (Connection conn = connector.getConn();
+             Statement stmt = conn.createStatement()) {
+            for (String table : new String[]{"book", "card"}) {
+                String column = table + "Id";
+                long max;
+                try (ResultSet rs = stmt.executeQuery("select max(" + column + ") from " + table)) {
+                    max = rs.next() ? rs.getLong(1) : 0;
+                }
+                if (max == 0) {
+                    continue;
+                }
+                switch (type) {
+                    case POSTGRES:
+                        try (ResultSet rs = stmt.executeQuery("select setval(pg_get_serial_sequence('" + table
+                                + "', '" + column.toLowerCase() + "'), " + max + ")")) {
+                            rs.next();
+                        }
+                        break;
+                    case H2:
+                        stmt.execute("alter table " + table + " alter column " + column + " restart with " + (max + 1));
+                        break;
+                    case MYSQL:
+                    case SQLSERVER:
+                        /* auto_increment & identity already move past explicitly inserted values */
+                        break;
+                }
+            }
+            conn.commit();
+        }
+    }
+
+    public long getBooks() {
+        return books.get();
+    }
+
+    public long getCards() {
+        return cards.get();
+    }
+
+    public long getBorrows() {
+        return borrows.get();
+    }
+
+    /* SQL Server refuses explicit values for identity columns unless asked to */
+    private void identityInsert(Connection conn, String table, boolean on) throws SQLException {
+        if (type != DatabaseType.SQLSERVER) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("set identity_insert " + table + (on ? " on" : " off"));
+        }
+    }
+}
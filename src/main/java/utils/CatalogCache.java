@@ -0,0 +1,377 @@
+package utils;
+
+import entities.Book;
+import queries.BookQueryConditions;
+import queries.BookQueryCursor;
+import queries.BookQueryResults;
+import queries.BookSink;
+import queries.SortOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Write-through in-memory copy of the book table.
+ *
+ * LibraryManagementSystemImpl updates the cache right after every commit
+ * that changes a book, and answers queryBook from it without touching the
+ * database. Filters follow the semantics of the SQL path (exact category,
+ * substring title/press/author, closed ranges) and rows are ordered by the
+ * {@link Book.SortColumn} comparator with bookId ascending as tie breaker.
+ *
+ * Strings are compared the way the database's default collation does, as
+ * far as case and accents go: with a case-insensitive collation "java"
+ * finds "Java" and sorts next to it. Each cached book keeps its string
+ * columns folded accordingly, so a query only folds its own filters.
+ *
+ * Cached books are never mutated in place: every change swaps in a new
+ * copy under the write lock, so a query always sees a consistent catalog.
+ *
+ * Writers apply their changes after committing, so two changes of one
+ * book can arrive in the opposite order of their commits. Changes that
+ * replace a book's values therefore carry a version, taken while the
+ * database still held the row lock; a change older than the cached one
+ * is dropped. Stock deltas add up in any order and need none.
+ */
+public final class CatalogCache {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private final Map<Integer, Entry> books = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded = false;
+    private final boolean caseInsensitive;
+    private final boolean accentInsensitive;
+
+    /* a cached book and its string columns as the collation compares them */
+    private static final class Entry {
+        final Book book;
+        final String category;
+        final String title;
+        final String press;
+        final String author;
+        final long version;
+
+        Entry(Book book, String category, String title, String press, String author, long version) {
+            this.book = book;
+            this.category = category;
+            this.title = title;
+            this.press = press;
+            this.author = author;
+            this.version = version;
+        }
+
+        /* the same book with a different stock, which is not folded */
+        Entry withBook(Book other) {
+            return new Entry(other, category, title, press, author, version);
+        }
+    }
+
+    /* a case- and accent-sensitive catalog, like PostgreSQL's & H2's defaults */
+    public CatalogCache() {
+        this(false, false);
+    }
+
+    public CatalogCache(boolean caseInsensitive, boolean accentInsensitive) {
+        this.caseInsensitive = caseInsensitive;
+        this.accentInsensitive = accentInsensitive;
+    }
+
+    /* the string as the collation compares it */
+    private String fold(String s) {
+        if (s == null) {
+            return null;
+        }
+        if (accentInsensitive) {
+            s = COMBINING_MARKS.matcher(Normalizer.normalize(s, Normalizer.Form.NFD)).replaceAll("");
+        }
+        return caseInsensitive ? s.toLowerCase(Locale.ROOT) : s;
+    }
+
+    private Entry entry(Book book, long version) {
+        return new Entry(book, fold(book.getCategory()), fold(book.getTitle()),
+                fold(book.getPress()), fold(book.getAuthor()), version);
+    }
+
+    /* store the book unless the cached one is newer */
+    private void replace(Book book, long version) {
+        Entry old = books.get(book.getBookId());
+        if (old == null || old.version <= version) {
+            /* price is stored as decimal(7, 2): keep what the database keeps */
+            book.setPrice(BigDecimal.valueOf(book.getPrice()).setScale(2, RoundingMode.HALF_UP).doubleValue());
+            books.put(book.getBookId(), entry(book, version));
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void markLoaded() {
+        loaded = true;
+    }
+
+    /**
+     * exclusive lock used while (re)loading the cache, so that concurrent
+     * writers are applied after the load instead of being lost.
+     */
+    public ReentrantReadWriteLock.WriteLock loadLock() {
+        return lock.writeLock();
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            books.clear();
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return books.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * insert or replace a book with all of its attributes.
+     *
+     * @param version version of the change, 0 when loading the cache
+     */
+    public void put(Book book, long version) {
+        lock.writeLock().lock();
+        try {
+            replace(book.clone(), version);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void putAll(Collection<Book> newBooks, long version) {
+        lock.writeLock().lock();
+        try {
+            for (Book book : newBooks) {
+                replace(book.clone(), version);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * replace a book's information but keep the cached stock, like
+     * modifyBookInfo does in the database.
+     */
+    public void modify(Book book, long version) {
+        lock.writeLock().lock();
+        try {
+            Entry old = books.get(book.getBookId());
+            if (old != null) {
+                Book b = book.clone();
+                b.setStock(old.book.getStock());
+                replace(b, version);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void adjustStock(int bookId, int deltaStock) {
+        lock.writeLock().lock();
+        try {
+            Entry old = books.get(bookId);
+            if (old != null) {
+                Book b = old.book.clone();
+                b.setStock(old.book.getStock() + deltaStock);
+                books.put(bookId, old.withBook(b));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int bookId) {
+        lock.writeLock().lock();
+        try {
+            books.remove(bookId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * evaluate the conditions against the cached catalog.
+     *
+     * @param cursor decoded conditions.cursor, or null for the first page
+     * @param candidates sorted bookIds that may match the fuzzy predicates,
+     *                   or null to consider every book
+     */
+    public BookQueryResults query(BookQueryConditions conditions, BookQueryCursor cursor, int[] candidates) {
+        List<Entry> matched = select(conditions, cursor, candidates);
+        String nextCursor = trimToLimit(matched, conditions);
+        List<Book> results = new ArrayList<>(matched.size());
+        for (Entry e : matched) {
+            results.add(e.book.clone());
+        }
+        BookQueryResults queryResults = new BookQueryResults(results);
+        queryResults.setNextCursor(nextCursor);
+        return queryResults;
+    }
+
+    /**
+     * like {@link #query(BookQueryConditions, BookQueryCursor, int[])}, but
+     * hands the books to the sink one by one. the read lock is not held
+     * while the sink runs, so a slow client never blocks writers.
+     *
+     * @return count and nextCursor of the query, with an empty results list
+     */
+    public BookQueryResults query(BookQueryConditions conditions, BookQueryCursor cursor, int[] candidates,
+                                  BookSink sink) throws IOException {
+        List<Entry> matched = select(conditions, cursor, candidates);
+        String nextCursor = trimToLimit(matched, conditions);
+        for (Entry e : matched) {
+            sink.accept(e.book.clone());
+        }
+        BookQueryResults summary = new BookQueryResults(new ArrayList<>());
+        summary.setCount(matched.size());
+        summary.setNextCursor(nextCursor);
+        return summary;
+    }
+
+    /* the matching cached books in result order, at most limit + 1 of them */
+    private List<Entry> select(BookQueryConditions conditions, BookQueryCursor cursor, int[] candidates) {
+        Comparator<Entry> order = order(conditions.getSortBy(), conditions.getSortOrder());
+        Entry after = cursor == null ? null : entry(cursor.probe(), 0);
+        Filter filter = new Filter(conditions);
+        Integer limit = conditions.getLimit();
+        List<Entry> matched = new ArrayList<>();
+        /* with a limit keep only the first limit + 1 rows: a max-heap on the order */
+        PriorityQueue<Entry> top = limit == null ? null : new PriorityQueue<>(limit + 1, order.reversed());
+        lock.readLock().lock();
+        try {
+            if (candidates != null) {
+                for (int bookId : candidates) {
+                    Entry e = books.get(bookId);
+                    if (e != null) {
+                        collect(e, filter, order, after, matched, top, limit);
+                    }
+                }
+            } else {
+                for (Entry e : books.values()) {
+                    collect(e, filter, order, after, matched, top, limit);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (top != null) {
+            matched.addAll(top);
+        }
+        matched.sort(order);
+        return matched;
+    }
+
+    /* drop the extra row of a limited query, returns the cursor of the next page */
+    private static String trimToLimit(List<Entry> matched, BookQueryConditions conditions) {
+        Integer limit = conditions.getLimit();
+        if (limit == null || matched.size() <= limit) {
+            return null;
+        }
+        matched.remove(matched.size() - 1);
+        return BookQueryCursor.after(matched.get(matched.size() - 1).book,
+                conditions.getSortBy(), conditions.getSortOrder()).encode();
+    }
+
+    private static void collect(Entry e, Filter filter, Comparator<Entry> order, Entry after,
+                                List<Entry> matched, PriorityQueue<Entry> top, Integer limit) {
+        if (!filter.matches(e) || (after != null && order.compare(e, after) <= 0)) {
+            return;
+        }
+        if (top == null) {
+            matched.add(e);
+        } else {
+            top.add(e);
+            if (top.size() > limit + 1) {
+                top.poll();
+            }
+        }
+    }
+
+    /**
+     * the order of the SQL path: "order by sortBy sortOrder, bookId asc",
+     * with string columns compared as the collation does.
+     */
+    private static Comparator<Entry> order(Book.SortColumn sortBy, SortOrder sortOrder) {
+        Comparator<Entry> cmp;
+        switch (sortBy) {
+            case CATEGORY:
+                cmp = Comparator.comparing(e -> e.category);
+                break;
+            case TITLE:
+                cmp = Comparator.comparing(e -> e.title);
+                break;
+            case PRESS:
+                cmp = Comparator.comparing(e -> e.press);
+                break;
+            case AUTHOR:
+                cmp = Comparator.comparing(e -> e.author);
+                break;
+            default:
+                Comparator<Book> books = sortBy.getComparator();
+                cmp = (a, b) -> books.compare(a.book, b.book);
+        }
+        if (sortOrder == SortOrder.DESC) {
+            cmp = cmp.reversed();
+        }
+        if (sortBy == Book.SortColumn.BOOK_ID) {
+            return cmp;
+        }
+        return cmp.thenComparingInt(e -> e.book.getBookId());
+    }
+
+    /* the conditions of one query, with the string filters folded once */
+    private final class Filter {
+        final BookQueryConditions c;
+        final String category;
+        final String title;
+        final String press;
+        final String author;
+
+        Filter(BookQueryConditions c) {
+            this.c = c;
+            this.category = fold(c.getCategory());
+            this.title = fold(c.getTitle());
+            this.press = fold(c.getPress());
+            this.author = fold(c.getAuthor());
+        }
+
+        boolean matches(Entry e) {
+            Book b = e.book;
+            return (category == null || e.category.equals(category))
+                    && (title == null || e.title.contains(title))
+                    && (press == null || e.press.contains(press))
+                    && (author == null || e.author.contains(author))
+                    && (c.getMinPrice() == null || b.getPrice() >= c.getMinPrice())
+                    && (c.getMaxPrice() == null || b.getPrice() <= c.getMaxPrice())
+                    && (c.getMinPublishYear() == null || b.getPublishYear() >= c.getMinPublishYear())
+                    && (c.getMaxPublishYear() == null || b.getPublishYear() <= c.getMaxPublishYear());
+        }
+    }
+}
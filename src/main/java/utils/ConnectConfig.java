@@ -4,8 +4,11 @@ import org.yaml.snakeyaml.Yaml;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.Map;
 
 public final class ConnectConfig {
@@ -16,15 +19,21 @@ public final class ConnectConfig {
     private final String password;
     private final String db;
     private final DatabaseType type;
+    /* connection pool settings, read from the optional "pool" section */
+    private final int poolMinIdle;
+    private final int poolMaxSize;
+    private final long poolAcquireTimeout;
+    private final long poolIdleTimeout;
+    private final long poolValidationTimeout;
+    /* statement instrumentation, read from the optional "sql" section */
+    private final boolean sqlMonitor;
+    private final long slowQueryMs;
+    /* storage of the embedded database, read from the optional "h2" section */
+    private final boolean h2InMemory;
+    private final String h2Path;
 
     public ConnectConfig() throws FileNotFoundException, NullPointerException, ClassNotFoundException {
-        URL res = ConnectConfig.class.getClassLoader().getResource("application.yaml");
-        if (res == null) {
-            throw new NullPointerException();
-        }
-        BufferedReader br = new BufferedReader(new FileReader(res.getPath()));
-        Yaml yaml = new Yaml();
-        Map<String, Object> objectMap = yaml.load(br);
+        Map<String, Object> objectMap = loadApplicationYaml();
         /* initialize all configures */
         host = (String)objectMap.getOrDefault("host", "localhost");
         port = (String)objectMap.getOrDefault("port", "3306");
@@ -32,10 +41,87 @@ public final class ConnectConfig {
         password = (String)objectMap.getOrDefault("password", "");
         db = (String)objectMap.getOrDefault("db", "library");
         type = DatabaseType.instance((String)objectMap.getOrDefault("type", "mysql"));
+        Map<String, Object> pool = section(objectMap, "pool");
+        poolMinIdle = intValue(pool, "minIdle", 2);
+        poolMaxSize = intValue(pool, "maxSize", 10);
+        poolAcquireTimeout = longValue(pool, "acquireTimeoutMs", 5000L);
+        poolIdleTimeout = longValue(pool, "idleTimeoutMs", 600000L);
+        poolValidationTimeout = longValue(pool, "validationTimeoutMs", 1000L);
+        Map<String, Object> sql = section(objectMap, "sql");
+        sqlMonitor = Boolean.parseBoolean(String.valueOf(sql.getOrDefault("monitor", false)));
+        slowQueryMs = longValue(sql, "slowQueryMs", 200L);
+        Map<String, Object> h2 = section(objectMap, "h2");
+        String storage = String.valueOf(h2.getOrDefault("storage", "mem"));
+        if (!storage.equals("mem") && !storage.equals("file")) {
+            throw new IllegalArgumentException("Invalid h2 storage, expected mem or file: " + storage);
+        }
+        h2InMemory = storage.equals("mem");
+        h2Path = String.valueOf(h2.getOrDefault("path", "./data"));
         /* load database connect driver */
         Class.forName(type.getDriverName());
     }
 
+    private ConnectConfig(ConnectConfig other, int poolMinIdle, int poolMaxSize) {
+        host = other.host;
+        port = other.port;
+        user = other.user;
+        password = other.password;
+        db = other.db;
+        type = other.type;
+        this.poolMinIdle = poolMinIdle;
+        this.poolMaxSize = poolMaxSize;
+        poolAcquireTimeout = other.poolAcquireTimeout;
+        poolIdleTimeout = other.poolIdleTimeout;
+        poolValidationTimeout = other.poolValidationTimeout;
+        sqlMonitor = other.sqlMonitor;
+        slowQueryMs = other.slowQueryMs;
+        h2InMemory = other.h2InMemory;
+        h2Path = other.h2Path;
+    }
+
+    /**
+     * @return a copy of this config with a different pool size, e.g. for
+     *         load tests that need more connections than the server
+     */
+    public ConnectConfig withPoolSize(int minIdle, int maxSize) {
+        return new ConnectConfig(this, minIdle, maxSize);
+    }
+
+    static Map<String, Object> loadApplicationYaml() throws FileNotFoundException, NullPointerException {
+        URL res = ConnectConfig.class.getClassLoader().getResource("application.yaml");
+        if (res == null) {
+            throw new NullPointerException();
+        }
+        /* read through the URL, so that the file may also sit inside a jar */
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(res.openStream(), StandardCharsets.UTF_8))) {
+            Yaml yaml = new Yaml();
+            return yaml.load(br);
+        } catch (IOException e) {
+            FileNotFoundException notFound = new FileNotFoundException(res.toString());
+            notFound.initCause(e);
+            throw notFound;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> section(Map<String, Object> objectMap, String name) {
+        Object value = objectMap.get(name);
+        if (value instanceof Map) {
+            return (Map<String, Object>) value;
+        }
+        return Collections.emptyMap();
+    }
+
+    static int intValue(Map<String, Object> map, String key, int defaultValue) {
+        Object value = map.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.toString());
+    }
+
+    static long longValue(Map<String, Object> map, String key, long defaultValue) {
+        Object value = map.get(key);
+        return value == null ? defaultValue : Long.parseLong(value.toString());
+    }
+
     @Override
     public String toString() {
         return "utils.ConnectConfig: {" + "host='" + host + '\'' +
@@ -44,7 +130,16 @@ public final class ConnectConfig {
                 ", password='" + password + '\'' +
                 ", db='" + db + '\'' +
                 ", type='" + type.toString() + '\'' +
-                '}';
+                ", pool={minIdle=" + poolMinIdle +
+                ", maxSize=" + poolMaxSize +
+                ", acquireTimeoutMs=" + poolAcquireTimeout +
+                ", idleTimeoutMs=" + poolIdleTimeout +
+                ", validationTimeoutMs=" + poolValidationTimeout +
+                "}, sql={monitor=" + sqlMonitor +
+                ", slowQueryMs=" + slowQueryMs +
+                "}, h2={storage=" + (h2InMemory ? "mem" : "file") +
+                ", path='" + h2Path + '\'' +
+                "}}";
     }
 
     public String getHost() {
@@ -70,4 +165,50 @@ public final class ConnectConfig {
     public DatabaseType getType() {
         return type;
     }
+
+    public int getPoolMinIdle() {
+        return poolMinIdle;
+    }
+
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public long getPoolAcquireTimeout() {
+        return poolAcquireTimeout;
+    }
+
+    public long getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    public long getPoolValidationTimeout() {
+        return poolValidationTimeout;
+    }
+
+    public boolean isSqlMonitor() {
+        return sqlMonitor;
+    }
+
+    public long getSlowQueryMs() {
+        return slowQueryMs;
+    }
+
+    public boolean isH2InMemory() {
+        return h2InMemory;
+    }
+
+    public String getH2Path() {
+        return h2Path;
+    }
+
+    /**
+     * @return JDBC URL of the configured database, without driver options
+     */
+    public String url() {
+        if (type == DatabaseType.H2) {
+            return DatabaseType.h2Url(h2InMemory, h2Path, db);
+        }
+        return type.url(host, port, db);
+    }
 }
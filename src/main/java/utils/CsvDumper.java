@@ -0,0 +1,123 @@
+package utils;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes generated rows to book.csv, card.csv and borrow.csv in a
+ * directory, with a header line and the columns in table order, e.g. for
+ *
+ *   MySQL:      load data local infile 'book.csv' into table book fields terminated by ','
+ *               optionally enclosed by '"' ignore 1 lines
+ *   PostgreSQL: \copy book from 'book.csv' csv header
+ *   H2:         insert into book select * from csvread('book.csv')
+ *
+ * Chunks must be handed over in order from one thread, i.e. generate with
+ * ordered = true.
+ */
+public final class CsvDumper implements DataGenerator.Sink, Closeable {
+
+    private final Writer books;
+    private final Writer cards;
+    private final Writer borrows;
+
+    public CsvDumper(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        books = open(dir.resolve("book.csv"), "bookId,category,title,press,publishYear,author,price,stock");
+        cards = open(dir.resolve("card.csv"), "cardId,name,department,type");
+        borrows = open(dir.resolve("borrow.csv"), "cardId,bookId,borrowTime,returnTime");
+    }
+
+    @Override
+    public void books(List<Book> chunk) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        for (Book book : chunk) {
+            line.setLength(0);
+            line.append(book.getBookId()).append(',');
+            quote(line, book.getCategory()).append(',');
+            quote(line, book.getTitle()).append(',');
+            quote(line, book.getPress()).append(',');
+            line.append(book.getPublishYear()).append(',');
+            quote(line, book.getAuthor()).append(',');
+            line.append(BigDecimal.valueOf(book.getPrice()).toPlainString()).append(',');
+            line.append(book.getStock()).append('\n');
+            books.append(line);
+        }
+    }
+
+    @Override
+    public void cards(List<Card> chunk) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        for (Card card : chunk) {
+            line.setLength(0);
+            line.append(card.getCardId()).append(',');
+            quote(line, card.getName()).append(',');
+            quote(line, card.getDepartment()).append(',');
+            line.append(card.getType().getStr()).append('\n');
+            cards.append(line);
+        }
+    }
+
+    @Override
+    public void borrows(List<Borrow> chunk) throws IOException {
+        StringBuilder line = new StringBuilder(48);
+        for (Borrow borrow : chunk) {
+            line.setLength(0);
+            line.append(borrow.getCardId()).append(',')
+                    .append(borrow.getBookId()).append(',')
+                    .append(borrow.getBorrowTime()).append(',')
+                    .append(borrow.getReturnTime()).append('\n');
+            borrows.append(line);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        /* close all three, even if one fails */
+        IOException failure = null;
+        for (Writer writer : new Writer[]{books, cards, borrows}) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static Writer open(Path file, String header) throws IOException {
+        Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16);
+        writer.append(header).append('\n');
+        return writer;
+    }
+
+    /* RFC 4180: enclose in double quotes, double the quotes inside */
+    private static StringBuilder quote(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        return line.append('"');
+    }
+}
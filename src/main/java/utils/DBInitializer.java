@@ -1,12 +1,22 @@
 package utils;
 
+import java.util.List;
+
 public interface DBInitializer {
 
     String sqlDropBook();
     String sqlDropCard();
     String sqlDropBorrow();
+    /* active_loan and borrow_archive themselves are created by migrations */
+    String sqlDropActiveLoan();
+    String sqlDropBorrowArchive();
     String sqlCreateBook();
     String sqlCreateCard();
     String sqlCreateBorrow();
+    /* table of applied migrations, created if it does not exist */
+    String sqlCreateSchemaVersion();
+    String sqlDropSchemaVersion();
+    /* changes on top of the tables above, numbered 1, 2, 3..., see SchemaMigrator */
+    List<Migration> migrations();
 
 }
@@ -0,0 +1,341 @@
+package utils;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seeded, reproducible generator of large data sets: books, cards and
+ * borrow histories.
+ *
+ * Rows are generated in chunks of CHUNK_SIZE. Each chunk has its own
+ * random stream derived from the seed, its kind and its index, so a chunk
+ * is the same no matter which thread generates it or in what order, and
+ * the chunks of a data set can be generated in parallel.
+ *
+ * The data is skewed like a real library's: books and cards are drawn
+ * for a loan with Zipfian popularity, and borrow times follow the
+ * academic calendar, busiest at the start and the end of a semester and
+ * quiet in the breaks. Every generated loan has been returned; loans are
+ * drawn independently, so two loans of the same book by the same card
+ * may overlap in time.
+ *
+ * Ids are assigned up front (books 1..nBooks, cards 1..nCards), so the
+ * data is meant for empty tables, see {@link BulkLoader}.
+ */
+public final class DataGenerator {
+
+    public static final int CHUNK_SIZE = 10000;
+
+    /**
+     * receives the generated chunks: all books first, then all cards, then
+     * all borrows.
+     */
+    public interface Sink {
+        void books(List<Book> books) throws Exception;
+        void cards(List<Card> cards) throws Exception;
+        void borrows(List<Borrow> borrows) throws Exception;
+    }
+
+    private static final int BOOKS = 1;
+    private static final int CARDS = 2;
+    private static final int BORROWS = 3;
+
+    /* campus time, so that the data does not depend on the machine's time zone */
+    private static final ZoneOffset ZONE = ZoneOffset.ofHours(8);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private final long seed;
+    private final int nBooks;
+    private final int nCards;
+    private final long nBorrows;
+    private double bookSkew = 0.6;
+    private double cardSkew = 0.4;
+    private int firstYear = 2018;
+    private int lastYear = 2023;
+    /* built on first use, shared by all threads */
+    private volatile ZipfDistribution bookPopularity;
+    private volatile ZipfDistribution cardActivity;
+
+    public DataGenerator(long seed, int nBooks, int nCards, long nBorrows) {
+        if (nBorrows > 0 && (nBooks <= 0 || nCards <= 0)) {
+            throw new IllegalArgumentException("Borrows need at least one book and one card");
+        }
+        this.seed = seed;
+        this.nBooks = nBooks;
+        this.nCards = nCards;
+        this.nBorrows = nBorrows;
+    }
+
+    /**
+     * @param bookSkew Zipf exponent of book popularity, 0 = uniform
+     */
+    public void setBookSkew(double bookSkew) {
+        this.bookSkew = bookSkew;
+    }
+
+    /**
+     * @param cardSkew Zipf exponent of how active cards are, 0 = uniform
+     */
+    public void setCardSkew(double cardSkew) {
+        this.cardSkew = cardSkew;
+    }
+
+    /**
+     * @param firstYear first academic year of borrow times, starting in September
+     * @param lastYear last academic year
+     */
+    public void setYears(int firstYear, int lastYear) {
+        if (lastYear < firstYear) {
+            throw new IllegalArgumentException("lastYear must not be before firstYear");
+        }
+        this.firstYear = firstYear;
+        this.lastYear = lastYear;
+    }
+
+    public int bookChunks() {
+        return chunks(nBooks);
+    }
+
+    public int cardChunks() {
+        return chunks(nCards);
+    }
+
+    public int borrowChunks() {
+        return chunks(nBorrows);
+    }
+
+    /**
+     * @return the books of a chunk, with their bookId set
+     */
+    public List<Book> books(int chunk) {
+        SplittableRandom random = random(BOOKS, chunk);
+        int first = chunk * CHUNK_SIZE;
+        int end = (int) Math.min(nBooks, (long) first + CHUNK_SIZE);
+        List<Book> books = new ArrayList<>(end - first);
+        for (int i = first; i < end; i++) {
+            /* the serial in the title keeps (category, press, author, title, publishYear) unique */
+            Book book = new Book(pick(random, RandomData.categories),
+                    pick(random, RandomData.titles) + " " + (i + 1),
+                    pick(random, RandomData.press),
+                    1950 + random.nextInt(lastYear - 1950 + 1),
+                    pick(random, RandomData.authors),
+                    Math.round((6.66 + random.nextDouble() * 226.67) * 100) / 100.0,
+                    1 + random.nextInt(20));
+            book.setBookId(i + 1);
+            books.add(book);
+        }
+        return books;
+    }
+
+    /**
+     * @return the cards of a chunk, with their cardId set
+     */
+    public List<Card> cards(int chunk) {
+        SplittableRandom random = random(CARDS, chunk);
+        int first = chunk * CHUNK_SIZE;
+        int end = (int) Math.min(nCards, (long) first + CHUNK_SIZE);
+        List<Card> cards = new ArrayList<>(end - first);
+        for (int i = first; i < end; i++) {
+            /* most cards belong to students */
+            Card.CardType type = random.nextInt(100) < 85 ? Card.CardType.Student : Card.CardType.Teacher;
+            cards.add(new Card(i + 1, String.format("User%07d", i + 1), pick(random, RandomData.departments), type));
+        }
+        return cards;
+    }
+
+    /**
+     * @return the borrows of a chunk, all of them returned
+     */
+    public List<Borrow> borrows(int chunk) {
+        ZipfDistribution books = bookPopularity();
+        ZipfDistribution cards = cardActivity();
+        SplittableRandom random = random(BORROWS, chunk);
+        long first = (long) chunk * CHUNK_SIZE;
+        long end = Math.min(nBorrows, first + CHUNK_SIZE);
+        List<Borrow> borrows = new ArrayList<>((int) (end - first));
+        for (long i = first; i < end; i++) {
+            Borrow borrow = new Borrow(books.sample(random.nextDouble()) + 1, cards.sample(random.nextDouble()) + 1);
+            long borrowTime = borrowTime(random);
+            borrow.setBorrowTime(borrowTime);
+            borrow.setReturnTime(borrowTime + loanMillis(random));
+            borrows.add(borrow);
+        }
+        return borrows;
+    }
+
+    /**
+     * generate everything with the given number of threads and hand the
+     * chunks to the sink.
+     *
+     * @param ordered deliver the chunks of each kind in order, from the
+     *                calling thread. otherwise the generating threads call
+     *                the sink concurrently, as soon as a chunk is ready.
+     */
+    public void generate(Sink sink, int threads, boolean ordered) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "data-generator");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            run(executor, threads, bookChunks(), ordered, c -> books(c), sink::books);
+            run(executor, threads, cardChunks(), ordered, c -> cards(c), sink::cards);
+            run(executor, threads, borrowChunks(), ordered, c -> borrows(c), sink::borrows);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface ChunkSource<T> {
+        List<T> chunk(int index);
+    }
+
+    private interface ChunkConsumer<T> {
+        void accept(List<T> rows) throws Exception;
+    }
+
+    private static <T> void run(ExecutorService executor, int threads, int nChunks, boolean ordered,
+                                ChunkSource<T> source, ChunkConsumer<T> consumer) throws Exception {
+        /* at most two chunks per thread are generated ahead of the sink */
+        int window = Math.max(1, threads) * 2;
+        Deque<Future<List<T>>> pending = new ArrayDeque<>();
+        try {
+            for (int c = 0; c < nChunks; c++) {
+                final int chunk = c;
+                if (pending.size() >= window) {
+                    take(pending, ordered, consumer);
+                }
+                pending.add(executor.submit(() -> {
+                    List<T> rows = source.chunk(chunk);
+                    if (!ordered) {
+                        consumer.accept(rows);
+                    }
+                    return rows;
+                }));
+            }
+            while (!pending.isEmpty()) {
+                take(pending, ordered, consumer);
+            }
+        } finally {
+            for (Future<List<T>> f : pending) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private static <T> void take(Deque<Future<List<T>>> pending, boolean ordered, ChunkConsumer<T> consumer)
+            throws Exception {
+        List<T> rows;
+        try {
+            rows = pending.poll().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+        if (ordered) {
+            consumer.accept(rows);
+        }
+    }
+
+    private ZipfDistribution bookPopularity() {
+        ZipfDistribution z = bookPopularity;
+        if (z == null) {
+            synchronized (this) {
+                if ((z = bookPopularity) == null) {
+                    bookPopularity = z = new ZipfDistribution(nBooks, bookSkew, mix(seed + BOOKS));
+                }
+            }
+        }
+        return z;
+    }
+
+    private ZipfDistribution cardActivity() {
+        ZipfDistribution z = cardActivity;
+        if (z == null) {
+            synchronized (this) {
+                if ((z = cardActivity) == null) {
+                    cardActivity = z = new ZipfDistribution(nCards, cardSkew, mix(seed + CARDS));
+                }
+            }
+        }
+        return z;
+    }
+
+    /*
+     * an academic year runs from September to August. most loans fall in
+     * the two semesters, and within a semester the first four weeks and
+     * the last three (exams) are busier than the rest.
+     */
+    private long borrowTime(SplittableRandom random) {
+        int year = firstYear + random.nextInt(lastYear - firstYear + 1);
+        int p = random.nextInt(100);
+        LocalDate start;
+        LocalDate end;
+        if (p < 46) {
+            start = LocalDate.of(year, 9, 10);
+            end = LocalDate.of(year + 1, 1, 15);
+        } else if (p < 92) {
+            start = LocalDate.of(year + 1, 2, 24);
+            end = LocalDate.of(year + 1, 6, 30);
+        } else if (p < 97) {
+            start = LocalDate.of(year + 1, 7, 1);
+            end = LocalDate.of(year + 1, 9, 9);
+        } else {
+            start = LocalDate.of(year + 1, 1, 16);
+            end = LocalDate.of(year + 1, 2, 23);
+        }
+        long from = start.atStartOfDay(ZONE).toInstant().toEpochMilli();
+        int days = (int) ((end.atStartOfDay(ZONE).toInstant().toEpochMilli() - from) / DAY) + 1;
+        int day;
+        int shape = random.nextInt(100);
+        if (p < 92 && shape < 35) {
+            day = random.nextInt(Math.min(28, days));
+        } else if (p < 92 && shape < 60) {
+            day = days - 1 - random.nextInt(Math.min(21, days));
+        } else {
+            day = random.nextInt(days);
+        }
+        /* opening hours 8:00 - 22:00 */
+        long timeOfDay = TimeUnit.HOURS.toMillis(8) + (long) (random.nextDouble() * TimeUnit.HOURS.toMillis(14));
+        return from + day * DAY + timeOfDay;
+    }
+
+    /* loan length: a day to three months, two weeks on average */
+    private static long loanMillis(SplittableRandom random) {
+        double days = Math.min(90, 1 - Math.log(1 - random.nextDouble()) * 13);
+        return (long) (days * DAY);
+    }
+
+    private SplittableRandom random(int kind, int chunk) {
+        return new SplittableRandom(mix(mix(seed + kind) + chunk));
+    }
+
+    /* finalizer of MurmurHash3, spreads nearby seeds over unrelated streams */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static String pick(SplittableRandom random, List<String> pool) {
+        return pool.get(random.nextInt(pool.size()));
+    }
+
+    private static int chunks(long n) {
+        return (int) ((n + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+}
@@ -1,34 +1,74 @@
 package utils;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.util.DriverDataSource;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
+import java.util.logging.Logger;
 
+/**
+ * Owns a bounded JDBC connection pool for the configured database.
+ *
+ * Every API call checks out its own connection with {@link #getConn()}
+ * and hands it back by closing it, so concurrent transactions no longer
+ * share one socket and one commit/rollback state.
+ */
 public class DatabaseConnector {
 
+    private static final Logger log = Logger.getLogger(DatabaseConnector.class.getName());
+
     private final ConnectConfig conf;
-    private Connection conn;
+    private HikariDataSource dataSource;
+    /* null if sql.monitor is switched off */
+    private final SqlMonitor sqlMonitor;
 
     public DatabaseConnector(ConnectConfig conf) {
         this.conf = conf;
+        this.sqlMonitor = conf.isSqlMonitor() ? new SqlMonitor(conf.getSlowQueryMs()) : null;
     }
 
     public boolean connect() {
-        if (conn != null) {
+        if (dataSource != null) {
             return false;
         }
         try {
             //String url = conf.getType().url(conf.getHost(), conf.getPort(), conf.getDB());
-            String baseUrl = conf.getType().url(conf.getHost(), conf.getPort(), conf.getDB());
-            String url = baseUrl + (baseUrl.contains("?") ? "&" : "?") + "rewriteBatchedStatements=true";
-            System.out.println("JDBC URL: " + url); // 调试用
-
-            conn = DriverManager.getConnection(url, conf.getUser(), conf.getPassword());
-            if (conn != null) {
-                /* Note: you need to connect & release trx explicitly */
-                conn.setAutoCommit(false);
-                return true;
+            String baseUrl = conf.url();
+            String url = baseUrl;
+            if (conf.getType() == DatabaseType.MYSQL) {
+                /* Connector/J options. prepare on the server, so that statements
+                   kept by StatementCache skip parsing & planning. with the local
+                   transaction state, the rollback that ends every call is only
+                   sent when a transaction is actually open */
+                url += (baseUrl.contains("?") ? "&" : "?")
+                        + "rewriteBatchedStatements=true&useServerPrepStmts=true&useLocalTransactionState=true";
+            }
+            log.fine("JDBC URL: " + url);
+
+            HikariConfig hikari = new HikariConfig();
+            if (sqlMonitor != null) {
+                /* the pool hands out instrumented physical connections */
+                hikari.setDataSource(sqlMonitor.wrap(new DriverDataSource(url, conf.getType().getDriverName(),
+                        new Properties(), conf.getUser(), conf.getPassword())));
+            } else {
+                hikari.setJdbcUrl(url);
+                hikari.setDriverClassName(conf.getType().getDriverName());
             }
+            hikari.setUsername(conf.getUser());
+            hikari.setPassword(conf.getPassword());
+            hikari.setPoolName("library-pool");
+            hikari.setMinimumIdle(conf.getPoolMinIdle());
+            hikari.setMaximumPoolSize(conf.getPoolMaxSize());
+            hikari.setConnectionTimeout(conf.getPoolAcquireTimeout());
+            hikari.setIdleTimeout(conf.getPoolIdleTimeout());
+            hikari.setValidationTimeout(conf.getPoolValidationTimeout());
+            /* Note: you need to connect & release trx explicitly */
+            hikari.setAutoCommit(false);
+            dataSource = new HikariDataSource(hikari);
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -36,21 +76,34 @@ public class DatabaseConnector {
     }
 
     public boolean release() {
-        if (conn == null) {
+        if (dataSource == null) {
             return false;
         }
-        try {
-            conn.close();
-            conn = null;
-            return true;
-        } catch (SQLException e) {
-            e.printStackTrace();
+        dataSource.close();
+        dataSource = null;
+        return true;
+    }
+
+    /**
+     * check out a connection from the pool. the connection is validated
+     * before it is handed out and must be closed by the caller, which
+     * returns it to the pool.
+     *
+     * @throws SQLException if the pool is not connected or no connection
+     *         becomes available within the acquire timeout
+     */
+    public Connection getConn() throws SQLException {
+        if (dataSource == null) {
+            throw new SQLException("Database connector is not connected");
         }
-        return false;
+        return dataSource.getConnection();
     }
 
-    public Connection getConn() {
-        return conn;
+    /**
+     * @return timings of the executed statements, or null if not monitored
+     */
+    public SqlMonitor getSqlMonitor() {
+        return sqlMonitor;
     }
 
     public ConnectConfig getConf() {
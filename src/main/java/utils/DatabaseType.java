@@ -1,10 +1,13 @@
 package utils;
 
+import java.io.File;
+
 public enum DatabaseType {
     MYSQL("mysql", "com.mysql.cj.jdbc.Driver", new MysqlInitializer()),
-    // TODO: to be updated
-    POSTGRES("postgresql", "org.postgresql.Driver", new MysqlInitializer()),
-    SQLSERVER("sqlserver", "com.microsoft.sqlserver.jdbc.SQLServerDriver", new SqlServerInitializer());
+    POSTGRES("postgresql", "org.postgresql.Driver", new PostgresInitializer()),
+    SQLSERVER("sqlserver", "com.microsoft.sqlserver.jdbc.SQLServerDriver", new SqlServerInitializer()),
+    /* embedded, in-process database in MySQL compatibility mode, e.g. for tests & benchmarks */
+    H2("h2", "org.h2.Driver", new H2Initializer());
 
     DatabaseType(String typeName, String driverName, DBInitializer dbInitializer) {
         this.typeName = typeName;
@@ -27,10 +30,81 @@ public enum DatabaseType {
             case MYSQL:
             case POSTGRES:
                 return String.format("jdbc:%s://%s:%s/%s", typeName, host, port, db);
+            case H2:
+                return h2Url(true, null, db);
         }
         return null;
     }
 
+    /**
+     * @param inMemory keep the database in this JVM until it exits, instead
+     *                 of in a file
+     * @param dir directory of the database file, unused in memory
+     */
+    public static String h2Url(boolean inMemory, String dir, String db) {
+        if (inMemory) {
+            return String.format("jdbc:h2:mem:%s;MODE=MySQL;DB_CLOSE_DELAY=-1", db);
+        }
+        /* a relative directory is resolved against the working directory */
+        String path = new File(dir, db).getAbsolutePath().replace('\\', '/');
+        return String.format("jdbc:h2:file:%s;MODE=MySQL", path);
+    }
+
+    /**
+     * @return clause appended after "order by" that keeps at most ? rows
+     */
+    public String sqlLimit() {
+        switch (this) {
+            case SQLSERVER:
+                return "offset 0 rows fetch next ? rows only";
+            case MYSQL:
+            case POSTGRES:
+            case H2:
+                return "limit ?";
+        }
+        return null;
+    }
+
+    /**
+     * @return fetch size that makes the driver stream a result set instead
+     *         of reading all of it into memory
+     */
+    public int streamingFetchSize() {
+        switch (this) {
+            case MYSQL:
+                /* Connector/J only streams row by row with this magic value */
+                return Integer.MIN_VALUE;
+            case POSTGRES:
+            case SQLSERVER:
+            case H2:
+                return 1000;
+        }
+        return 0;
+    }
+
+    /**
+     * @return keyword before each row of a "values" table in a derived
+     *         table, which MySQL requires to be "row(...)"
+     */
+    public String sqlValuesRow() {
+        return this == MYSQL ? "row" : "";
+    }
+
+    /**
+     * @return whether the default collation compares strings case-insensitively
+     */
+    public boolean isCaseInsensitive() {
+        return this != POSTGRES && this != H2;
+    }
+
+    /**
+     * @return whether the default collation also ignores accents, as
+     *         MySQL's utf8mb4_0900_ai_ci does
+     */
+    public boolean isAccentInsensitive() {
+        return this == MYSQL;
+    }
+
     public static DatabaseType instance(String typeName) throws IllegalArgumentException {
         for (DatabaseType type : DatabaseType.values()) {
             if (type.typeName.equals(typeName.toLowerCase())) {
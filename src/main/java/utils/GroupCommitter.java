@@ -0,0 +1,236 @@
+package utils;
+
+import queries.ApiResult;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group-commit stage for short write transactions such as borrow & return.
+ *
+ * Callers submit the statements of one transaction and block until it is
+ * done. A single committer thread collects everything that arrives within
+ * a short window (or until the batch is full), runs the requests one after
+ * another in a single transaction, each behind its own savepoint, and
+ * commits once. A request that fails is rolled back to its savepoint
+ * without affecting the others, so every caller still gets its own result
+ * while the database flushes its log once per group instead of once per
+ * request.
+ *
+ * If the group transaction itself fails (e.g. a deadlock with another
+ * transaction), every request of the group is retried in a transaction of
+ * its own.
+ */
+public final class GroupCommitter {
+
+    /**
+     * statements of one request. they must not commit or roll back.
+     */
+    public interface Step {
+        ApiResult apply(Connection conn) throws SQLException;
+    }
+
+    private static final class Request {
+        final Step step;
+        final Runnable onCommit;
+        final CompletableFuture<ApiResult> result = new CompletableFuture<>();
+        ApiResult outcome;
+
+        Request(Step step, Runnable onCommit) {
+            this.step = step;
+            this.onCommit = onCommit;
+        }
+    }
+
+    private final DatabaseConnector connector;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private volatile boolean running = true;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+
+    public GroupCommitter(DatabaseConnector connector, long windowMicros, int maxBatch) {
+        this.connector = connector;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.committer = new Thread(this::run, "group-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * run the step in the next group and wait for its outcome.
+     *
+     * @param onCommit called after the step's changes have been committed,
+     *                 only if the step succeeded
+     */
+    public ApiResult submit(Step step, Runnable onCommit) {
+        if (!running) {
+            return new ApiResult(false, "Group committer is shut down");
+        }
+        Request request = new Request(step, onCommit);
+        queue.add(request);
+        /*
+         * shutdown() may have drained the queue between the check above and
+         * the add, then nobody would ever complete this request. if it is
+         * still queued take it back, otherwise the committer or shutdown()
+         * has it and completes it.
+         */
+        if (!running && queue.remove(request)) {
+            return new ApiResult(false, "Group committer is shut down");
+        }
+        try {
+            return request.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ApiResult(false, "Interrupted while waiting for group commit");
+        } catch (ExecutionException e) {
+            return new ApiResult(false, "Group commit failed: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * stop the committer thread. requests that are still queued fail.
+     */
+    public void shutdown() {
+        running = false;
+        committer.interrupt();
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Request r;
+        while ((r = queue.poll()) != null) {
+            r.result.complete(new ApiResult(false, "Group committer is shut down"));
+        }
+    }
+
+    /* number of requests completed so far */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /* number of transactions committed so far */
+    public long getCommitCount() {
+        return commits.get();
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long wait = deadline - System.nanoTime();
+                    Request r = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (r == null) {
+                        break;
+                    }
+                    batch.add(r);
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty()) {
+                    continue;
+                }
+            }
+            try {
+                if (!commitGroup(batch)) {
+                    for (Request r : batch) {
+                        commitAlone(r);
+                    }
+                }
+            } catch (RuntimeException e) {
+                for (Request r : batch) {
+                    r.result.completeExceptionally(e);
+                }
+            }
+            requests.addAndGet(batch.size());
+            batch.clear();
+        }
+    }
+
+    /* run the whole batch in one transaction. returns false if it was rolled back */
+    private boolean commitGroup(List<Request> batch) {
+        Connection conn = null;
+        try {
+            conn = connector.getConn();
+            for (Request r : batch) {
+                Savepoint sp = conn.setSavepoint();
+                try {
+                    r.outcome = r.step.apply(conn);
+                } catch (SQLException e) {
+                    r.outcome = new ApiResult(false, "Database error: " + e.getMessage());
+                }
+                if (!r.outcome.ok) {
+                    conn.rollback(sp);
+                }
+            }
+            conn.commit();
+            commits.incrementAndGet();
+        } catch (SQLException e) {
+            rollback(conn);
+            return false;
+        } finally {
+            close(conn);
+        }
+        for (Request r : batch) {
+            if (r.outcome.ok && r.onCommit != null) {
+                r.onCommit.run();
+            }
+            r.result.complete(r.outcome);
+        }
+        return true;
+    }
+
+    private void commitAlone(Request r) {
+        Connection conn = null;
+        try {
+            conn = connector.getConn();
+            ApiResult outcome = r.step.apply(conn);
+            if (outcome.ok) {
+                conn.commit();
+                commits.incrementAndGet();
+                if (r.onCommit != null) {
+                    r.onCommit.run();
+                }
+            } else {
+                conn.rollback();
+            }
+            r.result.complete(outcome);
+        } catch (SQLException e) {
+            rollback(conn);
+            r.result.complete(new ApiResult(false, "Database error: " + e.getMessage()));
+        } finally {
+            close(conn);
+        }
+    }
+
+    private static void rollback(Connection conn) {
+        try {
+            if (conn != null) conn.rollback();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void close(Connection conn) {
+        try {
+            if (conn != null) conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-coding of HTTP responses: picks gzip or deflate from the
+ * client's Accept-Encoding and compresses at the configured level,
+ * either a whole body at once or as a stream.
+ *
+ * Bodies below the minimum size are sent as they are, since a few
+ * hundred bytes fit into one packet anyway and the gzip header would eat
+ * most of the savings.
+ */
+public final class HttpCompression {
+
+    public enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+
+        /**
+         * @return the value of Content-Encoding
+         */
+        public String getToken() {
+            return token;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int level;
+    private final int minSize;
+
+    /**
+     * @param level   1 (fastest) to 9 (smallest)
+     * @param minSize bodies smaller than this many bytes are not compressed
+     */
+    public HttpCompression(int level, int minSize) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.level = level;
+        this.minSize = minSize;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding request header, may be null
+     * @return the coding with the highest q-value the client accepts,
+     *         gzip on a tie, or null for identity
+     */
+    public static Encoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip":
+                case "x-gzip":
+                    gzip = q;
+                    break;
+                case "deflate":
+                    deflate = q;
+                    break;
+                case "*":
+                    any = q;
+                    break;
+                default:
+                    break;
+            }
+        }
+        /* codings that are not named are accepted with the q-value of * */
+        if (gzip < 0) {
+            gzip = Math.max(any, 0);
+        }
+        if (deflate < 0) {
+            deflate = Math.max(any, 0);
+        }
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? Encoding.GZIP : Encoding.DEFLATE;
+    }
+
+    /**
+     * compress a whole body.
+     */
+    public byte[] compress(byte[] body, Encoding encoding) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (OutputStream compressed = wrap(out, encoding)) {
+            compressed.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return a stream that compresses into out. closing it finishes the
+     *         compressed data and closes out.
+     */
+    public OutputStream wrap(OutputStream out, Encoding encoding) throws IOException {
+        if (encoding == Encoding.GZIP) {
+            return new GZIPOutputStream(out, BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        /* "deflate" means the zlib format (RFC 1950), which is Deflater's default */
+        Deflater deflater = new Deflater(level);
+        DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+        return new FilterOutputStream(deflate) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                deflate.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    /* a Deflater that is passed in is not ended by the stream */
+                    deflater.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,188 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request metrics of the HTTP server: a latency histogram and status code
+ * counters per route & method, and the number of in-flight requests per
+ * route.
+ *
+ * Routes are registered up front, so that recording a request only looks
+ * up preallocated counters and never allocates. {@link #writePrometheus}
+ * renders everything in the Prometheus text exposition format.
+ */
+public final class HttpMetrics {
+
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "OPTIONS", "OTHER"};
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+    /*
+     * histogram buckets exported to Prometheus: 2^16 ns (~66 us) up to 2^34 ns (~17 s).
+     * a Prometheus bucket counts durations <= le, but the histogram can only
+     * count those < le exactly (a duration of exactly le shares its bucket
+     * with slightly longer ones). so each bucket leaves out durations of
+     * exactly le, which makes it le - 1 ns inclusive.
+     */
+    private static final int MIN_BOUND_SHIFT = 16;
+    private static final int MAX_BOUND_SHIFT = 34;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * counters of one route.
+     */
+    public static final class Route {
+        private final String path;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LatencyHistogram[] latency = new LatencyHistogram[METHODS.length];
+        private final AtomicLongArray[] statuses = new AtomicLongArray[METHODS.length];
+
+        private Route(String path) {
+            this.path = path;
+            for (int i = 0; i < METHODS.length; i++) {
+                latency[i] = new LatencyHistogram();
+                statuses[i] = new AtomicLongArray(MAX_STATUS - MIN_STATUS + 1);
+            }
+        }
+
+        /* call when a request starts, then finish() with its nanoTime */
+        public long begin() {
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        /**
+         * @param method HTTP method of the request
+         * @param status response status, or -1 if none was sent
+         * @param startNanos value returned by begin()
+         */
+        public void finish(String method, int status, long startNanos) {
+            int m = methodIndex(method);
+            latency[m].record(System.nanoTime() - startNanos);
+            if (status >= MIN_STATUS && status <= MAX_STATUS) {
+                statuses[m].incrementAndGet(status - MIN_STATUS);
+            }
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private final Map<String, Route> routes = new HashMap<>();
+    private final Route unknown = new Route("other");
+
+    /**
+     * register a route. must be called before the server starts.
+     */
+    public Route register(String path) {
+        Route route = new Route(path);
+        routes.put(path, route);
+        return route;
+    }
+
+    /**
+     * @return the counters of the path, or a shared "other" route
+     */
+    public Route route(String path) {
+        Route route = routes.get(path);
+        return route == null ? unknown : route;
+    }
+
+    public void writePrometheus(StringBuilder out) {
+        Route[] all = routes.values().toArray(new Route[0]);
+        Arrays.sort(all, (a, b) -> a.path.compareTo(b.path));
+
+        out.append("# HELP library_http_requests_in_flight Requests currently being handled.\n");
+        out.append("# TYPE library_http_requests_in_flight gauge\n");
+        for (Route r : all) {
+            out.append("library_http_requests_in_flight{route=\"").append(r.path).append("\"} ")
+                    .append(r.inFlight.get()).append('\n');
+        }
+
+        out.append("# HELP library_http_responses_total Responses sent, by status code.\n");
+        out.append("# TYPE library_http_responses_total counter\n");
+        for (Route r : withUnknown(all)) {
+            for (int m = 0; m < METHODS.length; m++) {
+                for (int s = 0; s <= MAX_STATUS - MIN_STATUS; s++) {
+                    long n = r.statuses[m].get(s);
+                    if (n > 0) {
+                        labels(out.append("library_http_responses_total"), r, m)
+                                .append(",status=\"").append(s + MIN_STATUS).append("\"} ").append(n).append('\n');
+                    }
+                }
+            }
+        }
+
+        out.append("# HELP library_http_request_duration_seconds Time from receiving a request to finishing its response.\n");
+        out.append("# TYPE library_http_request_duration_seconds histogram\n");
+        for (Route r : withUnknown(all)) {
+            for (int m = 0; m < METHODS.length; m++) {
+                /* one copy per histogram: the buckets, +Inf & _count must agree even while requests finish */
+                LatencyHistogram.Snapshot h = r.latency[m].snapshot();
+                long count = h.getCount();
+                if (count == 0) {
+                    continue;
+                }
+                for (int shift = MIN_BOUND_SHIFT; shift <= MAX_BOUND_SHIFT; shift++) {
+                    labels(out.append("library_http_request_duration_seconds_bucket"), r, m)
+                            .append(",le=\"").append(seconds(1L << shift)).append("\"} ")
+                            .append(h.countBelow(1L << shift)).append('\n');
+                }
+                labels(out.append("library_http_request_duration_seconds_bucket"), r, m)
+                        .append(",le=\"+Inf\"} ").append(count).append('\n');
+                labels(out.append("library_http_request_duration_seconds_sum"), r, m)
+                        .append("} ").append(seconds(r.latency[m].getSumNanos())).append('\n');
+                labels(out.append("library_http_request_duration_seconds_count"), r, m)
+                        .append("} ").append(count).append('\n');
+            }
+        }
+
+        out.append("# HELP library_http_request_duration_quantile_seconds Latency quantiles, accurate to 12.5%.\n");
+        out.append("# TYPE library_http_request_duration_quantile_seconds gauge\n");
+        for (Route r : withUnknown(all)) {
+            for (int m = 0; m < METHODS.length; m++) {
+                LatencyHistogram.Snapshot h = r.latency[m].snapshot();
+                if (h.getCount() == 0) {
+                    continue;
+                }
+                for (double q : QUANTILES) {
+                    labels(out.append("library_http_request_duration_quantile_seconds"), r, m)
+                            .append(",quantile=\"").append(q).append("\"} ")
+                            .append(seconds(h.quantileNanos(q))).append('\n');
+                }
+            }
+        }
+    }
+
+    private Route[] withUnknown(Route[] all) {
+        Route[] result = Arrays.copyOf(all, all.length + 1);
+        result[all.length] = unknown;
+        return result;
+    }
+
+    private static StringBuilder labels(StringBuilder out, Route r, int method) {
+        return out.append("{route=\"").append(r.path).append("\",method=\"").append(METHODS[method]).append('"');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static int methodIndex(String method) {
+        switch (method) {
+            case "GET":
+                return 0;
+            case "POST":
+                return 1;
+            case "PUT":
+                return 2;
+            case "DELETE":
+                return 3;
+            case "OPTIONS":
+                return 4;
+            default:
+                return 5;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, log-bucketed latency histogram in the style of HdrHistogram.
+ *
+ * Every power of two of nanoseconds is split into 2^SUB_BITS linear
+ * sub-buckets, so a recorded value is off by at most 1 / 2^SUB_BITS
+ * (12.5%) and the whole range of a long fits into a fixed array of
+ * counters. Recording is a few bit operations and two atomic adds; it
+ * never allocates and never blocks.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(index(nanos));
+        sumNanos.addAndGet(nanos);
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.get();
+    }
+
+    /**
+     * @param q quantile between 0 and 1
+     * @return upper bound of the bucket holding the quantile, 0 if empty
+     */
+    public long quantileNanos(double q) {
+        return snapshot().quantileNanos(q);
+    }
+
+    /**
+     * copy the bucket counts once, so that several reads of the copy agree
+     * with each other while values are still being recorded.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long n : counts) {
+                total += n;
+            }
+            this.count = total;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return number of values below the given bound. exact when the
+         *         bound is a power of two.
+         */
+        public long countBelow(long nanos) {
+            int end = index(nanos);
+            long total = 0;
+            for (int i = 0; i < end; i++) {
+                total += counts[i];
+            }
+            return total;
+        }
+
+        /**
+         * @param q quantile between 0 and 1
+         * @return upper bound of the bucket holding the quantile, 0 if empty
+         */
+        public long quantileNanos(double q) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + mantissa;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index + 1;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lower = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        long upper = lower + (1L << shift);
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
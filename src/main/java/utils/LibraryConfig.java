@@ -0,0 +1,181 @@
+package utils;
+
+import java.io.FileNotFoundException;
+import java.util.Map;
+
+/**
+ * Optional engine features of LibraryManagementSystemImpl, read from the
+ * "library" section of application.yaml:
+ *
+ *      library:
+ *        searchIndex: false       # narrow fuzzy title/press/author searches with an in-memory n-gram index
+ *        catalogCache: false      # serve queryBook from an in-memory copy of the book table
+ *        activeLoanCache: false   # reject duplicate borrows etc. from an in-memory copy of active_loan
+ *        optimisticBorrow: false  # borrowBook with a conditional decrement instead of select ... for update
+ *        groupCommit: false       # commit concurrent borrows & returns together
+ *        groupCommitWindowMicros: 2000
+ *        groupCommitMaxBatch: 64
+ *        copyThreshold: 500       # postgres: load storeBook(List) batches this large with COPY, 0 = never
+ *        statementCacheSize: 256  # prepared statements kept per connection, 0 = no cache
+ *        archiveAfterDays: 0      # move loans returned this long ago to borrow_archive, 0 = never
+ *        archiveBatchSize: 1000   # loans moved per transaction
+ *        archivePauseMillis: 100  # pause between two batches
+ *
+ * The in-memory copies (searchIndex, catalogCache, activeLoanCache) only
+ * see this process's writes: switch them on only if nothing else writes
+ * the database, e.g. no BulkLoader run and no second server.
+ *
+ * A default-constructed config has every optional feature switched off;
+ * only the COPY bulk load and the statement cache, which change no
+ * semantics, are on by default.
+ */
+public final class LibraryConfig {
+
+    private boolean searchIndex = false;
+    private boolean catalogCache = false;
+    private boolean activeLoanCache = false;
+    private boolean optimisticBorrow = false;
+    private boolean groupCommit = false;
+    /* how long the committer waits for more requests after the first one */
+    private long groupCommitWindowMicros = 2000;
+    private int groupCommitMaxBatch = 64;
+    private int copyThreshold = 500;
+    private int statementCacheSize = 256;
+    private int archiveAfterDays = 0;
+    private int archiveBatchSize = 1000;
+    private long archivePauseMillis = 100;
+
+    public LibraryConfig() {
+    }
+
+    public static LibraryConfig load() throws FileNotFoundException, NullPointerException {
+        Map<String, Object> library = ConnectConfig.section(ConnectConfig.loadApplicationYaml(), "library");
+        LibraryConfig conf = new LibraryConfig();
+        conf.searchIndex = Boolean.parseBoolean(String.valueOf(library.getOrDefault("searchIndex", false)));
+        conf.catalogCache = Boolean.parseBoolean(String.valueOf(library.getOrDefault("catalogCache", false)));
+        conf.activeLoanCache = Boolean.parseBoolean(String.valueOf(library.getOrDefault("activeLoanCache", false)));
+        conf.optimisticBorrow = Boolean.parseBoolean(String.valueOf(library.getOrDefault("optimisticBorrow", false)));
+        conf.groupCommit = Boolean.parseBoolean(String.valueOf(library.getOrDefault("groupCommit", false)));
+        conf.groupCommitWindowMicros = ConnectConfig.longValue(library, "groupCommitWindowMicros", 2000L);
+        conf.groupCommitMaxBatch = ConnectConfig.intValue(library, "groupCommitMaxBatch", 64);
+        conf.copyThreshold = ConnectConfig.intValue(library, "copyThreshold", 500);
+        conf.statementCacheSize = ConnectConfig.intValue(library, "statementCacheSize", 256);
+        conf.archiveAfterDays = ConnectConfig.intValue(library, "archiveAfterDays", 0);
+        conf.archiveBatchSize = ConnectConfig.intValue(library, "archiveBatchSize", 1000);
+        conf.archivePauseMillis = ConnectConfig.longValue(library, "archivePauseMillis", 100L);
+        return conf;
+    }
+
+    @Override
+    public String toString() {
+        return "utils.LibraryConfig: {" + "searchIndex=" + searchIndex +
+                ", catalogCache=" + catalogCache +
+                ", activeLoanCache=" + activeLoanCache +
+                ", optimisticBorrow=" + optimisticBorrow +
+                ", groupCommit=" + groupCommit +
+                ", groupCommitWindowMicros=" + groupCommitWindowMicros +
+                ", groupCommitMaxBatch=" + groupCommitMaxBatch +
+                ", copyThreshold=" + copyThreshold +
+                ", statementCacheSize=" + statementCacheSize +
+                ", archiveAfterDays=" + archiveAfterDays +
+                ", archiveBatchSize=" + archiveBatchSize +
+                ", archivePauseMillis=" + archivePauseMillis +
+                '}';
+    }
+
+    public boolean isSearchIndex() {
+        return searchIndex;
+    }
+
+    public void setSearchIndex(boolean searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    public boolean isCatalogCache() {
+        return catalogCache;
+    }
+
+    public void setCatalogCache(boolean catalogCache) {
+        this.catalogCache = catalogCache;
+    }
+
+    public boolean isActiveLoanCache() {
+        return activeLoanCache;
+    }
+
+    public void setActiveLoanCache(boolean activeLoanCache) {
+        this.activeLoanCache = activeLoanCache;
+    }
+
+    public boolean isOptimisticBorrow() {
+        return optimisticBorrow;
+    }
+
+    public void setOptimisticBorrow(boolean optimisticBorrow) {
+        this.optimisticBorrow = optimisticBorrow;
+    }
+
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    public long getGroupCommitWindowMicros() {
+        return groupCommitWindowMicros;
+    }
+
+    public void setGroupCommitWindowMicros(long groupCommitWindowMicros) {
+        this.groupCommitWindowMicros = groupCommitWindowMicros;
+    }
+
+    public int getGroupCommitMaxBatch() {
+        return groupCommitMaxBatch;
+    }
+
+    public void setGroupCommitMaxBatch(int groupCommitMaxBatch) {
+        this.groupCommitMaxBatch = groupCommitMaxBatch;
+    }
+
+    public int getCopyThreshold() {
+        return copyThreshold;
+    }
+
+    public void setCopyThreshold(int copyThreshold) {
+        this.copyThreshold = copyThreshold;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public int getArchiveAfterDays() {
+        return archiveAfterDays;
+    }
+
+    public void setArchiveAfterDays(int archiveAfterDays) {
+        this.archiveAfterDays = archiveAfterDays;
+    }
+
+    public int getArchiveBatchSize() {
+        return archiveBatchSize;
+    }
+
+    public void setArchiveBatchSize(int archiveBatchSize) {
+        this.archiveBatchSize = archiveBatchSize;
+    }
+
+    public long getArchivePauseMillis() {
+        return archivePauseMillis;
+    }
+
+    public void setArchivePauseMillis(long archivePauseMillis) {
+        this.archivePauseMillis = archivePauseMillis;
+    }
+}
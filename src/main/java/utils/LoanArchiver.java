@@ -0,0 +1,184 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background mover of old loans from borrow into borrow_archive, so that
+ * the borrow table, which every borrow and return touches, holds the open
+ * and recent loans only.
+ *
+ * A loan is moved once it has been returned for longer than the
+ * configured age. Each batch is one transaction that copies up to
+ * batchSize loans, oldest return first, and deletes them from borrow, so a
+ * loan is always in exactly one of the tables. After a full batch the
+ * archiver pauses before the next one, so that it never holds locks for
+ * long or competes with requests at full speed; once nothing is left it
+ * checks again every minute.
+ *
+ * borrow_archive is keyed by the month of borrowTime first (borrowMonth,
+ * yyyymm in UTC), so each month's loans are stored together.
+ */
+public final class LoanArchiver {
+
+    private static final Logger log = Logger.getLogger(LoanArchiver.class.getName());
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final DatabaseConnector connector;
+    private final long ageMillis;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong archived = new AtomicLong();
+
+    /**
+     * @param ageMillis   loans returned longer ago than this are archived
+     * @param batchSize   loans moved per transaction
+     * @param pauseMillis pause after a full batch
+     */
+    public LoanArchiver(DatabaseConnector connector, long ageMillis, int batchSize, long pauseMillis) {
+        this.connector = connector;
+        this.ageMillis = ageMillis;
+        this.batchSize = Math.max(1, batchSize);
+        this.pauseMillis = Math.max(0, pauseMillis);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "loan-archiver");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * start archiving in the background. the first batch runs after one
+     * pause, so that the tables can be created first.
+     */
+    public void start() {
+        schedule(pauseMillis);
+    }
+
+    /**
+     * stop the background thread. a batch that is running is finished.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* number of loans archived so far */
+    public long getArchivedCount() {
+        return archived.get();
+    }
+
+    private void schedule(long delayMillis) {
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::runBatch, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runBatch() {
+        long delay;
+        try {
+            delay = archiveBatch() == batchSize ? pauseMillis : IDLE_MILLIS;
+        } catch (SQLException | RuntimeException e) {
+            log.log(Level.WARNING, "Failed to archive loans, retrying later: " + e.getMessage());
+            delay = IDLE_MILLIS;
+        }
+        schedule(delay);
+    }
+
+    /**
+     * move one batch of loans returned before now - age.
+     *
+     * @return the number of loans moved
+     */
+    public int archiveBatch() throws SQLException {
+        return archiveBatch(System.currentTimeMillis() - ageMillis);
+    }
+
+    /**
+     * move one batch of loans returned before the cutoff.
+     *
+     * @return the number of loans moved
+     */
+    public int archiveBatch(long cutoff) throws SQLException {
+        String selectSql = "select cardId, bookId, borrowTime, returnTime from borrow " +
+                "where returnTime > 0 and returnTime < ? order by returnTime " +
+                connector.getConf().getType().sqlLimit();
+        String insertSql = "insert into borrow_archive (borrowMonth, cardId, bookId, borrowTime, returnTime) " +
+                "values (?, ?, ?, ?, ?)";
+        String deleteSql = "delete from borrow where cardId = ? and bookId = ? and borrowTime = ?";
+        try (Connection conn = connector.getConn()) {
+            try {
+                List<long[]> loans = new ArrayList<>(batchSize);
+                try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+                    stmt.setLong(1, cutoff);
+                    stmt.setInt(2, batchSize);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            loans.add(new long[]{rs.getInt(1), rs.getInt(2), rs.getLong(3), rs.getLong(4)});
+                        }
+                    }
+                }
+                if (loans.isEmpty()) {
+                    conn.rollback();
+                    return 0;
+                }
+                try (PreparedStatement insert = conn.prepareStatement(insertSql);
+                     PreparedStatement delete = conn.prepareStatement(deleteSql)) {
+                    for (long[] loan : loans) {
+                        insert.setInt(1, monthOf(loan[2]));
+                        insert.setInt(2, (int) loan[0]);
+                        insert.setInt(3, (int) loan[1]);
+                        insert.setLong(4, loan[2]);
+                        insert.setLong(5, loan[3]);
+                        insert.addBatch();
+                        delete.setInt(1, (int) loan[0]);
+                        delete.setInt(2, (int) loan[1]);
+                        delete.setLong(3, loan[2]);
+                        delete.addBatch();
+                    }
+                    insert.executeBatch();
+                    /* a loan deleted meanwhile, e.g. by removeCard, must not survive in the archive */
+                    for (int affected : delete.executeBatch()) {
+                        if (affected == 0) {
+                            conn.rollback();
+                            return 0;
+                        }
+                    }
+                }
+                conn.commit();
+                archived.addAndGet(loans.size());
+                return loans.size();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return the month of a borrowTime as yyyymm, in UTC
+     */
+    public static int monthOf(long millis) {
+        ZonedDateTime time = Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC);
+        return time.getYear() * 100 + time.getMonthValue();
+    }
+}
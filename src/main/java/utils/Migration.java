@@ -0,0 +1,42 @@
+package utils;
+
+/**
+ * One change to the schema after the tables were created, see
+ * {@link SchemaMigrator}.
+ */
+public final class Migration {
+
+    private final int version;
+    private final String description;
+    private final String[] statements;
+
+    /**
+     * @param version    the schema version this migration brings the database to
+     * @param statements run in order. each must succeed on a schema that
+     *                   already has its change, e.g. "create index if not
+     *                   exists", because DDL commits implicitly on some
+     *                   databases and a half-applied migration is run again
+     */
+    public Migration(int version, String description, String... statements) {
+        this.version = version;
+        this.description = description;
+        this.statements = statements;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String[] getStatements() {
+        return statements;
+    }
+
+    @Override
+    public String toString() {
+        return version + " (" + description + ")";
+    }
+}
@@ -1,5 +1,10 @@
 package utils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class MysqlInitializer implements DBInitializer {
 
     @Override
@@ -17,6 +22,16 @@ public class MysqlInitializer implements DBInitializer {
         return "drop table if exists `borrow`;";
     }
 
+    @Override
+    public String sqlDropActiveLoan() {
+        return "drop table if exists `active_loan`;";
+    }
+
+    @Override
+    public String sqlDropBorrowArchive() {
+        return "drop table if exists `borrow_archive`;";
+    }
+
     @Override
     public String sqlCreateBook() {
         return "create table `book` (\n" +
@@ -58,4 +73,84 @@ public class MysqlInitializer implements DBInitializer {
                 "  foreign key (`bookId`) references `book`(`bookId`) on delete cascade on update cascade\n" +
                 ") engine=innodb charset=utf8mb4;";
     }
+
+    @Override
+    public String sqlCreateSchemaVersion() {
+        return "create table if not exists `schema_version` (\n" +
+                "  `version` int not null,\n" +
+                "  `description` varchar(255) not null,\n" +
+                "  `installed` bigint not null,\n" +
+                "  primary key (`version`)\n" +
+                ") engine=innodb charset=utf8mb4;";
+    }
+
+    @Override
+    public String sqlDropSchemaVersion() {
+        return "drop table if exists `schema_version`;";
+    }
+
+    private static final List<Migration> MIGRATIONS = Collections.unmodifiableList(Arrays.asList(
+            new Migration(1, "borrow history of a card",
+                    createIndex("borrow", "borrow_card_time", "`cardId`, `borrowTime` desc, `bookId`")),
+            new Migration(2, "active loans of a book",
+                    createIndex("borrow", "borrow_book_active", "`bookId`, `returnTime`")),
+            new Migration(3, "active loans of a card",
+                    createIndex("borrow", "borrow_card_active", "`cardId`, `returnTime`")),
+            /* InnoDB indexes the bookId foreign key by itself */
+            new Migration(4, "table of the loans that are not returned",
+                    "create table if not exists `active_loan` (\n" +
+                            "  `cardId` int not null,\n" +
+                            "  `bookId` int not null,\n" +
+                            "  `borrowTime` bigint not null,\n" +
+                            "  primary key (`cardId`, `bookId`),\n" +
+                            "  foreign key (`cardId`) references `card`(`cardId`) on delete cascade on update cascade,\n" +
+                            "  foreign key (`bookId`) references `book`(`bookId`) on delete cascade on update cascade\n" +
+                            ") engine=innodb charset=utf8mb4;",
+                    "insert into `active_loan` (`cardId`, `bookId`, `borrowTime`)\n" +
+                            "select `cardId`, `bookId`, max(`borrowTime`) from `borrow` b\n" +
+                            "where `returnTime` = 0 and not exists (select 1 from `active_loan` a\n" +
+                            "    where a.`cardId` = b.`cardId` and a.`bookId` = b.`bookId`)\n" +
+                            "group by `cardId`, `bookId`;"),
+            new Migration(5, "archive of old returned loans",
+                    concat(new String[]{"create table if not exists `borrow_archive` (\n" +
+                                    "  `borrowMonth` int not null,\n" +
+                                    "  `cardId` int not null,\n" +
+                                    "  `bookId` int not null,\n" +
+                                    "  `borrowTime` bigint not null,\n" +
+                                    "  `returnTime` bigint not null,\n" +
+                                    "  primary key (`borrowMonth`, `cardId`, `bookId`, `borrowTime`),\n" +
+                                    "  foreign key (`cardId`) references `card`(`cardId`) on delete cascade on update cascade,\n" +
+                                    "  foreign key (`bookId`) references `book`(`bookId`) on delete cascade on update cascade\n" +
+                                    ") engine=innodb charset=utf8mb4;"},
+                            createIndex("borrow_archive", "archive_card_time", "`cardId`, `borrowTime` desc, `bookId`"),
+                            createIndex("borrow", "borrow_return_time", "`returnTime`"))),
+            new Migration(6, "card name index for batch registration",
+                    createIndex("card", "card_name", "`name`"))
+    ));
+
+    @Override
+    public List<Migration> migrations() {
+        return MIGRATIONS;
+    }
+
+    /* MySQL has no "create index if not exists", so look the index up first */
+    private static String[] createIndex(String table, String name, String columns) {
+        return new String[]{
+                "set @ddl = (select if(count(*) = 0, " +
+                        "'create index `" + name + "` on `" + table + "` (" + columns + ")', 'do 0') " +
+                        "from information_schema.statistics " +
+                        "where table_schema = database() and table_name = '" + table + "' and index_name = '" + name + "');",
+                "prepare ddl from @ddl;",
+                "execute ddl;",
+                "deallocate prepare ddl;"
+        };
+    }
+
+    private static String[] concat(String[]... parts) {
+        List<String> all = new ArrayList<>();
+        for (String[] part : parts) {
+            all.addAll(Arrays.asList(part));
+        }
+        return all.toArray(new String[0]);
+    }
 }
@@ -0,0 +1,337 @@
+package utils;
+
+import entities.Book;
+import queries.BookQueryConditions;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over the fuzzy-matched columns of the book table
+ * (title, press, author).
+ *
+ * Every value is normalized (lower case, accents stripped) and split into
+ * trigrams; runs of CJK characters are additionally split into bigrams so
+ * that two-character Chinese/Japanese/Korean queries can be served too.
+ * A "like '%x%'" predicate is then resolved into the sorted set of bookIds
+ * whose value contains every gram of x. That set is a superset of the real
+ * matches, so callers still apply the LIKE predicate, but only to the
+ * candidate rows instead of scanning the whole table.
+ *
+ * The index only sees the writes of this process, so it must be the only
+ * writer of the book table. Writes reach the index after they committed;
+ * like {@link CatalogCache}, a book's values carry the version its writer
+ * took under the row lock, and an older value never replaces a newer one.
+ */
+public final class NgramIndex {
+
+    public enum Field {
+        TITLE, PRESS, AUTHOR
+    }
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    /* marker bit that keeps bigram keys apart from trigram keys */
+    private static final long BIGRAM = 1L << 63;
+
+    /* posting lists per field: gram -> sorted bookIds */
+    private final List<Map<Long, Postings>> fields = new ArrayList<>();
+    /* indexed values per book, needed to unlink its grams on update & remove */
+    private final Map<Integer, String[]> docs = new HashMap<>();
+    /* version of each indexed book's values */
+    private final Map<Integer, Long> versions = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /* posting lists longer than this are not worth intersecting */
+    private final int maxScan;
+    private volatile boolean loaded = false;
+
+    public NgramIndex(int maxScan) {
+        this.maxScan = maxScan;
+        for (int i = 0; i < Field.values().length; i++) {
+            fields.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * @return whether the index has been filled from the database
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * drop everything. the index stays unusable until {@link #markLoaded()}.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            for (Map<Long, Postings> field : fields) {
+                field.clear();
+            }
+            docs.clear();
+            versions.clear();
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void markLoaded() {
+        loaded = true;
+    }
+
+    /**
+     * exclusive lock used while (re)loading the index, so that concurrent
+     * writers are applied after the load instead of being lost.
+     */
+    public ReentrantReadWriteLock.WriteLock loadLock() {
+        return lock.writeLock();
+    }
+
+    /**
+     * index a book, replacing whatever was indexed for its bookId before
+     * unless that is newer.
+     *
+     * @param version version of the change, 0 when loading the index
+     */
+    public void put(Book book, long version) {
+        String[] values = {book.getTitle(), book.getPress(), book.getAuthor()};
+        lock.writeLock().lock();
+        try {
+            Long indexed = versions.get(book.getBookId());
+            if (indexed != null && indexed > version) {
+                return;
+            }
+            versions.put(book.getBookId(), version);
+            String[] old = docs.put(book.getBookId(), values);
+            if (old != null) {
+                unlink(book.getBookId(), old);
+            }
+            for (int i = 0; i < values.length; i++) {
+                Map<Long, Postings> field = fields.get(i);
+                for (long gram : grams(values[i], true)) {
+                    field.computeIfAbsent(gram, k -> new Postings()).add(book.getBookId());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int bookId) {
+        lock.writeLock().lock();
+        try {
+            versions.remove(bookId);
+            String[] old = docs.remove(bookId);
+            if (old != null) {
+                unlink(bookId, old);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * resolve all fuzzy predicates of the conditions into candidate bookIds.
+     *
+     * @return sorted candidate bookIds, or null if the index cannot narrow
+     *         the search (not loaded, no usable fuzzy predicate, or the
+     *         predicates are too unselective)
+     */
+    public int[] candidates(BookQueryConditions conditions) {
+        if (!loaded) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            int[] result = null;
+            String[] patterns = {conditions.getTitle(), conditions.getPress(), conditions.getAuthor()};
+            for (int i = 0; i < patterns.length; i++) {
+                if (patterns[i] == null) {
+                    continue;
+                }
+                int[] ids = lookup(fields.get(i), patterns[i]);
+                if (ids == null) {
+                    continue;
+                }
+                result = result == null ? ids : intersect(result, ids);
+                if (result.length == 0) {
+                    break;
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int[] lookup(Map<Long, Postings> field, String pattern) {
+        /* LIKE wildcards & escapes inside the user input cannot be served by grams */
+        if (pattern.indexOf('%') >= 0 || pattern.indexOf('_') >= 0
+                || pattern.indexOf('[') >= 0 || pattern.indexOf('\\') >= 0) {
+            return null;
+        }
+        Set<Long> grams = grams(pattern, false);
+        if (grams.isEmpty()) {
+            return null;
+        }
+        List<Postings> lists = new ArrayList<>();
+        for (long gram : grams) {
+            Postings p = field.get(gram);
+            if (p == null) {
+                return new int[0];
+            }
+            lists.add(p);
+        }
+        lists.sort(Comparator.comparingInt(p -> p.size));
+        if (lists.get(0).size > maxScan) {
+            return null;
+        }
+        int[] result = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = lists.get(i).retain(result);
+        }
+        return result;
+    }
+
+    private void unlink(int bookId, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            Map<Long, Postings> field = fields.get(i);
+            for (long gram : grams(values[i], true)) {
+                Postings p = field.get(gram);
+                if (p != null && p.remove(bookId) && p.size == 0) {
+                    field.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * split a value into gram keys. when indexing, every trigram and every
+     * CJK bigram is emitted. when querying, trigrams are preferred and CJK
+     * bigrams are only used for two-character queries.
+     */
+    static Set<Long> grams(String value, boolean indexing) {
+        Set<Long> grams = new HashSet<>();
+        if (value == null) {
+            return grams;
+        }
+        int[] cps = normalize(value);
+        for (int i = 0; i + 2 < cps.length; i++) {
+            grams.add(((long) cps[i] << 42) | ((long) cps[i + 1] << 21) | cps[i + 2]);
+        }
+        if (indexing || cps.length == 2) {
+            for (int i = 0; i + 1 < cps.length; i++) {
+                if (isCjk(cps[i]) && isCjk(cps[i + 1])) {
+                    grams.add(BIGRAM | ((long) cps[i] << 21) | cps[i + 1]);
+                }
+            }
+        }
+        return grams;
+    }
+
+    static int[] normalize(String value) {
+        String s = Normalizer.normalize(value, Normalizer.Form.NFD);
+        s = COMBINING_MARKS.matcher(s).replaceAll("");
+        return s.toLowerCase(Locale.ROOT).codePoints().toArray();
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /* sorted, duplicate free list of bookIds */
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        void add(int id) {
+            /* bookIds are auto-increment, so appending is the common case */
+            if (size == 0 || ids[size - 1] < id) {
+                grow();
+                ids[size++] = id;
+                return;
+            }
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            grow();
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+
+        /* keep the candidates that also appear in this list */
+        int[] retain(int[] candidates) {
+            int n = 0;
+            int from = 0;
+            for (int id : candidates) {
+                int pos = Arrays.binarySearch(ids, from, size, id);
+                if (pos >= 0) {
+                    candidates[n++] = id;
+                    from = pos + 1;
+                } else {
+                    from = -pos - 1;
+                }
+            }
+            return Arrays.copyOf(candidates, n);
+        }
+
+        private void grow() {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package utils;
+
+import entities.Book;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Bulk load of books on PostgreSQL & openGauss with COPY FROM STDIN.
+ *
+ * The rows are streamed to the server in text format, a buffer at a time,
+ * instead of being sent as one INSERT per book. COPY cannot return
+ * generated keys, so the bookIds are reserved from the table's sequence
+ * first and written as an explicit column; the books get them back exactly
+ * like from getGeneratedKeys() on the batched insert path.
+ */
+public final class PgBookCopier {
+
+    private static final String COPY_SQL = "copy book (bookId, category, title, press, publishYear, author, price, stock)"
+            + " from stdin";
+    private static final String RESERVE_SQL = "select nextval(pg_get_serial_sequence('book', 'bookid'))"
+            + " from generate_series(1, ?)";
+    /* bytes handed to the driver per writeToCopy call */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private PgBookCopier() {
+    }
+
+    /**
+     * copy the books into the book table within the connection's current
+     * transaction and set their bookIds. the caller commits or rolls back.
+     *
+     * @return number of rows copied
+     */
+    public static long copy(Connection conn, List<Book> books) throws SQLException {
+        if (books.isEmpty()) {
+            return 0;
+        }
+        reserveIds(conn, books);
+        CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+        try {
+            StringBuilder rows = new StringBuilder(BUFFER_SIZE);
+            for (Book book : books) {
+                rows.append(book.getBookId()).append('\t');
+                appendText(rows, book.getCategory()).append('\t');
+                appendText(rows, book.getTitle()).append('\t');
+                appendText(rows, book.getPress()).append('\t');
+                rows.append(book.getPublishYear()).append('\t');
+                appendText(rows, book.getAuthor()).append('\t');
+                rows.append(BigDecimal.valueOf(book.getPrice()).toPlainString()).append('\t');
+                rows.append(book.getStock()).append('\n');
+                if (rows.length() >= BUFFER_SIZE) {
+                    write(copyIn, rows);
+                }
+            }
+            write(copyIn, rows);
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void reserveIds(Connection conn, List<Book> books) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(RESERVE_SQL)) {
+            stmt.setInt(1, books.size());
+            try (ResultSet rs = stmt.executeQuery()) {
+                int index = 0;
+                while (rs.next()) {
+                    books.get(index++).setBookId(rs.getInt(1));
+                }
+                if (index != books.size()) {
+                    throw new SQLException("Reserved " + index + " bookIds for " + books.size() + " books");
+                }
+            }
+        }
+    }
+
+    private static void write(CopyIn copyIn, StringBuilder rows) throws SQLException {
+        if (rows.length() == 0) {
+            return;
+        }
+        byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        rows.setLength(0);
+    }
+
+    /* escape a value for COPY's text format */
+    private static StringBuilder appendText(StringBuilder rows, String value) {
+        if (value == null) {
+            return rows.append("\\N");
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    rows.append("\\\\");
+                    break;
+                case '\t':
+                    rows.append("\\t");
+                    break;
+                case '\n':
+                    rows.append("\\n");
+                    break;
+                case '\r':
+                    rows.append("\\r");
+                    break;
+                default:
+                    rows.append(c);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,140 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Schema for PostgreSQL & openGauss. Identifiers are left unquoted, so the
+ * camelCase column names used by the queries fold to lower case on both
+ * sides.
+ */
+public class PostgresInitializer implements DBInitializer {
+
+    @Override
+    public String sqlDropBook() {
+        return "drop table if exists book;";
+    }
+
+    @Override
+    public String sqlDropCard() {
+        return "drop table if exists card;";
+    }
+
+    @Override
+    public String sqlDropBorrow() {
+        return "drop table if exists borrow;";
+    }
+
+    @Override
+    public String sqlDropActiveLoan() {
+        return "drop table if exists active_loan;";
+    }
+
+    @Override
+    public String sqlDropBorrowArchive() {
+        return "drop table if exists borrow_archive;";
+    }
+
+    @Override
+    public String sqlCreateBook() {
+        return "create table book (\n" +
+                "    bookId serial not null,\n" +
+                "    category varchar(63) not null,\n" +
+                "    title varchar(63) not null,\n" +
+                "    press varchar(63) not null,\n" +
+                "    publishYear int not null,\n" +
+                "    author varchar(63) not null,\n" +
+                "    price decimal(7, 2) not null default 0.00,\n" +
+                "    stock int not null default 0,\n" +
+                "    primary key (bookId),\n" +
+                "    unique (category, press, author, title, publishYear)\n" +
+                ");";
+    }
+
+    @Override
+    public String sqlCreateCard() {
+        return "create table card (\n" +
+                "    cardId serial not null,\n" +
+                "    name varchar(63) not null,\n" +
+                "    department varchar(63) not null,\n" +
+                "    type char(1) not null,\n" +
+                "    primary key (cardId),\n" +
+                "    unique (department, type, name),\n" +
+                "    check ( type in ('T', 'S') )\n" +
+                ");";
+    }
+
+    @Override
+    public String sqlCreateBorrow() {
+        return "create table borrow (\n" +
+                "  cardId int not null,\n" +
+                "  bookId int not null,\n" +
+                "  borrowTime bigint not null,\n" +
+                "  returnTime bigint not null default 0,\n" +
+                "  primary key (cardId, bookId, borrowTime),\n" +
+                "  foreign key (cardId) references card(cardId) on delete cascade on update cascade,\n" +
+                "  foreign key (bookId) references book(bookId) on delete cascade on update cascade\n" +
+                ");";
+    }
+
+    @Override
+    public String sqlCreateSchemaVersion() {
+        return "create table if not exists schema_version (\n" +
+                "  version int not null,\n" +
+                "  description varchar(255) not null,\n" +
+                "  installed bigint not null,\n" +
+                "  primary key (version)\n" +
+                ");";
+    }
+
+    @Override
+    public String sqlDropSchemaVersion() {
+        return "drop table if exists schema_version;";
+    }
+
+    private static final List<Migration> MIGRATIONS = Collections.unmodifiableList(Arrays.asList(
+            new Migration(1, "borrow history of a card",
+                    "create index if not exists borrow_card_time on borrow (cardId, borrowTime desc, bookId);"),
+            new Migration(2, "active loans of a book",
+                    "create index if not exists borrow_book_active on borrow (bookId, returnTime);"),
+            new Migration(3, "active loans of a card",
+                    "create index if not exists borrow_card_active on borrow (cardId, returnTime);"),
+            new Migration(4, "table of the loans that are not returned",
+                    "create table if not exists active_loan (\n" +
+                            "  cardId int not null,\n" +
+                            "  bookId int not null,\n" +
+                            "  borrowTime bigint not null,\n" +
+                            "  primary key (cardId, bookId),\n" +
+                            "  foreign key (cardId) references card(cardId) on delete cascade on update cascade,\n" +
+                            "  foreign key (bookId) references book(bookId) on delete cascade on update cascade\n" +
+                            ");",
+                    "create index if not exists active_loan_book on active_loan (bookId);",
+                    "insert into active_loan (cardId, bookId, borrowTime)\n" +
+                            "select cardId, bookId, max(borrowTime) from borrow b\n" +
+                            "where returnTime = 0 and not exists (select 1 from active_loan a\n" +
+                            "    where a.cardId = b.cardId and a.bookId = b.bookId)\n" +
+                            "group by cardId, bookId;"),
+            new Migration(5, "archive of old returned loans",
+                    "create table if not exists borrow_archive (\n" +
+                            "  borrowMonth int not null,\n" +
+                            "  cardId int not null,\n" +
+                            "  bookId int not null,\n" +
+                            "  borrowTime bigint not null,\n" +
+                            "  returnTime bigint not null,\n" +
+                            "  primary key (borrowMonth, cardId, bookId, borrowTime),\n" +
+                            "  foreign key (cardId) references card(cardId) on delete cascade on update cascade,\n" +
+                            "  foreign key (bookId) references book(bookId) on delete cascade on update cascade\n" +
+                            ");",
+                    "create index if not exists archive_card_time on borrow_archive (cardId, borrowTime desc, bookId);",
+                    "create index if not exists archive_book on borrow_archive (bookId);",
+                    "create index if not exists borrow_return_time on borrow (returnTime);"),
+            new Migration(6, "card name index for batch registration",
+                    "create index if not exists card_name on card (name);")
+    ));
+
+    @Override
+    public List<Migration> migrations() {
+        return MIGRATIONS;
+    }
+}
@@ -1,13 +1,17 @@
 package utils;
 
 import entities.Book;
-import org.apache.commons.lang3.RandomUtils;
 
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Unseeded random test data. Every call draws from the calling thread's
+ * ThreadLocalRandom, so nothing is allocated and concurrent callers do
+ * not contend. For large or reproducible data sets see DataGenerator.
+ */
 public final class RandomData {
 
     public static final List<String> categories = Arrays.asList("Computer Science", "Nature", "Philosophy",
@@ -30,36 +34,36 @@ public final class RandomData {
     }
 
     public static String randomCategory() {
-        return categories.get(new Random().nextInt(categories.size()));
+        return pick(categories);
     }
 
     public static String randomPress() {
-        return press.get(new Random().nextInt(press.size()));
+        return pick(press);
     }
 
     public static String randomAuthor() {
-        return authors.get(new Random().nextInt(authors.size()));
+        return pick(authors);
     }
 
     public static String randomTitle() {
-        return titles.get(new Random().nextInt(titles.size()));
+        return pick(titles);
     }
 
     public static int randomPublishYear() {
-        return RandomUtils.nextInt(2000, 2023);
+        return ThreadLocalRandom.current().nextInt(2000, 2023);
     }
 
     public static double randomPrice() {
-        double v = RandomUtils.nextDouble(0.1, 233.3);
-        return Double.parseDouble(String.format("%.2f", v));
+        double v = ThreadLocalRandom.current().nextDouble(0.1, 233.3);
+        return Math.round(v * 100) / 100.0;
     }
 
     public static int randomStock() {
-        return RandomUtils.nextInt(1, 100);
+        return ThreadLocalRandom.current().nextInt(1, 100);
     }
 
     public static String randomDepartment() {
-        return departments.get(new Random().nextInt(departments.size()));
+        return pick(departments);
     }
 
     private static final Calendar calStart = Calendar.getInstance();
@@ -70,7 +74,11 @@ public final class RandomData {
     }
 
     public static long randomTime() {
-        return RandomUtils.nextLong(calStart.getTimeInMillis(), calEnd.getTimeInMillis());
+        return ThreadLocalRandom.current().nextLong(calStart.getTimeInMillis(), calEnd.getTimeInMillis());
+    }
+
+    private static String pick(List<String> pool) {
+        return pool.get(ThreadLocalRandom.current().nextInt(pool.size()));
     }
 
 }
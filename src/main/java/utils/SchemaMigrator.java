@@ -0,0 +1,92 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Brings an existing database up to the schema of this version of the
+ * library without touching its data, unlike resetDatabase.
+ *
+ * The migrations of a database type are listed by its
+ * {@link DBInitializer}, numbered 1, 2, 3... The schema_version table
+ * records every migration that has been applied, so each one runs once.
+ * A database without that table is at version 0.
+ */
+public final class SchemaMigrator {
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * @return the version the migrations of this database type lead to
+     */
+    public static int latestVersion(DBInitializer initializer) {
+        List<Migration> migrations = initializer.migrations();
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).getVersion();
+    }
+
+    /**
+     * @return the version of the database's schema, 0 if no migration has
+     *         been applied yet
+     */
+    public static int currentVersion(Connection conn, DBInitializer initializer) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(initializer.sqlCreateSchemaVersion());
+            int version;
+            try (ResultSet rs = stmt.executeQuery("select max(version) from schema_version")) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+            conn.commit();
+            return version;
+        }
+    }
+
+    /**
+     * apply all pending migrations.
+     *
+     * @return the number of migrations applied
+     */
+    public static int migrate(Connection conn, DBInitializer initializer) throws SQLException {
+        return migrate(conn, initializer, latestVersion(initializer));
+    }
+
+    /**
+     * apply the pending migrations up to the target version, each in a
+     * transaction of its own together with its schema_version row.
+     *
+     * @return the number of migrations applied
+     * @throws SQLException if a migration fails. it is rolled back as far
+     *                      as the database allows, the ones before it stay
+     */
+    public static int migrate(Connection conn, DBInitializer initializer, int target) throws SQLException {
+        int current = currentVersion(conn, initializer);
+        int applied = 0;
+        for (Migration migration : initializer.migrations()) {
+            if (migration.getVersion() <= current || migration.getVersion() > target) {
+                continue;
+            }
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : migration.getStatements()) {
+                    stmt.execute(sql);
+                }
+                try (PreparedStatement insert = conn.prepareStatement(
+                        "insert into schema_version (version, description, installed) values (?, ?, ?)")) {
+                    insert.setInt(1, migration.getVersion());
+                    insert.setString(2, migration.getDescription());
+                    insert.setLong(3, System.currentTimeMillis());
+                    insert.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new SQLException("Migration " + migration + " failed: " + e.getMessage(), e);
+            }
+            applied++;
+        }
+        return applied;
+    }
+}
@@ -0,0 +1,123 @@
+package utils;
+
+import java.io.FileNotFoundException;
+import java.util.Map;
+
+/**
+ * HTTP server settings, read from the optional "server" section of
+ * application.yaml:
+ *
+ *      server:
+ *        port: 8000
+ *        executor: pool      # single | pool | virtual
+ *        workers: 16         # pool mode only
+ *        queueCapacity: 256  # pool mode only
+ *        etag: true          # conditional GET of /books & /cards
+ *        cacheMaxAge: 0      # seconds clients may reuse them without asking, 0 = always revalidate
+ *        compression: true   # gzip / deflate, as the client's Accept-Encoding allows
+ *        compressionLevel: 6 # 1 (fastest) - 9 (smallest)
+ *        compressionMinSize: 1024  # bytes, smaller bodies are sent as they are
+ */
+public final class ServerConfig {
+
+    public enum ExecutorMode {
+        /* every request runs on the HttpServer dispatcher thread */
+        SINGLE("single"),
+        /* bounded worker pool with a bounded request queue */
+        POOL("pool"),
+        /* one virtual thread per request, needs JDK 21+ */
+        VIRTUAL("virtual");
+
+        private final String value;
+
+        ExecutorMode(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public static ExecutorMode instance(String value) throws IllegalArgumentException {
+            for (ExecutorMode mode : values()) {
+                if (mode.value.equals(value.toLowerCase())) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Invalid server executor mode: " + value);
+        }
+    }
+
+    private final int port;
+    private final ExecutorMode executorMode;
+    private final int workers;
+    private final int queueCapacity;
+    private final boolean etag;
+    private final int cacheMaxAge;
+    private final boolean compression;
+    private final int compressionLevel;
+    private final int compressionMinSize;
+
+    public ServerConfig() throws FileNotFoundException, NullPointerException {
+        Map<String, Object> server = ConnectConfig.section(ConnectConfig.loadApplicationYaml(), "server");
+        port = ConnectConfig.intValue(server, "port", 8000);
+        executorMode = ExecutorMode.instance(String.valueOf(server.getOrDefault("executor", "pool")));
+        workers = ConnectConfig.intValue(server, "workers", Runtime.getRuntime().availableProcessors() * 2);
+        queueCapacity = ConnectConfig.intValue(server, "queueCapacity", 256);
+        etag = Boolean.parseBoolean(String.valueOf(server.getOrDefault("etag", true)));
+        cacheMaxAge = ConnectConfig.intValue(server, "cacheMaxAge", 0);
+        compression = Boolean.parseBoolean(String.valueOf(server.getOrDefault("compression", true)));
+        compressionLevel = ConnectConfig.intValue(server, "compressionLevel", 6);
+        compressionMinSize = ConnectConfig.intValue(server, "compressionMinSize", 1024);
+    }
+
+    @Override
+    public String toString() {
+        return "utils.ServerConfig: {" + "port=" + port +
+                ", executor='" + executorMode.getValue() + '\'' +
+                ", workers=" + workers +
+                ", queueCapacity=" + queueCapacity +
+                ", etag=" + etag +
+                ", cacheMaxAge=" + cacheMaxAge +
+                ", compression=" + compression +
+                ", compressionLevel=" + compressionLevel +
+                ", compressionMinSize=" + compressionMinSize +
+                '}';
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public boolean isEtag() {
+        return etag;
+    }
+
+    public int getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+}
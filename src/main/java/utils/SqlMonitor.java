@@ -0,0 +1,407 @@
+package utils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Instrumentation around the physical JDBC connections of the pool.
+ *
+ * Every statement execution is timed, from the execute call until its
+ * result set is closed (so the time spent fetching rows counts too), and
+ * so is every commit & rollback. Timings are aggregated by normalized SQL:
+ * literals become ?, whitespace is collapsed and IN lists & repeated OR
+ * groups of placeholders are folded, so the many variants of a dynamic
+ * query end up in one entry. Executions slower than the threshold are
+ * written to the "sql.slow" logger together with the number of bind
+ * parameters and rows.
+ */
+public final class SqlMonitor {
+
+    private static final Logger slowLog = Logger.getLogger("sql.slow");
+    /* distinct raw SQL strings whose normalized form is remembered */
+    private static final int MAX_NORMALIZED = 10000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern REPEATED_GROUP = Pattern.compile("(\\([^()]*\\))(?:\\s+or\\s+\\1)+",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * aggregated timings of one normalized statement.
+     */
+    public static final class Stats {
+        private final String sql;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        Stats(String sql) {
+            this.sql = sql;
+        }
+
+        void record(long nanos, long nRows, boolean failed) {
+            latency.record(nanos);
+            rows.addAndGet(Math.max(0, nRows));
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+    }
+
+    private final long slowNanos;
+    private final Map<String, String> normalized = new ConcurrentHashMap<>();
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param slowQueryMs executions at least this slow are logged, negative disables the log
+     */
+    public SqlMonitor(long slowQueryMs) {
+        this.slowNanos = slowQueryMs < 0 ? Long.MAX_VALUE : slowQueryMs * 1000000L;
+    }
+
+    /**
+     * @return a data source whose connections are instrumented
+     */
+    public DataSource wrap(DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(SqlMonitor.class.getClassLoader(),
+                new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+                    Object result = invoke(dataSource, method, args);
+                    return result instanceof Connection ? wrap((Connection) result) : result;
+                });
+    }
+
+    public Connection wrap(Connection conn) {
+        return proxy(Connection.class, new ConnectionHandler(conn));
+    }
+
+    /**
+     * @return a snapshot of the aggregated statements
+     */
+    public List<Stats> getStats() {
+        return new ArrayList<>(stats.values());
+    }
+
+    public void writePrometheus(StringBuilder out) {
+        List<Stats> all = getStats();
+        all.sort((a, b) -> a.sql.compareTo(b.sql));
+        out.append("# HELP library_sql_duration_seconds Statement execution time including fetching, by normalized SQL.\n");
+        out.append("# TYPE library_sql_duration_seconds summary\n");
+        for (Stats s : all) {
+            for (double q : new double[]{0.5, 0.99}) {
+                label(out.append("library_sql_duration_seconds"), s).append(",quantile=\"").append(q)
+                        .append("\"} ").append(s.latency.quantileNanos(q) / 1e9).append('\n');
+            }
+            label(out.append("library_sql_duration_seconds_sum"), s).append("} ")
+                    .append(s.latency.getSumNanos() / 1e9).append('\n');
+            label(out.append("library_sql_duration_seconds_count"), s).append("} ")
+                    .append(s.latency.getCount()).append('\n');
+        }
+        out.append("# HELP library_sql_duration_max_seconds Slowest execution, by normalized SQL.\n");
+        out.append("# TYPE library_sql_duration_max_seconds gauge\n");
+        for (Stats s : all) {
+            label(out.append("library_sql_duration_max_seconds"), s).append("} ")
+                    .append(s.getMaxNanos() / 1e9).append('\n');
+        }
+        out.append("# HELP library_sql_rows_total Rows returned or changed, by normalized SQL.\n");
+        out.append("# TYPE library_sql_rows_total counter\n");
+        for (Stats s : all) {
+            label(out.append("library_sql_rows_total"), s).append("} ").append(s.getRows()).append('\n');
+        }
+        out.append("# HELP library_sql_errors_total Executions that threw, by normalized SQL.\n");
+        out.append("# TYPE library_sql_errors_total counter\n");
+        for (Stats s : all) {
+            label(out.append("library_sql_errors_total"), s).append("} ").append(s.getErrors()).append('\n');
+        }
+    }
+
+    private static StringBuilder label(StringBuilder out, Stats s) {
+        out.append("{sql=\"");
+        for (int i = 0; i < s.sql.length(); i++) {
+            char c = s.sql.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+        return out.append('"');
+    }
+
+    /**
+     * the form statements are aggregated by.
+     */
+    public static String normalize(String sql) {
+        String s = STRING_LITERAL.matcher(sql).replaceAll("?");
+        s = NUMBER_LITERAL.matcher(s).replaceAll("?");
+        s = WHITESPACE.matcher(s).replaceAll(" ").trim();
+        s = PLACEHOLDER_LIST.matcher(s).replaceAll("(?, ...)");
+        s = REPEATED_GROUP.matcher(s).replaceAll("$1 or ...");
+        return s;
+    }
+
+    private void record(String sql, long nanos, int nParams, long nRows, boolean failed) {
+        String key = normalized.get(sql);
+        if (key == null) {
+            key = normalize(sql);
+            if (normalized.size() < MAX_NORMALIZED) {
+                normalized.put(sql, key);
+            }
+        }
+        stats.computeIfAbsent(key, Stats::new).record(nanos, nRows, failed);
+        if (nanos >= slowNanos) {
+            slowLog.warning(String.format("slow sql: %.1f ms, %d params, %d rows%s: %s",
+                    nanos / 1e6, nParams, nRows, failed ? ", failed" : "", key));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(SqlMonitor.class.getClassLoader(), new Class<?>[]{iface}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* unwrap & isWrapperFor see the proxy first, so drivers' own interfaces stay reachable */
+    private static Object unwrap(Object proxy, Object target, Method method, Object[] args) throws Throwable {
+        Class<?> iface = (Class<?>) args[0];
+        if (method.getName().equals("unwrap")) {
+            return iface.isInstance(proxy) ? proxy : invoke(target, method, args);
+        }
+        return iface.isInstance(proxy) || (Boolean) invoke(target, method, args);
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection conn;
+
+        ConnectionHandler(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return SqlMonitor.proxy(PreparedStatement.class,
+                            new StatementHandler((Statement) SqlMonitor.invoke(conn, method, args), (String) args[0]));
+                case "prepareCall":
+                    return SqlMonitor.proxy(CallableStatement.class,
+                            new StatementHandler((Statement) SqlMonitor.invoke(conn, method, args), (String) args[0]));
+                case "createStatement":
+                    return SqlMonitor.proxy(Statement.class,
+                            new StatementHandler((Statement) SqlMonitor.invoke(conn, method, args), null));
+                case "commit":
+                case "rollback":
+                    if (args == null) {
+                        return timed(method.getName().toUpperCase(), () -> SqlMonitor.invoke(conn, method, null));
+                    }
+                    return SqlMonitor.invoke(conn, method, args);
+                case "unwrap":
+                case "isWrapperFor":
+                    return SqlMonitor.unwrap(proxy, conn, method, args);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return SqlMonitor.invoke(conn, method, args);
+            }
+        }
+    }
+
+    private interface Call {
+        Object call() throws Throwable;
+    }
+
+    private Object timed(String sql, Call call) throws Throwable {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Object result = call.call();
+            failed = false;
+            return result;
+        } finally {
+            record(sql, System.nanoTime() - start, 0, 0, failed);
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement stmt;
+        /* SQL of a prepared statement, null for a plain statement */
+        private final String preparedSql;
+        private int nParams;
+        private int nBatched;
+        /* an executed query whose result set is still open */
+        private String pendingSql;
+        private long pendingStart;
+        private long pendingRows;
+
+        StatementHandler(Statement stmt, String preparedSql) {
+            this.stmt = stmt;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(method, args);
+            }
+            switch (name) {
+                case "addBatch":
+                    nBatched++;
+                    return SqlMonitor.invoke(stmt, method, args);
+                case "clearBatch":
+                    nBatched = 0;
+                    return SqlMonitor.invoke(stmt, method, args);
+                case "clearParameters":
+                    nParams = 0;
+                    return SqlMonitor.invoke(stmt, method, args);
+                case "close":
+                    finishPending();
+                    return SqlMonitor.invoke(stmt, method, args);
+                case "unwrap":
+                case "isWrapperFor":
+                    return SqlMonitor.unwrap(proxy, stmt, method, args);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    /* setString(int, ...), setObject(int, ...), ...: remember the highest index */
+                    if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                        nParams = Math.max(nParams, (Integer) args[0]);
+                    }
+                    return SqlMonitor.invoke(stmt, method, args);
+            }
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            finishPending();
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+            if (sql == null) {
+                sql = "batch";
+            }
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = SqlMonitor.invoke(stmt, method, args);
+            } catch (Throwable e) {
+                record(sql, System.nanoTime() - start, nParams, 0, true);
+                nBatched = 0;
+                throw e;
+            }
+            if (result instanceof ResultSet) {
+                /* finished when the rows have been read */
+                pendingSql = sql;
+                pendingStart = start;
+                pendingRows = 0;
+                return SqlMonitor.proxy(ResultSet.class, new ResultSetHandler((ResultSet) result, this));
+            }
+            long rows;
+            if (result instanceof int[]) {
+                rows = 0;
+                for (int n : (int[]) result) {
+                    rows += Math.max(0, n);
+                }
+            } else if (result instanceof Number) {
+                rows = ((Number) result).longValue();
+            } else {
+                rows = Math.max(0, stmt.getUpdateCount());
+            }
+            nBatched = 0;
+            record(sql, System.nanoTime() - start, nParams, rows, false);
+            return result;
+        }
+
+        void finishPending() {
+            if (pendingSql != null) {
+                record(pendingSql, System.nanoTime() - pendingStart, nParams, pendingRows, false);
+                pendingSql = null;
+            }
+        }
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet rs;
+        private final StatementHandler owner;
+
+        ResultSetHandler(ResultSet rs, StatementHandler owner) {
+            this.rs = rs;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next":
+                    Object hasRow = SqlMonitor.invoke(rs, method, args);
+                    if ((Boolean) hasRow) {
+                        owner.pendingRows++;
+                    }
+                    return hasRow;
+                case "close":
+                    try {
+                        return SqlMonitor.invoke(rs, method, args);
+                    } finally {
+                        owner.finishPending();
+                    }
+                case "unwrap":
+                case "isWrapperFor":
+                    return SqlMonitor.unwrap(proxy, rs, method, args);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return SqlMonitor.invoke(rs, method, args);
+            }
+        }
+    }
+}
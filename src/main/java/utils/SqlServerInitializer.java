@@ -1,5 +1,9 @@
 package utils;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class SqlServerInitializer implements DBInitializer {
 
     @Override
@@ -17,6 +21,16 @@ public class SqlServerInitializer implements DBInitializer {
         return "IF OBJECT_ID('dbo.borrow', 'U') IS NOT NULL DROP TABLE dbo.borrow;";
     }
 
+    @Override
+    public String sqlDropActiveLoan() {
+        return "IF OBJECT_ID('dbo.active_loan', 'U') IS NOT NULL DROP TABLE dbo.active_loan;";
+    }
+
+    @Override
+    public String sqlDropBorrowArchive() {
+        return "IF OBJECT_ID('dbo.borrow_archive', 'U') IS NOT NULL DROP TABLE dbo.borrow_archive;";
+    }
+
     @Override
     public String sqlCreateBook() {
         return "create table book (\n" +
@@ -58,4 +72,70 @@ public class SqlServerInitializer implements DBInitializer {
                 "    foreign key (book_id) references book(book_id) on delete cascade on update cascade\n" +
                 ");";
     }
+
+    @Override
+    public String sqlCreateSchemaVersion() {
+        return "IF OBJECT_ID('dbo.schema_version', 'U') IS NULL create table schema_version (\n" +
+                "    version int not null,\n" +
+                "    description varchar(255) not null,\n" +
+                "    installed bigint not null,\n" +
+                "    primary key (version)\n" +
+                ");";
+    }
+
+    @Override
+    public String sqlDropSchemaVersion() {
+        return "IF OBJECT_ID('dbo.schema_version', 'U') IS NOT NULL DROP TABLE dbo.schema_version;";
+    }
+
+    private static final List<Migration> MIGRATIONS = Collections.unmodifiableList(Arrays.asList(
+            new Migration(1, "borrow history of a card",
+                    createIndex("borrow", "borrow_card_time", "card_id, borrow_time desc, book_id")),
+            new Migration(2, "active loans of a book",
+                    createIndex("borrow", "borrow_book_active", "book_id, return_time")),
+            new Migration(3, "active loans of a card",
+                    createIndex("borrow", "borrow_card_active", "card_id, return_time")),
+            new Migration(4, "table of the loans that are not returned",
+                    "IF OBJECT_ID('dbo.active_loan', 'U') IS NULL create table active_loan (\n" +
+                            "    card_id int not null,\n" +
+                            "    book_id int not null,\n" +
+                            "    borrow_time bigint not null,\n" +
+                            "    primary key (card_id, book_id),\n" +
+                            "    foreign key (card_id) references card(card_id) on delete cascade on update cascade,\n" +
+                            "    foreign key (book_id) references book(book_id) on delete cascade on update cascade\n" +
+                            ");",
+                    createIndex("active_loan", "active_loan_book", "book_id"),
+                    "insert into active_loan (card_id, book_id, borrow_time)\n" +
+                            "select card_id, book_id, max(borrow_time) from borrow b\n" +
+                            "where return_time = 0 and not exists (select 1 from active_loan a\n" +
+                            "    where a.card_id = b.card_id and a.book_id = b.book_id)\n" +
+                            "group by card_id, book_id;"),
+            new Migration(5, "archive of old returned loans",
+                    "IF OBJECT_ID('dbo.borrow_archive', 'U') IS NULL create table borrow_archive (\n" +
+                            "    borrow_month int not null,\n" +
+                            "    card_id int not null,\n" +
+                            "    book_id int not null,\n" +
+                            "    borrow_time bigint not null,\n" +
+                            "    return_time bigint not null,\n" +
+                            "    primary key (borrow_month, card_id, book_id, borrow_time),\n" +
+                            "    foreign key (card_id) references card(card_id) on delete cascade on update cascade,\n" +
+                            "    foreign key (book_id) references book(book_id) on delete cascade on update cascade\n" +
+                            ");",
+                    createIndex("borrow_archive", "archive_card_time", "card_id, borrow_time desc, book_id"),
+                    createIndex("borrow_archive", "archive_book", "book_id"),
+                    createIndex("borrow", "borrow_return_time", "return_time")),
+            new Migration(6, "card name index for batch registration",
+                    createIndex("card", "card_name", "name"))
+    ));
+
+    @Override
+    public List<Migration> migrations() {
+        return MIGRATIONS;
+    }
+
+    private static String createIndex(String table, String name, String columns) {
+        return "IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = '" + name + "' " +
+                "AND object_id = OBJECT_ID('dbo." + table + "')) " +
+                "create index " + name + " on " + table + " (" + columns + ");";
+    }
 }
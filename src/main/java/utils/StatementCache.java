@@ -0,0 +1,230 @@
+package utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Per-connection cache of prepared statements.
+ *
+ * Statements are prepared on the physical connection behind the pooled
+ * one, so they survive the connection being handed back to the pool and
+ * the driver & server do not have to parse and plan the same SQL again
+ * on the next checkout. Each physical connection keeps its own LRU map,
+ * which is only ever used by the thread that has the connection checked
+ * out.
+ *
+ * The statements handed out are wrappers: closing one clears its
+ * parameters and returns it to the cache, so callers keep using
+ * try-with-resources exactly as with an uncached statement. If the same
+ * key is requested again while its statement is still open, a plain
+ * uncached statement is prepared instead.
+ *
+ * Since the pool does not see these statements, it does not know that a
+ * connection ran any and will not roll back an open transaction when the
+ * connection is handed back; the caller has to end every transaction,
+ * including read-only ones.
+ */
+public final class StatementCache {
+
+    private final int capacity;
+    /* physical connection -> its statements. guarded by itself */
+    private final Map<Connection, PerConnection> connections = new IdentityHashMap<>();
+    /* bumped by clear(), every connection drops its statements when it sees a new value */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity statements kept per connection, 0 disables caching
+     */
+    public StatementCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * prepare the SQL, which is also its cache key.
+     */
+    public PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        return prepare(conn, sql, () -> sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement prepare(Connection conn, String sql, int autoGeneratedKeys) throws SQLException {
+        return prepare(conn, autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "keys:" + sql : sql,
+                () -> sql, autoGeneratedKeys);
+    }
+
+    /**
+     * prepare a statement whose SQL is built dynamically. the SQL is only
+     * built on a miss, so the key must identify it completely.
+     */
+    public PreparedStatement prepare(Connection conn, Object key, Supplier<String> sql) throws SQLException {
+        return prepare(conn, key, sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * close every cached statement, e.g. after the schema was recreated.
+     * connections drop their statements the next time they are used.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private PreparedStatement prepare(Connection conn, Object key, Supplier<String> sql, int autoGeneratedKeys)
+            throws SQLException {
+        if (capacity <= 0) {
+            misses.incrementAndGet();
+            return conn.prepareStatement(sql.get(), autoGeneratedKeys);
+        }
+        Connection physical = conn.unwrap(Connection.class);
+        PerConnection cache = cacheOf(physical);
+        Cached entry = cache.statements.get(key);
+        if (entry != null && entry.stmt.isClosed()) {
+            cache.statements.remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            if (entry.inUse) {
+                misses.incrementAndGet();
+                return conn.prepareStatement(sql.get(), autoGeneratedKeys);
+            }
+            hits.incrementAndGet();
+            entry.inUse = true;
+            return entry.proxy;
+        }
+        misses.incrementAndGet();
+        entry = new Cached(physical.prepareStatement(sql.get(), autoGeneratedKeys));
+        entry.inUse = true;
+        cache.statements.put(key, entry);
+        return entry.proxy;
+    }
+
+    private PerConnection cacheOf(Connection physical) throws SQLException {
+        PerConnection cache;
+        synchronized (connections) {
+            cache = connections.get(physical);
+            if (cache == null) {
+                /* forget connections the pool has closed since */
+                Iterator<Map.Entry<Connection, PerConnection>> it = connections.entrySet().iterator();
+                while (it.hasNext()) {
+                    if (it.next().getKey().isClosed()) {
+                        it.remove();
+                    }
+                }
+                cache = new PerConnection(generation.get());
+                connections.put(physical, cache);
+            }
+        }
+        int current = generation.get();
+        if (cache.generation != current) {
+            cache.closeAll();
+            cache.generation = current;
+        }
+        return cache;
+    }
+
+    private final class PerConnection {
+        final LinkedHashMap<Object, Cached> statements = new LinkedHashMap<Object, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Cached> eldest) {
+                if (size() <= capacity || eldest.getValue().inUse) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue().stmt);
+                return true;
+            }
+        };
+        int generation;
+
+        PerConnection(int generation) {
+            this.generation = generation;
+        }
+
+        void closeAll() {
+            List<Object> idle = new ArrayList<>();
+            for (Map.Entry<Object, Cached> e : statements.entrySet()) {
+                if (e.getValue().inUse) {
+                    e.getValue().evicted = true;
+                } else {
+                    closeQuietly(e.getValue().stmt);
+                    idle.add(e.getKey());
+                }
+            }
+            statements.keySet().removeAll(idle);
+        }
+    }
+
+    private static final class Cached implements InvocationHandler {
+        final PreparedStatement stmt;
+        final PreparedStatement proxy;
+        boolean inUse;
+        /* closed for real when it is handed back */
+        boolean evicted;
+
+        Cached(PreparedStatement stmt) {
+            this.stmt = stmt;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (inUse) {
+                        inUse = false;
+                        if (evicted) {
+                            stmt.close();
+                        } else {
+                            stmt.clearParameters();
+                            stmt.clearBatch();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || stmt.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    try {
+                        return method.invoke(stmt, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+
+    private static void closeQuietly(Statement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
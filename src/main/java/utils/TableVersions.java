@@ -0,0 +1,59 @@
+package utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Change counters of the book, card and borrow tables, for conditional
+ * GETs. The library bumps a table's counter after every committed write
+ * to it, so a response is current as long as the counters it was built
+ * from have not moved.
+ *
+ * Read the counters before the data: a write that commits in between
+ * then only makes the tag older than the data, which costs one needless
+ * refetch, never a stale 304.
+ *
+ * The counters live in memory. Tags carry a random epoch so that tags
+ * handed out before a restart never match, but writes by other processes
+ * sharing the database are not seen.
+ */
+public final class TableVersions {
+
+    public enum Table {
+        BOOK, CARD, BORROW
+    }
+
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    private final AtomicLongArray versions = new AtomicLongArray(Table.values().length);
+
+    public long get(Table table) {
+        return versions.get(table.ordinal());
+    }
+
+    public void bump(Table table) {
+        versions.incrementAndGet(table.ordinal());
+    }
+
+    public void bump(Table first, Table second) {
+        bump(first);
+        bump(second);
+    }
+
+    public void bumpAll() {
+        for (Table table : Table.values()) {
+            bump(table);
+        }
+    }
+
+    /**
+     * @return a strong entity tag, quoted, for a representation built from
+     *         the current contents of the tables
+     */
+    public String etag(Table... tables) {
+        StringBuilder tag = new StringBuilder(32).append('"').append(epoch);
+        for (Table table : tables) {
+            tag.append('-').append(get(table));
+        }
+        return tag.append('"').toString();
+    }
+}
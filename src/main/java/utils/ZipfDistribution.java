@@ -0,0 +1,65 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Zipfian popularity over indexes 0..n-1: the k-th most popular index is
+ * drawn with probability proportional to 1 / k^s. Which index gets which
+ * rank is shuffled by the seed, so popularity does not follow insertion
+ * order (and so the ids).
+ *
+ * Immutable after construction, so one instance may be shared by any
+ * number of threads, each with its own source of uniform numbers.
+ */
+public final class ZipfDistribution {
+
+    /* cdf[k] = probability of drawing one of the k+1 most popular indexes */
+    private final double[] cdf;
+    /* rank -> index */
+    private final int[] indexOfRank;
+
+    /**
+     * @param s skew, 0 is uniform, around 1 is typical of catalogs
+     */
+    public ZipfDistribution(int n, double s, long seed) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Zipf population must not be empty");
+        }
+        cdf = new double[n];
+        double total = 0;
+        for (int k = 0; k < n; k++) {
+            total += 1 / Math.pow(k + 1, s);
+            cdf[k] = total;
+        }
+        for (int k = 0; k < n; k++) {
+            cdf[k] /= total;
+        }
+        indexOfRank = new int[n];
+        for (int i = 0; i < n; i++) {
+            indexOfRank[i] = i;
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = indexOfRank[i];
+            indexOfRank[i] = indexOfRank[j];
+            indexOfRank[j] = t;
+        }
+    }
+
+    public int size() {
+        return cdf.length;
+    }
+
+    /**
+     * @param u uniform number in [0, 1)
+     */
+    public int sample(double u) {
+        int rank = Arrays.binarySearch(cdf, u);
+        if (rank < 0) {
+            rank = -rank - 1;
+        }
+        return indexOfRank[Math.min(rank, cdf.length - 1)];
+    }
+}
@@ -1,3 +1,5 @@
+drop table if exists `borrow_archive`;
+drop table if exists `active_loan`;
 drop table if exists `borrow`;
 drop table if exists `card`;
 drop table if exists `book`;
@@ -33,4 +35,32 @@ create table `borrow` (
   primary key (`card_id`, `book_id`, `borrow_time`),
   foreign key (`card_id`) references `card`(`card_id`) on delete cascade on update cascade,
   foreign key (`book_id`) references `book`(`book_id`) on delete cascade on update cascade
-) engine=innodb charset=utf8mb4;
\ No newline at end of file
+) engine=innodb charset=utf8mb4;
+
+create index `borrow_card_time` on `borrow` (`card_id`, `borrow_time` desc, `book_id`);
+create index `borrow_book_active` on `borrow` (`book_id`, `return_time`);
+create index `borrow_card_active` on `borrow` (`card_id`, `return_time`);
+
+create table `active_loan` (
+  `card_id` int not null,
+  `book_id` int not null,
+  `borrow_time` bigint not null,
+  primary key (`card_id`, `book_id`),
+  foreign key (`card_id`) references `card`(`card_id`) on delete cascade on update cascade,
+  foreign key (`book_id`) references `book`(`book_id`) on delete cascade on update cascade
+) engine=innodb charset=utf8mb4;
+
+create table `borrow_archive` (
+  `borrow_month` int not null,
+  `card_id` int not null,
+  `book_id` int not null,
+  `borrow_time` bigint not null,
+  `return_time` bigint not null,
+  primary key (`borrow_month`, `card_id`, `book_id`, `borrow_time`),
+  foreign key (`card_id`) references `card`(`card_id`) on delete cascade on update cascade,
+  foreign key (`book_id`) references `book`(`book_id`) on delete cascade on update cascade
+) engine=innodb charset=utf8mb4;
+
+create index `archive_card_time` on `borrow_archive` (`card_id`, `borrow_time` desc, `book_id`);
+create index `borrow_return_time` on `borrow` (`return_time`);
+create index `card_name` on `card` (`name`);
\ No newline at end of file
@@ -1,3 +1,5 @@
+IF OBJECT_ID('dbo.borrow_archive', 'U') IS NOT NULL DROP TABLE dbo.borrow_archive;
+IF OBJECT_ID('dbo.active_loan', 'U') IS NOT NULL DROP TABLE dbo.active_loan;
 IF OBJECT_ID('dbo.borrow', 'U') IS NOT NULL DROP TABLE dbo.borrow;
 IF OBJECT_ID('dbo.book', 'U') IS NOT NULL DROP TABLE dbo.book;
 IF OBJECT_ID('dbo.card', 'U') IS NOT NULL DROP TABLE dbo.card;
@@ -33,4 +35,35 @@ create table borrow (
     primary key (card_id, book_id, borrow_time),
     foreign key (card_id) references card(card_id) on delete cascade on update cascade,
     foreign key (book_id) references book(book_id) on delete cascade on update cascade
-);
\ No newline at end of file
+);
+
+create index borrow_card_time on borrow (card_id, borrow_time desc, book_id);
+create index borrow_book_active on borrow (book_id, return_time);
+create index borrow_card_active on borrow (card_id, return_time);
+
+create table active_loan (
+    card_id int not null,
+    book_id int not null,
+    borrow_time bigint not null,
+    primary key (card_id, book_id),
+    foreign key (card_id) references card(card_id) on delete cascade on update cascade,
+    foreign key (book_id) references book(book_id) on delete cascade on update cascade
+);
+
+create index active_loan_book on active_loan (book_id);
+
+create table borrow_archive (
+    borrow_month int not null,
+    card_id int not null,
+    book_id int not null,
+    borrow_time bigint not null,
+    return_time bigint not null,
+    primary key (borrow_month, card_id, book_id, borrow_time),
+    foreign key (card_id) references card(card_id) on delete cascade on update cascade,
+    foreign key (book_id) references book(book_id) on delete cascade on update cascade
+);
+
+create index archive_card_time on borrow_archive (card_id, borrow_time desc, book_id);
+create index archive_book on borrow_archive (book_id);
+create index borrow_return_time on borrow (return_time);
+create index card_name on card (name);
\ No newline at end of file
@@ -0,0 +1,116 @@
+import entities.Book;
+import entities.Borrow;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.BookQueryResults;
+import utils.ConnectConfig;
+import utils.DatabaseConnector;
+import utils.LibraryConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contention test for borrowBook, modeled on
+ * {@link LibraryTest#parallelBorrowBookTest()} but with hundreds of
+ * borrowers hitting the same book at once. It runs both the locking
+ * (select ... for update) and the optimistic (conditional decrement)
+ * borrow paths and checks that exactly `stock` borrowers succeed. their
+ * throughput is measured by BorrowReturnBenchmark in the benchmarks module.
+ */
+public class BorrowContentionTest {
+
+    private static final int nThreads = 256;
+    private static final int poolSize = 64;
+
+    private static final ConnectConfig connectConfig = TestConfig.connectConfig();
+
+    private DatabaseConnector connector;
+
+    @After
+    public void afterTest() {
+        if (connector != null) {
+            connector.release();
+        }
+    }
+
+    @Test
+    public void lockingBorrowContentionTest() {
+        runContention(false);
+    }
+
+    @Test
+    public void optimisticBorrowContentionTest() {
+        runContention(true);
+    }
+
+    private void runContention(boolean optimistic) {
+        connector = new DatabaseConnector(connectConfig.withPoolSize(poolSize, poolSize));
+        Assert.assertTrue(connector.connect());
+        LibraryConfig config = new LibraryConfig();
+        config.setOptimisticBorrow(optimistic);
+        LibraryManagementSystem library = new LibraryManagementSystemImpl(connector, config);
+        Assert.assertTrue(library.resetDatabase().ok);
+        MyLibrary my = MyLibrary.createLibrary(library, 2, nThreads, 0);
+        /* a single copy left, then a hot textbook with a few dozen copies */
+        int[] stocks = {1, nThreads / 4};
+        for (int i = 0; i < stocks.length; i++) {
+            Book book = my.books.get(i);
+            Assert.assertTrue(library.incBookStock(book.getBookId(), -book.getStock() + stocks[i]).ok);
+            Assert.assertEquals(stocks[i], borrowConcurrently(library, my, book));
+            Assert.assertEquals(0, stockOf(library, book.getBookId()));
+        }
+    }
+
+    private int borrowConcurrently(LibraryManagementSystem library, MyLibrary my, Book book) {
+        AtomicInteger successOps = new AtomicInteger(0);
+        CountDownLatch ready = new CountDownLatch(nThreads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < nThreads; i++) {
+            Borrow borrow = new Borrow(book, my.cards.get(i));
+            borrow.resetBorrowTime();
+            Thread thd = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                if (library.borrowBook(borrow).ok) {
+                    successOps.incrementAndGet();
+                }
+            });
+            thd.start();
+            threads.add(thd);
+        }
+        try {
+            ready.await();
+            go.countDown();
+            for (Thread thd : threads) {
+                thd.join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return successOps.get();
+    }
+
+    private int stockOf(LibraryManagementSystem library, int bookId) {
+        ApiResult result = library.queryBook(new BookQueryConditions());
+        Assert.assertTrue(result.ok);
+        for (Book b : ((BookQueryResults) result.payload).getResults()) {
+            if (b.getBookId() == bookId) {
+                return b.getStock();
+            }
+        }
+        Assert.fail();
+        return -1;
+    }
+}
@@ -0,0 +1,92 @@
+import entities.Book;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.BookQueryResults;
+import queries.StoreBookResults;
+import utils.ConnectConfig;
+import utils.DatabaseConnector;
+import utils.DatabaseType;
+import utils.LibraryConfig;
+import utils.RandomData;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * storeBook(List) of a large catalog, once through the batched insert and
+ * once through COPY FROM STDIN (PostgreSQL & openGauss only): every book is
+ * stored and gets its generated bookId back. the load time is measured by
+ * StoreBookBenchmark in the benchmarks module.
+ */
+public class BulkLoadTest {
+
+    private static final int nBooks = 20000;
+
+    private static final ConnectConfig connectConfig = TestConfig.connectConfig();
+
+    private DatabaseConnector connector;
+
+    @After
+    public void afterTest() {
+        if (connector != null) {
+            connector.release();
+        }
+    }
+
+    @Test
+    public void batchedInsertLoadTest() {
+        runLoad(false);
+    }
+
+    @Test
+    public void copyLoadTest() {
+        Assume.assumeTrue(connectConfig.getType() == DatabaseType.POSTGRES);
+        runLoad(true);
+    }
+
+    private void runLoad(boolean copy) {
+        connector = new DatabaseConnector(connectConfig);
+        Assert.assertTrue(connector.connect());
+        LibraryConfig config = new LibraryConfig();
+        config.setCopyThreshold(copy ? 1 : 0);
+        LibraryManagementSystem library = new LibraryManagementSystemImpl(connector, config);
+        Assert.assertTrue(library.resetDatabase().ok);
+
+        List<Book> books = new ArrayList<>(nBooks);
+        for (int i = 0; i < nBooks; i++) {
+            Book book = RandomData.randomBook();
+            /* unique titles, some with characters COPY has to escape */
+            book.setTitle(book.getTitle() + (i % 10 == 0 ? "\t\\" : " ") + i);
+            books.add(book);
+        }
+        ApiResult result = library.storeBook(books);
+        Assert.assertTrue(result.message, result.ok);
+        Assert.assertEquals(nBooks, ((StoreBookResults) result.payload).getInserted());
+
+        /* generated bookIds are written back and match the stored rows */
+        ApiResult queryResult = library.queryBook(new BookQueryConditions());
+        Assert.assertTrue(queryResult.ok);
+        List<Book> stored = ((BookQueryResults) queryResult.payload).getResults();
+        Assert.assertEquals(nBooks, stored.size());
+        Set<Book> expected = new HashSet<>();
+        for (Book book : books) {
+            expected.add(book);
+        }
+        for (Book book : stored) {
+            Assert.assertTrue(expected.contains(book));
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (Book book : books) {
+            Assert.assertTrue(ids.add(book.getBookId()));
+        }
+        for (Book book : stored) {
+            Assert.assertTrue(ids.contains(book.getBookId()));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import queries.ApiResult;
+import queries.BorrowHistories;
+import utils.BulkLoader;
+import utils.ConnectConfig;
+import utils.DataGenerator;
+import utils.DatabaseConnector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class DataGeneratorTest {
+
+    private static final int nBooks = 25000;
+    private static final int nCards = 12000;
+    private static final long nBorrows = 30000;
+
+    private static final ConnectConfig connectConfig = TestConfig.connectConfig();
+
+    private DatabaseConnector connector;
+
+    @After
+    public void afterTest() {
+        if (connector != null) {
+            connector.release();
+        }
+    }
+
+    /* collects the rows as text, sinks may be called concurrently */
+    private static class Collector implements DataGenerator.Sink {
+        final List<String> rows = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void books(List<Book> books) {
+            books.forEach(b -> rows.add(b.getBookId() + " " + b));
+        }
+
+        @Override
+        public void cards(List<Card> cards) {
+            cards.forEach(c -> rows.add(c.toString()));
+        }
+
+        @Override
+        public void borrows(List<Borrow> borrows) {
+            borrows.forEach(b -> rows.add(b.toString()));
+        }
+    }
+
+    @Test
+    public void sameSeedSameDataTest() throws Exception {
+        Collector serial = new Collector();
+        new DataGenerator(7, nBooks, nCards, nBorrows).generate(serial, 1, true);
+        Collector parallel = new Collector();
+        new DataGenerator(7, nBooks, nCards, nBorrows).generate(parallel, 4, false);
+        Assert.assertEquals(nBooks + nCards + nBorrows, serial.rows.size());
+
+        List<String> expected = new ArrayList<>(serial.rows);
+        List<String> actual = new ArrayList<>(parallel.rows);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        Assert.assertEquals(expected, actual);
+
+        Collector other = new Collector();
+        new DataGenerator(8, nBooks, nCards, nBorrows).generate(other, 4, true);
+        Assert.assertNotEquals(serial.rows, other.rows);
+    }
+
+    @Test
+    public void bulkLoadTest() throws Exception {
+        connector = new DatabaseConnector(connectConfig);
+        Assert.assertTrue(connector.connect());
+        LibraryManagementSystem library = new LibraryManagementSystemImpl(connector);
+        Assert.assertTrue(library.resetDatabase().ok);
+
+        BulkLoader loader = new BulkLoader(connector);
+        new DataGenerator(7, nBooks, nCards, nBorrows).generate(loader, 4, false);
+        loader.finish();
+        Assert.assertEquals(nBooks, loader.getBooks());
+        Assert.assertEquals(nCards, loader.getCards());
+        Assert.assertEquals(nBorrows, loader.getBorrows());
+
+        /* the most active card has a history, and all its loans are returned */
+        int busiest = 0;
+        int most = -1;
+        for (int cardId = 1; cardId <= 20; cardId++) {
+            ApiResult result = library.showBorrowHistory(cardId);
+            Assert.assertTrue(result.message, result.ok);
+            int count = ((BorrowHistories) result.payload).getCount();
+            if (count > most) {
+                most = count;
+                busiest = cardId;
+            }
+        }
+        Assert.assertTrue(most > 0);
+        for (BorrowHistories.Item item : ((BorrowHistories) library.showBorrowHistory(busiest).payload).getItems()) {
+            Assert.assertTrue(item.getReturnTime() > item.getBorrowTime());
+        }
+
+        /* new rows get ids after the loaded ones */
+        Book book = new Book("Computer Science", "Generated Later", "Press", 2024, "Author", 10, 1);
+        Assert.assertTrue(library.storeBook(book).ok);
+        Assert.assertEquals(nBooks + 1, book.getBookId());
+        Card card = new Card(0, "Generated Later", "Computer Science", Card.CardType.Teacher);
+        Assert.assertTrue(library.registerCard(card).ok);
+        Assert.assertEquals(nCards + 1, card.getCardId());
+    }
+}
@@ -0,0 +1,153 @@
+import entities.Book;
+import entities.Borrow;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.BookQueryResults;
+import queries.BorrowHistories;
+import utils.ConnectConfig;
+import utils.DatabaseConnector;
+import utils.GroupCommitter;
+import utils.LibraryConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent desks keep borrowing and returning books, once with one
+ * transaction per request and once with group commit. Either way every
+ * request must succeed and leave stock & history as if run one by one;
+ * group commit must need fewer commits than requests.
+ */
+public class GroupCommitTest {
+
+    private static final int nThreads = 64;
+    private static final int nRounds = 50;
+    private static final int nBooks = 32;
+
+    private static final ConnectConfig connectConfig = TestConfig.connectConfig();
+
+    private DatabaseConnector connector;
+    private LibraryManagementSystemImpl library;
+
+    @After
+    public void afterTest() {
+        if (library != null) {
+            library.close();
+        }
+        if (connector != null) {
+            connector.release();
+        }
+    }
+
+    @Test
+    public void singleCommitTest() {
+        runDesks(false);
+    }
+
+    @Test
+    public void groupCommitTest() {
+        runDesks(true);
+    }
+
+    private void runDesks(boolean groupCommit) {
+        connector = new DatabaseConnector(connectConfig.withPoolSize(16, 32));
+        Assert.assertTrue(connector.connect());
+        LibraryConfig config = new LibraryConfig();
+        config.setGroupCommit(groupCommit);
+        library = new LibraryManagementSystemImpl(connector, config);
+        Assert.assertTrue(library.resetDatabase().ok);
+        MyLibrary my = MyLibrary.createLibrary(library, nBooks, nThreads, 0);
+        /* enough copies that no borrow can fail for lack of stock */
+        for (Book book : my.books) {
+            Assert.assertTrue(library.incBookStock(book.getBookId(), nThreads).ok);
+        }
+        Map<Integer, Integer> stock = stock();
+
+        AtomicInteger failedOps = new AtomicInteger(0);
+        List<Thread> desks = new ArrayList<>();
+        for (int i = 0; i < nThreads; i++) {
+            final int cardId = my.cards.get(i).getCardId();
+            final Random random = new Random(i);
+            Thread desk = new Thread(() -> {
+                for (int r = 0; r < nRounds; r++) {
+                    Borrow borrow = new Borrow(my.books.get(random.nextInt(nBooks)).getBookId(), cardId);
+                    borrow.setBorrowTime(1000L + r * 2L);
+                    borrow.setReturnTime(1001L + r * 2L);
+                    if (!library.borrowBook(borrow).ok || !library.returnBook(borrow).ok) {
+                        failedOps.incrementAndGet();
+                    }
+                }
+            });
+            desk.start();
+            desks.add(desk);
+        }
+        for (Thread desk : desks) {
+            try {
+                desk.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        Assert.assertEquals(0, failedOps.get());
+        /* every borrow was returned again, and each desk has one closed record per round */
+        Assert.assertEquals(stock, stock());
+        for (int i = 0; i < nThreads; i++) {
+            BorrowHistories histories = (BorrowHistories) library.showBorrowHistory(my.cards.get(i).getCardId()).payload;
+            Assert.assertEquals(nRounds, histories.getCount());
+            for (BorrowHistories.Item item : histories.getItems()) {
+                Assert.assertEquals(item.getBorrowTime() + 1, item.getReturnTime());
+            }
+        }
+        long nRequests = 2L * nThreads * nRounds;
+        GroupCommitter committer = library.getGroupCommitter();
+        if (groupCommit) {
+            Assert.assertEquals(nRequests, committer.getRequestCount());
+            Assert.assertTrue(committer.getCommitCount() < nRequests);
+        } else {
+            Assert.assertNull(committer);
+        }
+    }
+
+    @Test
+    public void shutdownTest() throws InterruptedException {
+        connector = new DatabaseConnector(connectConfig.withPoolSize(1, 4));
+        Assert.assertTrue(connector.connect());
+        GroupCommitter committer = new GroupCommitter(connector, 100, 16);
+        /* desks that keep submitting while the committer shuts down must all get an answer */
+        List<Thread> desks = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            Thread desk = new Thread(() -> {
+                while (committer.submit(conn -> new ApiResult(true, null), null).ok) {
+                    Thread.yield();
+                }
+            });
+            desk.start();
+            desks.add(desk);
+        }
+        Thread.sleep(50);
+        committer.shutdown();
+        for (Thread desk : desks) {
+            desk.join(TimeUnit.SECONDS.toMillis(10));
+            Assert.assertFalse(desk.isAlive());
+        }
+        Assert.assertFalse(committer.submit(conn -> new ApiResult(true, null), null).ok);
+    }
+
+    private Map<Integer, Integer> stock() {
+        ApiResult result = library.queryBook(new BookQueryConditions());
+        Assert.assertTrue(result.ok);
+        Map<Integer, Integer> stock = new HashMap<>();
+        for (Book b : ((BookQueryResults) result.payload).getResults()) {
+            stock.put(b.getBookId(), b.getStock());
+        }
+        return stock;
+    }
+}
@@ -9,10 +9,20 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import queries.*;
+import utils.CatalogCache;
 import utils.ConnectConfig;
+import utils.DBInitializer;
 import utils.DatabaseConnector;
+import utils.LibraryConfig;
+import utils.LoanArchiver;
+import utils.NgramIndex;
 import utils.RandomData;
+import utils.SchemaMigrator;
+import utils.TableVersions;
+import utils.TableVersions.Table;
 
+import java.sql.Connection;
+import java.sql.Statement;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -258,6 +268,29 @@ public class LibraryTest {
         }
     }
 
+    @Test
+    public void bulkRegisterNearDuplicateBookTest() throws Exception {
+        /* a case-insensitive title, like MySQL's default collation, which the unique key follows */
+        try (Connection conn = connector.getConn(); Statement stmt = conn.createStatement()) {
+            stmt.execute("alter table book alter column title varchar_ignorecase(63) not null");
+            conn.commit();
+        }
+        Book stored = new Book("Computer Science", "Database System Concepts", "McGraw Hill", 2019,
+                "Silberschatz", 99.9, 5);
+        Assert.assertTrue(library.storeBook(stored).ok);
+        Book nearDuplicate = stored.clone();
+        nearDuplicate.setTitle("DATABASE SYSTEM CONCEPTS");
+        Book fresh = new Book("Computer Science", "Operating System Concepts", "Wiley", 2018,
+                "Silberschatz", 88.8, 3);
+        ApiResult result = library.storeBook(Arrays.asList(nearDuplicate, fresh));
+        Assert.assertTrue(result.message, result.ok);
+        StoreBookResults counts = (StoreBookResults) result.payload;
+        Assert.assertEquals(1, counts.getInserted());
+        Assert.assertEquals(1, counts.getSkipped());
+        BookQueryResults all = (BookQueryResults) library.queryBook(new BookQueryConditions()).payload;
+        Assert.assertEquals(2, all.getCount());
+    }
+
     @Test
     public void removeBookTest() {
         /* simply insert some data to database */
@@ -444,6 +477,526 @@ public class LibraryTest {
         }
     }
 
+    @Test
+    public void queryBookPaginationTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 500, 0, 0);
+        for (Book.SortColumn column : Book.SortColumn.values()) {
+            for (SortOrder order : SortOrder.values()) {
+                BookQueryConditions c = new BookQueryConditions();
+                c.setSortBy(column);
+                c.setSortOrder(order);
+                c.setLimit(37);
+                List<Book> expectedResults = verifyQueryResult(my.books, c);
+                /* walk through all pages and compare with the full result */
+                List<Book> pagedResults = new ArrayList<>();
+                do {
+                    ApiResult queryResult = library.queryBook(c);
+                    Assert.assertTrue(queryResult.ok);
+                    BookQueryResults page = (BookQueryResults) queryResult.payload;
+                    Assert.assertTrue(page.getCount() <= 37);
+                    pagedResults.addAll(page.getResults());
+                    c.setCursor(page.getNextCursor());
+                } while (c.getCursor() != null);
+                Assert.assertEquals(expectedResults.size(), pagedResults.size());
+                for (int i = 0; i < expectedResults.size(); i++) {
+                    Assert.assertEquals(expectedResults.get(i).toString(), pagedResults.get(i).toString());
+                }
+            }
+        }
+        /* cursor must match the sort it was created with */
+        BookQueryConditions c = new BookQueryConditions();
+        c.setLimit(10);
+        String cursor = ((BookQueryResults) library.queryBook(c).payload).getNextCursor();
+        Assert.assertNotNull(cursor);
+        c.setSortBy(Book.SortColumn.PRICE);
+        c.setCursor(cursor);
+        Assert.assertFalse(library.queryBook(c).ok);
+        c.setCursor("not a cursor");
+        Assert.assertFalse(library.queryBook(c).ok);
+    }
+
+    @Test
+    public void queryBookCatalogCacheTest() {
+        LibraryConfig config = new LibraryConfig();
+        config.setSearchIndex(true);
+        config.setCatalogCache(true);
+        LibraryManagementSystem cached = new LibraryManagementSystemImpl(connector, config);
+        /* all writes go through the cached library, reads are compared with the SQL path */
+        MyLibrary my = MyLibrary.createLibrary(cached, 300, 10, 50);
+        Book modified = my.books.get(0).clone();
+        modified.setTitle("Database System Concepts (7th)");
+        Assert.assertTrue(cached.modifyBookInfo(modified).ok);
+        Assert.assertTrue(cached.incBookStock(my.books.get(1).getBookId(), 7).ok);
+        Assert.assertTrue(cached.removeBook(my.books.get(2).getBookId()).ok);
+        Borrow borrow = new Borrow(my.books.get(3).getBookId(), my.cards.get(0).getCardId());
+        borrow.resetBorrowTime();
+        Assert.assertTrue(cached.borrowBook(borrow).ok);
+        LibraryManagementSystem uncached = new LibraryManagementSystemImpl(connector);
+        for (int i = 0; i < 50; i++) {
+            BookQueryConditions c = new BookQueryConditions();
+            if (i % 3 == 0) {
+                c.setCategory(RandomData.randomCategory());
+            }
+            if (i % 4 == 1) {
+                c.setTitle(i % 8 == 1 ? "Data" : RandomData.randomTitle());
+            }
+            if (i % 5 == 2) {
+                c.setAuthor("o");
+            }
+            if (i % 2 == 0) {
+                c.setMinPrice(RandomData.randomPrice());
+            }
+            c.setSortBy(Book.SortColumn.random());
+            c.setSortOrder(SortOrder.random());
+            if (i % 6 == 5) {
+                c.setLimit(20);
+            }
+            ApiResult expected = uncached.queryBook(c);
+            ApiResult actual = cached.queryBook(c);
+            Assert.assertTrue(expected.ok);
+            Assert.assertTrue(actual.ok);
+            BookQueryResults e = (BookQueryResults) expected.payload;
+            BookQueryResults a = (BookQueryResults) actual.payload;
+            Assert.assertEquals(e.getCount(), a.getCount());
+            Assert.assertEquals(e.getNextCursor(), a.getNextCursor());
+            for (int j = 0; j < e.getCount(); j++) {
+                Assert.assertEquals(e.getResults().get(j).toString(), a.getResults().get(j).toString());
+            }
+        }
+    }
+
+    @Test
+    public void queryBookCatalogCacheCollationTest() {
+        LibraryConfig config = new LibraryConfig();
+        config.setCatalogCache(true);
+        LibraryManagementSystem cached = new LibraryManagementSystemImpl(connector, config);
+        List<Book> books = new ArrayList<>();
+        books.add(new Book("Computer Science", "Java 8 in Action", "Manning", 2014, "Raoul", 59.9, 3));
+        books.add(new Book("Computer Science", "JAVA Concurrency", "Addison", 2006, "Goetz", 49.9, 2));
+        books.add(new Book("computer science", "100% Pure Java", "manning", 1997, "Gilbert", 29.9, 1));
+        books.add(new Book("Computer Science", "snake_case and You", "O'Reilly", 2020, "Smith_J", 19.9, 4));
+        books.add(new Book("Computer Science", "snakeXcase", "O'Reilly", 2021, "SmithJ", 9.9, 5));
+        books.add(new Book("Computer Science", "[draft] C!", "MANNING", 2022, "Ritchie", 39.9, 6));
+        Assert.assertTrue(cached.storeBook(books).ok);
+        /* mixed case and LIKE wildcards must mean the same to the cache as to the database */
+        String[] titles = {"java", "Java", "JAVA", "jAvA", "%", "100%", "_", "e_c", "[draft]", "!", "C!", null};
+        String[] presses = {null, "manning", "Manning", "MANNING", "o'r"};
+        String[] categories = {null, "Computer Science", "computer science", "COMPUTER SCIENCE"};
+        LibraryManagementSystem uncached = new LibraryManagementSystemImpl(connector);
+        for (String title : titles) {
+            for (String press : presses) {
+                for (String category : categories) {
+                    BookQueryConditions c = new BookQueryConditions();
+                    c.setTitle(title);
+                    c.setPress(press);
+                    c.setCategory(category);
+                    c.setSortBy(Book.SortColumn.TITLE);
+                    BookQueryResults e = (BookQueryResults) uncached.queryBook(c).payload;
+                    BookQueryResults a = (BookQueryResults) cached.queryBook(c).payload;
+                    Assert.assertEquals(e.getCount(), a.getCount());
+                    for (int j = 0; j < e.getCount(); j++) {
+                        Assert.assertEquals(e.getResults().get(j).toString(), a.getResults().get(j).toString());
+                    }
+                }
+            }
+        }
+        BookQueryConditions c = new BookQueryConditions();
+        c.setTitle("%");
+        Assert.assertEquals(1, ((BookQueryResults) uncached.queryBook(c).payload).getCount());
+        c.setTitle("_");
+        Assert.assertEquals(1, ((BookQueryResults) uncached.queryBook(c).payload).getCount());
+
+        /* a case-insensitive collation, as on MySQL & SQL Server */
+        CatalogCache folded = new CatalogCache(true, true);
+        folded.putAll(books, 0);
+        c = new BookQueryConditions();
+        c.setTitle("java");
+        c.setPress("MANNING");
+        Assert.assertEquals(2, folded.query(c, null, null).getCount());
+        c = new BookQueryConditions();
+        c.setAuthor("Gõetz");
+        Assert.assertEquals(1, folded.query(c, null, null).getCount());
+        c = new BookQueryConditions();
+        c.setSortBy(Book.SortColumn.TITLE);
+        List<Book> sorted = folded.query(c, null, null).getResults();
+        Assert.assertEquals("100% Pure Java", sorted.get(0).getTitle());
+        Assert.assertEquals("Java 8 in Action", sorted.get(2).getTitle());
+        Assert.assertEquals("JAVA Concurrency", sorted.get(3).getTitle());
+    }
+
+    @Test
+    public void queryBookCatalogCachePriceTest() {
+        LibraryConfig config = new LibraryConfig();
+        config.setCatalogCache(true);
+        LibraryManagementSystem cached = new LibraryManagementSystemImpl(connector, config);
+        /* load the cache first, so that it sees the writes below rather than the rows read back */
+        Assert.assertTrue(cached.queryBook(new BookQueryConditions()).ok);
+        /* prices with more decimals than decimal(7, 2) keeps */
+        double[] prices = {12.345, 12.344, 9.999, 20.005};
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < prices.length; i++) {
+            books.add(new Book("Computer Science", "Title " + i, "Press", 2020, "Author", prices[i], 1));
+        }
+        Assert.assertTrue(cached.storeBook(books).ok);
+        Book modified = books.get(1).clone();
+        modified.setPrice(12.355);
+        Assert.assertTrue(cached.modifyBookInfo(modified).ok);
+        double[] bounds = {12.34, 12.345, 12.35, 12.36, 10.0, 20.0, 20.01};
+        for (double bound : bounds) {
+            for (int j = 0; j < 2; j++) {
+                BookQueryConditions c = new BookQueryConditions();
+                if (j == 0) {
+                    c.setMinPrice(bound);
+                } else {
+                    c.setMaxPrice(bound);
+                }
+                c.setSortBy(Book.SortColumn.PRICE);
+                BookQueryResults e = (BookQueryResults) library.queryBook(c).payload;
+                BookQueryResults a = (BookQueryResults) cached.queryBook(c).payload;
+                Assert.assertEquals(e.getCount(), a.getCount());
+                for (int k = 0; k < e.getCount(); k++) {
+                    Assert.assertEquals(e.getResults().get(k).toString(), a.getResults().get(k).toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void catalogCacheWriteOrderTest() throws InterruptedException {
+        /* changes that reach the cache out of commit order: the newer one wins */
+        CatalogCache cache = new CatalogCache();
+        Book book = new Book("Computer Science", "Old Title", "Press", 2020, "Author", 10, 3);
+        book.setBookId(1);
+        cache.put(book, 1);
+        Book newer = book.clone();
+        newer.setTitle("Newer Title");
+        Book older = book.clone();
+        older.setTitle("Older Title");
+        cache.modify(newer, 3);
+        cache.modify(older, 2);
+        cache.adjustStock(1, 2);
+        Book current = cache.query(new BookQueryConditions(), null, null).getResults().get(0);
+        Assert.assertEquals("Newer Title", current.getTitle());
+        Assert.assertEquals(5, current.getStock());
+
+        /* concurrent modifications of one book leave the cache on the committed values */
+        LibraryConfig config = new LibraryConfig();
+        config.setCatalogCache(true);
+        LibraryManagementSystem cached = new LibraryManagementSystemImpl(connector, config);
+        MyLibrary my = MyLibrary.createLibrary(cached, 1, 0, 0);
+        Assert.assertTrue(cached.queryBook(new BookQueryConditions()).ok);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            Book b = my.books.get(0).clone();
+            b.setTitle("Title " + i);
+            Thread thd = new Thread(() -> {
+                for (int r = 0; r < 20; r++) {
+                    cached.modifyBookInfo(b);
+                }
+            });
+            thd.start();
+            threads.add(thd);
+        }
+        for (Thread thd : threads) {
+            thd.join();
+        }
+        BookQueryResults e = (BookQueryResults) library.queryBook(new BookQueryConditions()).payload;
+        BookQueryResults a = (BookQueryResults) cached.queryBook(new BookQueryConditions()).payload;
+        Assert.assertEquals(e.getResults().get(0).toString(), a.getResults().get(0).toString());
+    }
+
+    @Test
+    public void searchIndexWriteOrderTest() throws InterruptedException {
+        /* changes that reach the index out of commit order: the newer one wins */
+        NgramIndex index = new NgramIndex(Integer.MAX_VALUE);
+        index.markLoaded();
+        Book book = new Book("Computer Science", "Newer Title", "Press", 2020, "Author", 10, 3);
+        book.setBookId(1);
+        index.put(book, 3);
+        Book older = book.clone();
+        older.setTitle("Older Title");
+        index.put(older, 2);
+        BookQueryConditions c = new BookQueryConditions();
+        c.setTitle("Older");
+        Assert.assertEquals(0, index.candidates(c).length);
+        c.setTitle("Newer");
+        Assert.assertArrayEquals(new int[]{1}, index.candidates(c));
+
+        /* concurrent modifications of one book leave the index on the committed title */
+        LibraryConfig config = new LibraryConfig();
+        config.setSearchIndex(true);
+        LibraryManagementSystem indexed = new LibraryManagementSystemImpl(connector, config);
+        MyLibrary my = MyLibrary.createLibrary(indexed, 1, 0, 0);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            Book b = my.books.get(0).clone();
+            b.setTitle("Title " + (char) ('a' + i) + "xyz");
+            Thread thd = new Thread(() -> {
+                for (int r = 0; r < 20; r++) {
+                    indexed.modifyBookInfo(b);
+                }
+            });
+            thd.start();
+            threads.add(thd);
+        }
+        for (Thread thd : threads) {
+            thd.join();
+        }
+        String title = ((BookQueryResults) library.queryBook(new BookQueryConditions()).payload)
+                .getResults().get(0).getTitle();
+        BookQueryConditions byTitle = new BookQueryConditions();
+        byTitle.setTitle(title.substring(6));
+        BookQueryResults a = (BookQueryResults) indexed.queryBook(byTitle).payload;
+        Assert.assertEquals(1, a.getCount());
+        Assert.assertEquals(title, a.getResults().get(0).getTitle());
+    }
+
+    @Test
+    public void queryBookStatementCacheTest() {
+        LibraryConfig config = new LibraryConfig();
+        config.setStatementCacheSize(0);
+        LibraryManagementSystem uncached = new LibraryManagementSystemImpl(connector, config);
+        LibraryManagementSystemImpl cached = (LibraryManagementSystemImpl) library;
+        MyLibrary.createLibrary(library, 300, 10, 50);
+        long hits = cached.getStatementCache().getHits();
+        /* the same query shapes repeat with different values, fuzzy titles pad their IN lists */
+        for (int i = 0; i < 60; i++) {
+            BookQueryConditions c = new BookQueryConditions();
+            if (i % 2 == 0) {
+                c.setTitle(RandomData.randomTitle().substring(0, 4));
+            }
+            if (i % 3 == 0) {
+                c.setMinPublishYear(RandomData.randomPublishYear());
+            }
+            c.setSortBy(i % 4 == 0 ? Book.SortColumn.PRICE : Book.SortColumn.BOOK_ID);
+            if (i % 5 == 0) {
+                c.setLimit(10);
+            }
+            ApiResult expected = uncached.queryBook(c);
+            ApiResult actual = cached.queryBook(c);
+            Assert.assertTrue(expected.ok);
+            Assert.assertTrue(actual.ok);
+            BookQueryResults e = (BookQueryResults) expected.payload;
+            BookQueryResults a = (BookQueryResults) actual.payload;
+            Assert.assertEquals(e.getCount(), a.getCount());
+            for (int j = 0; j < e.getCount(); j++) {
+                Assert.assertEquals(e.getResults().get(j).toString(), a.getResults().get(j).toString());
+            }
+        }
+        Assert.assertTrue(cached.getStatementCache().getHits() > hits);
+    }
+
+    @Test
+    public void readEndsTransactionTest() throws Exception {
+        /* a pool of one connection whose session reads with REPEATABLE READ, MySQL's default */
+        DatabaseConnector single = new DatabaseConnector(connectConfig.withPoolSize(1, 1));
+        Assert.assertTrue(single.connect());
+        try {
+            try (Connection conn = single.getConn(); Statement stmt = conn.createStatement()) {
+                stmt.execute("set session characteristics as transaction isolation level repeatable read");
+                conn.commit();
+            }
+            LibraryManagementSystem reader = new LibraryManagementSystemImpl(single);
+            Assert.assertTrue(library.storeBook(RandomData.randomBook()).ok);
+            Assert.assertEquals(1, ((BookQueryResults) reader.queryBook(new BookQueryConditions()).payload).getCount());
+            /* a book committed on another connection is seen by the next read on the pooled one */
+            Assert.assertTrue(library.storeBook(RandomData.randomBook()).ok);
+            Assert.assertEquals(2, ((BookQueryResults) reader.queryBook(new BookQueryConditions()).payload).getCount());
+        } finally {
+            single.release();
+        }
+    }
+
+    @Test
+    public void tableVersionsTest() {
+        LibraryManagementSystemImpl impl = new LibraryManagementSystemImpl(connector);
+        TableVersions versions = impl.getTableVersions();
+        MyLibrary my = MyLibrary.createLibrary(impl, 10, 2, 0);
+        String books = versions.etag(Table.BOOK);
+        String cards = versions.etag(Table.CARD);
+        /* reads and failed writes leave the tags alone */
+        Assert.assertTrue(impl.showCards().ok);
+        Assert.assertTrue(impl.queryBook(new BookQueryConditions()).ok);
+        Assert.assertFalse(impl.storeBook(my.books.get(0).clone()).ok);
+        Assert.assertFalse(impl.removeCard(-1).ok);
+        Assert.assertEquals(books, versions.etag(Table.BOOK));
+        Assert.assertEquals(cards, versions.etag(Table.CARD));
+        /* a loan changes the stock of the book, not the cards */
+        Borrow borrow = new Borrow(my.books.get(0).getBookId(), my.cards.get(0).getCardId());
+        borrow.resetBorrowTime();
+        Assert.assertTrue(impl.borrowBook(borrow).ok);
+        Assert.assertNotEquals(books, versions.etag(Table.BOOK));
+        Assert.assertEquals(cards, versions.etag(Table.CARD));
+        Card card = my.cards.get(1).clone();
+        card.setDepartment("Renamed");
+        Assert.assertTrue(impl.modifyCard(card).ok);
+        Assert.assertNotEquals(cards, versions.etag(Table.CARD));
+        /* tags of another library instance, e.g. before a restart, never match */
+        Assert.assertNotEquals(versions.etag(Table.CARD),
+                new LibraryManagementSystemImpl(connector).getTableVersions().etag(Table.CARD));
+    }
+
+    @Test
+    public void migrateSchemaTest() throws Exception {
+        LibraryManagementSystemImpl impl = new LibraryManagementSystemImpl(connector);
+        DBInitializer initializer = connectConfig.getType().getDbInitializer();
+        MyLibrary my = MyLibrary.createLibrary(impl, 10, 5, 20);
+        /* resetDatabase already applied every migration */
+        Assert.assertEquals(0, impl.migrateSchema());
+        try (Connection conn = connector.getConn()) {
+            Assert.assertEquals(SchemaMigrator.latestVersion(initializer), SchemaMigrator.currentVersion(conn, initializer));
+            /* a database from before versioning: the migrations run again on the existing indexes */
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(initializer.sqlDropSchemaVersion());
+            }
+            conn.commit();
+            Assert.assertEquals(0, SchemaMigrator.currentVersion(conn, initializer));
+        }
+        Assert.assertEquals(initializer.migrations().size(), impl.migrateSchema());
+        Assert.assertEquals(0, impl.migrateSchema());
+        /* and the data is still there */
+        BorrowHistories histories = (BorrowHistories) impl.showBorrowHistory(my.cards.get(0).getCardId()).payload;
+        long expected = my.borrows.stream().filter(b -> b.getCardId() == my.cards.get(0).getCardId()).count();
+        Assert.assertEquals(expected, histories.getCount());
+    }
+
+    @Test
+    public void activeLoanTest() throws Exception {
+        LibraryConfig config = new LibraryConfig();
+        config.setActiveLoanCache(true);
+        LibraryManagementSystemImpl impl = new LibraryManagementSystemImpl(connector, config);
+        MyLibrary my = MyLibrary.createLibrary(impl, 5, 3, 20);
+        impl.loadActiveLoans();
+        int bookId = my.books.get(0).getBookId();
+        int cardId = my.cards.get(0).getCardId();
+        Borrow borrow = new Borrow(bookId, cardId);
+        borrow.resetBorrowTime();
+        Assert.assertTrue(impl.borrowBook(borrow).ok);
+        /* the duplicate is rejected by the cache, a second library without it asks active_loan */
+        Assert.assertFalse(impl.borrowBook(borrow).ok);
+        Assert.assertFalse(library.borrowBook(borrow).ok);
+        Assert.assertFalse(impl.removeBook(bookId).ok);
+        Assert.assertFalse(library.removeBook(bookId).ok);
+        Assert.assertFalse(impl.removeCard(cardId).ok);
+        Assert.assertFalse(library.removeCard(cardId).ok);
+        Assert.assertFalse(impl.returnBook(new Borrow(bookId, my.cards.get(1).getCardId())).ok);
+        borrow.setReturnTime(borrow.getBorrowTime() + 1);
+        Assert.assertTrue(impl.returnBook(borrow).ok);
+        Assert.assertFalse(impl.returnBook(borrow).ok);
+        Assert.assertFalse(library.returnBook(borrow).ok);
+        BorrowHistories histories = (BorrowHistories) impl.showBorrowHistory(cardId).payload;
+        Assert.assertEquals(borrow.getReturnTime(), histories.getItems().get(0).getReturnTime());
+
+        /* loans that were open before active_loan existed are copied into it by the migration */
+        borrow.resetBorrowTime();
+        Assert.assertTrue(impl.borrowBook(borrow).ok);
+        DBInitializer initializer = connectConfig.getType().getDbInitializer();
+        try (Connection conn = connector.getConn(); Statement stmt = conn.createStatement()) {
+            stmt.execute(initializer.sqlDropActiveLoan());
+            stmt.execute("delete from schema_version where version >= 4");
+            conn.commit();
+        }
+        Assert.assertTrue(impl.migrateSchema() > 0);
+        Assert.assertFalse(library.borrowBook(borrow).ok);
+        borrow.setReturnTime(borrow.getBorrowTime() + 1);
+        Assert.assertTrue(library.returnBook(borrow).ok);
+    }
+
+    @Test
+    public void batchBorrowAndReturnTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 4, 1, 0);
+        int cardId = my.cards.get(0).getCardId();
+        int[] ids = my.books.stream().mapToInt(Book::getBookId).toArray();
+        for (Book book : my.books) {
+            Assert.assertTrue(library.incBookStock(book.getBookId(), 5 - book.getStock()).ok);
+        }
+        Assert.assertTrue(library.incBookStock(ids[2], -5).ok);
+        /* items are reported in request order; a failed book and a repeated one do not stop the others */
+        ApiResult result = library.borrowBooks(cardId, Arrays.asList(ids[1], ids[0], ids[2], ids[1]), 100);
+        Assert.assertTrue(result.ok);
+        BatchResults results = (BatchResults) result.payload;
+        Assert.assertEquals(2, results.getSucceeded());
+        Assert.assertEquals(2, results.getFailed());
+        Assert.assertEquals(Arrays.asList(true, true, false, false),
+                results.getItems().stream().map(BatchResults.Item::isOk).collect(Collectors.toList()));
+        Assert.assertEquals(ids[1], results.getItems().get(0).getId());
+        Assert.assertEquals("Insufficient stock", results.getItems().get(2).getMessage());
+        /* all or nothing: book 3 is not borrowed because book 2 can not be */
+        result = library.borrowBooks(cardId, Arrays.asList(ids[3], ids[2]), 200, true);
+        Assert.assertFalse(result.ok);
+        Assert.assertFalse(((BatchResults) result.payload).getItems().get(0).isOk());
+        Assert.assertEquals(Arrays.asList(4, 4, 0, 5),
+                Arrays.stream(ids).map(this::stock).boxed().collect(Collectors.toList()));
+        Assert.assertEquals(2, ((BorrowHistories) library.showBorrowHistory(cardId).payload).getCount());
+
+        Assert.assertFalse(library.returnBooks(cardId, Arrays.asList(ids[0], ids[1]), 100, true).ok);
+        result = library.returnBooks(cardId, Arrays.asList(ids[0], ids[3], ids[1]), 300);
+        results = (BatchResults) result.payload;
+        Assert.assertEquals(2, results.getSucceeded());
+        Assert.assertEquals("No active borrow record found", results.getItems().get(1).getMessage());
+        Assert.assertEquals(5, stock(ids[0]));
+        Assert.assertEquals(5, stock(ids[1]));
+        for (BorrowHistories.Item item : ((BorrowHistories) library.showBorrowHistory(cardId).payload).getItems()) {
+            Assert.assertEquals(300, item.getReturnTime());
+        }
+    }
+
+    private int stock(int bookId) {
+        BookQueryResults results = (BookQueryResults) library.queryBook(new BookQueryConditions()).payload;
+        return results.getResults().stream().filter(b -> b.getBookId() == bookId).findFirst().get().getStock();
+    }
+
+    @Test
+    public void archiveLoansTest() throws Exception {
+        MyLibrary my = MyLibrary.createLibrary(library, 20, 4, 200);
+        Borrow open = new Borrow(my.books.get(0).getBookId(), my.cards.get(0).getCardId());
+        open.resetBorrowTime();
+        Assert.assertTrue(library.borrowBook(open).ok);
+        List<List<String>> before = new ArrayList<>();
+        for (Card card : my.cards) {
+            before.add(historyPages(card.getCardId()));
+        }
+        /* archive the older half of the returned loans, in small batches */
+        long[] returns = my.borrows.stream().mapToLong(Borrow::getReturnTime).sorted().toArray();
+        LoanArchiver archiver = new LoanArchiver(connector, 0, 16, 0);
+        long cutoff = returns[returns.length / 2];
+        while (archiver.archiveBatch(cutoff) > 0) {
+        }
+        Assert.assertEquals(Arrays.stream(returns).filter(t -> t < cutoff).count(), archiver.getArchivedCount());
+        for (int i = 0; i < my.cards.size(); i++) {
+            Assert.assertEquals(before.get(i), historyPages(my.cards.get(i).getCardId()));
+        }
+        /* the open loan stays, so does everything else once the rest is archived */
+        while (archiver.archiveBatch(Long.MAX_VALUE) > 0) {
+        }
+        Assert.assertEquals(returns.length, archiver.getArchivedCount());
+        for (int i = 0; i < my.cards.size(); i++) {
+            Assert.assertEquals(before.get(i), historyPages(my.cards.get(i).getCardId()));
+        }
+        open.setReturnTime(open.getBorrowTime() + 1);
+        Assert.assertTrue(library.returnBook(open).ok);
+        Assert.assertEquals(4, LoanArchiver.monthOf(1712000000000L) % 100);
+    }
+
+    /* a card's whole history read in pages of 7, one line per record */
+    private List<String> historyPages(int cardId) {
+        List<String> lines = new ArrayList<>();
+        BorrowHistoryConditions conditions = new BorrowHistoryConditions(cardId);
+        conditions.setLimit(7);
+        do {
+            ApiResult result = library.showBorrowHistory(conditions);
+            Assert.assertTrue(result.message, result.ok);
+            BorrowHistories page = (BorrowHistories) result.payload;
+            for (BorrowHistories.Item item : page.getItems()) {
+                lines.add(item.getBookId() + " " + item.getBorrowTime() + " " + item.getReturnTime());
+            }
+            conditions.setCursor(page.getNextCursor());
+        } while (conditions.getCursor() != null);
+        BorrowHistories all = (BorrowHistories) library.showBorrowHistory(cardId).payload;
+        Assert.assertEquals(lines.size(), all.getCount());
+        return lines;
+    }
+
     @Test
     public void borrowAndReturnBookTest() {
         /* insert some books & cards & borrow histories to database */
@@ -584,6 +1137,57 @@ public class LibraryTest {
         }
     }
 
+    @Test
+    public void borrowHistoryPaginationTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 40, 2, 150);
+        int cardId = my.cards.get(0).getCardId();
+        /* one book of the card stays on loan */
+        Borrow active = new Borrow(my.books.get(0).getBookId(), cardId);
+        active.resetBorrowTime();
+        Assert.assertTrue(library.borrowBook(active).ok);
+        List<BorrowHistories.Item> all = ((BorrowHistories) library.showBorrowHistory(cardId).payload).getItems();
+        Assert.assertTrue(all.size() > 20);
+
+        /* pages of 7 add up to the whole history, in the same order */
+        BorrowHistoryConditions conditions = new BorrowHistoryConditions(cardId);
+        conditions.setLimit(7);
+        List<BorrowHistories.Item> paged = new ArrayList<>();
+        do {
+            ApiResult result = library.showBorrowHistory(conditions);
+            Assert.assertTrue(result.message, result.ok);
+            BorrowHistories page = (BorrowHistories) result.payload;
+            Assert.assertTrue(page.getCount() <= 7);
+            paged.addAll(page.getItems());
+            conditions.setCursor(page.getNextCursor());
+        } while (conditions.getCursor() != null);
+        Assert.assertEquals(all.toString(), paged.toString());
+
+        /* [from, to) keeps the records borrowed in that range */
+        long from = all.get(all.size() * 3 / 4).getBorrowTime();
+        long to = all.get(all.size() / 4).getBorrowTime();
+        conditions = new BorrowHistoryConditions(cardId);
+        conditions.setFrom(from);
+        conditions.setTo(to);
+        List<BorrowHistories.Item> expected = all.stream()
+                .filter(i -> i.getBorrowTime() >= from && i.getBorrowTime() < to)
+                .collect(Collectors.toList());
+        Assert.assertEquals(expected.toString(),
+                ((BorrowHistories) library.showBorrowHistory(conditions).payload).getItems().toString());
+
+        conditions = new BorrowHistoryConditions(cardId);
+        conditions.setOnlyActive(true);
+        List<BorrowHistories.Item> onLoan = ((BorrowHistories) library.showBorrowHistory(conditions).payload).getItems();
+        Assert.assertEquals(1, onLoan.size());
+        Assert.assertEquals(active.getBookId(), onLoan.get(0).getBookId());
+        Assert.assertEquals(0, onLoan.get(0).getReturnTime());
+
+        conditions.setLimit(0);
+        Assert.assertFalse(library.showBorrowHistory(conditions).ok);
+        conditions.setLimit(1);
+        conditions.setCursor("not a cursor");
+        Assert.assertFalse(library.showBorrowHistory(conditions).ok);
+    }
+
     @Test
     public void parallelBorrowBookTest() {
         int nThreads = BorrowThread.nThreads;
@@ -671,6 +1275,30 @@ public class LibraryTest {
         }
     }
 
+    @Test
+    public void registerCardsTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 1, 10, 0);
+        Card existing = my.cards.get(3).clone();
+        existing.setCardId(0);
+        Card fresh = new Card(0, "Freshman", "Computer Science", Card.CardType.Student);
+        Card repeated = fresh.clone();
+        Card incomplete = new Card(0, "Nobody", null, Card.CardType.Teacher);
+        ApiResult result = library.registerCards(Arrays.asList(fresh, existing, repeated, incomplete));
+        Assert.assertTrue(result.ok);
+        BatchResults results = (BatchResults) result.payload;
+        Assert.assertEquals(1, results.getSucceeded());
+        Assert.assertEquals(Arrays.asList(true, false, false, false),
+                results.getItems().stream().map(BatchResults.Item::isOk).collect(Collectors.toList()));
+        /* a skipped card reports the id of the card it duplicates */
+        Assert.assertTrue(fresh.getCardId() > 0);
+        Assert.assertEquals(fresh.getCardId(), results.getItems().get(0).getId());
+        Assert.assertEquals(my.cards.get(3).getCardId(), results.getItems().get(1).getId());
+        Assert.assertEquals(fresh.getCardId(), results.getItems().get(2).getId());
+        Assert.assertEquals("Card already exists", results.getItems().get(1).getMessage());
+        Assert.assertEquals(11, ((CardList) library.showCards().payload).getCount());
+        Assert.assertFalse(library.registerCard(repeated).ok);
+    }
+
     private List<Book> verifyQueryResult(List<Book> books, BookQueryConditions conditions) {
         Stream<Book> stream = books.stream();
         if (conditions.getCategory() != null) {
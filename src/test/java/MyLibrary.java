@@ -4,6 +4,7 @@ import entities.Card;
 import org.apache.commons.lang3.RandomUtils;
 import org.junit.Assert;
 import queries.ApiResult;
+import queries.BatchResults;
 import utils.RandomData;
 
 import java.util.*;
@@ -50,8 +51,10 @@ public class MyLibrary {
             c.setDepartment(RandomData.randomDepartment());
             c.setType(Card.CardType.random());
             cardList.add(c);
-            Assert.assertTrue(library.registerCard(c).ok);
         }
+        res = library.registerCards(cardList);
+        Assert.assertTrue(res.ok);
+        Assert.assertEquals(nCards, ((BatchResults) res.payload).getSucceeded());
         /* create histories */
         List<Borrow> borrowList = new ArrayList<>();
         PriorityQueue<Long> mills = new PriorityQueue<>();
@@ -0,0 +1,26 @@
+import utils.ConnectConfig;
+
+/**
+ * Connection config shared by the test classes, parsed once from
+ * "resources/application.yaml".
+ */
+public final class TestConfig {
+
+    private static ConnectConfig connectConfig = null;
+
+    static {
+        try {
+            connectConfig = new ConnectConfig();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private TestConfig() {
+    }
+
+    public static ConnectConfig connectConfig() {
+        return connectConfig;
+    }
+}